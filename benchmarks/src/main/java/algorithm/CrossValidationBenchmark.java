@@ -0,0 +1,64 @@
+package algorithm;
+
+import distanceFunctions.HammingDistance;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A full 10-fold cross-validation of an already loaded and normalized data set, the way the
+ * README's experiments run it: dividing the data into folds, indexing every training set, and
+ * classifying or predicting every data point
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class CrossValidationBenchmark {
+
+    private static final int FOLDS = 10;
+
+    @Param({"IONOSPHERE", "AUTOS"})
+    public SyntheticData data;
+
+    @Param({"1000", "20000"})
+    public int rows;
+
+    @Param({"1", "5", "25"})
+    public int k;
+
+    @Param({"MANHATTAN", "EUCLIDEAN"})
+    public RealDistance distance;
+
+    @Param({"false", "true"})
+    public boolean parallel;
+
+    private DataSet dataSet;
+    private Normalization normalization;
+    private ForkJoinPool pool;
+
+    @Setup
+    public void setUp() {
+        dataSet = data.dataSet(rows, 1);
+        normalization = Normalization.fit(dataSet);
+        normalization.apply(dataSet);
+        pool = parallel ? new ForkJoinPool(Runtime.getRuntime().availableProcessors()) : null;
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (pool != null) {
+            pool.shutdown();
+        }
+    }
+
+    @Benchmark
+    public float crossValidation() {
+        NearestNeighbors nearestNeighbors = new NearestNeighbors(k, FOLDS, false, data.targetAttributeName, new ArrayList<>(), data.name(), dataSet, normalization, distance.function, new HammingDistance(), NeighborIndexType.KD_TREE, pool, Metrics.NONE);
+        return dataSet.targetAttribute.isReal ? nearestNeighbors.regressionMeanAbsoluteError() : nearestNeighbors.classificationSuccessRate();
+    }
+}
@@ -0,0 +1,63 @@
+package algorithm;
+
+import distanceFunctions.HammingDistance;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The distance functions on their own: the distances from one data point to every row of a data set.
+ * Scores are per distance
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@OperationsPerInvocation(DistanceBenchmark.ROWS)
+public class DistanceBenchmark {
+
+    static final int ROWS = 1024;
+
+    @Param({"IONOSPHERE", "AUTOS"})
+    public SyntheticData data;
+
+    @Param({"MANHATTAN", "EUCLIDEAN", "MINKOWSKI_3", "CHEBYSHEV"})
+    public RealDistance distance;
+
+    private final HammingDistance hammingDistance = new HammingDistance();
+
+    private DataPoint[] dataPoints;
+
+    @Setup
+    public void setUp() {
+        DataSet dataSet = data.dataSet(ROWS, 1);
+        Normalization.fit(dataSet).apply(dataSet);
+        dataPoints = new DataPoint[ROWS];
+        for (int row = 0; row < ROWS; row++) {
+            dataPoints[row] = dataSet.get(row);
+        }
+    }
+
+    @Benchmark
+    public double realValueDistance() {
+        double sum = 0;
+        for (DataPoint dataPoint : dataPoints) {
+            sum += distance.function.distance(dataPoints[0], dataPoint);
+        }
+        return sum;
+    }
+
+    /**
+     * Doesn't depend on the real value distance, so only needs to be run with one of them
+     */
+    @Benchmark
+    public double hammingDistance() {
+        double sum = 0;
+        for (DataPoint dataPoint : dataPoints) {
+            sum += hammingDistance.distance(dataPoints[0], dataPoint);
+        }
+        return sum;
+    }
+}
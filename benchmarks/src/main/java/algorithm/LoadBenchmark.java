@@ -0,0 +1,52 @@
+package algorithm;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loading an ARFF file into a data set, and normalizing the data set
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class LoadBenchmark {
+
+    @Param({"IONOSPHERE", "AUTOS"})
+    public SyntheticData data;
+
+    @Param({"1000", "100000"})
+    public int rows;
+
+    private byte[] arff;
+
+    /**
+     * The loaded data set, and a copy of it that is normalized over and over
+     */
+    private DataSet dataSet, normalizedDataSet;
+
+    @Setup
+    public void setUp() {
+        arff = data.arff(rows, 1);
+        dataSet = data.load(arff);
+        normalizedDataSet = data.load(arff);
+    }
+
+    @Benchmark
+    public DataSet load() {
+        return data.load(arff);
+    }
+
+    /**
+     * Includes copying the values back, since normalizing works in place
+     */
+    @Benchmark
+    public DataSet normalize() {
+        System.arraycopy(dataSet.realValues(), 0, normalizedDataSet.realValues(), 0, dataSet.size() * dataSet.realAttributeCount);
+        Normalization.fit(normalizedDataSet).apply(normalizedDataSet);
+        return normalizedDataSet;
+    }
+}
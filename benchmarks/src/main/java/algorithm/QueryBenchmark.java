@@ -0,0 +1,86 @@
+package algorithm;
+
+import distanceFunctions.HammingDistance;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Finding the nearest neighbors of a single query in a fitted model, and predicting its target attribute
+ * through the public API, which also normalizes the query
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class QueryBenchmark {
+
+    /**
+     * How many queries are cycled through
+     */
+    private static final int QUERIES = 1024;
+
+    @Param({"IONOSPHERE", "AUTOS"})
+    public SyntheticData data;
+
+    @Param({"1000", "100000"})
+    public int rows;
+
+    @Param({"1", "5", "25"})
+    public int k;
+
+    @Param({"MANHATTAN", "EUCLIDEAN", "CHEBYSHEV"})
+    public RealDistance distance;
+
+    @Param({"BRUTE_FORCE", "KD_TREE", "PIVOTS"})
+    public NeighborIndexType index;
+
+    private NearestNeighborsModel model;
+
+    /**
+     * The queries without normalization, and normalized like the training set
+     */
+    private DataPoint[] queries, normalizedQueries;
+
+    private NeighborHeap nearestNeighbors;
+
+    private int nextQuery;
+
+    @Setup
+    public void setUp() {
+        // the training set and the queries come from the same file, so they share their categorical codes
+        DataSet dataSet = data.dataSet(rows + QUERIES, 1);
+        int[] trainingRows = new int[rows], queryRows = new int[QUERIES];
+        for (int row = 0; row < rows + QUERIES; row++) {
+            if (row < rows) {
+                trainingRows[row] = row;
+            } else {
+                queryRows[row - rows] = row;
+            }
+        }
+        DataSet trainingSet = new DataSet(dataSet, trainingRows);
+        DataSet querySet = new DataSet(dataSet, queryRows), normalizedQuerySet = new DataSet(dataSet, queryRows);
+        model = NearestNeighborsModel.fit(trainingSet, k, false, distance.function, new HammingDistance(), index);
+        Normalization.fit(trainingSet).apply(normalizedQuerySet);
+        queries = new DataPoint[QUERIES];
+        normalizedQueries = new DataPoint[QUERIES];
+        for (int i = 0; i < QUERIES; i++) {
+            queries[i] = querySet.get(i);
+            normalizedQueries[i] = normalizedQuerySet.get(i);
+        }
+        nearestNeighbors = new NeighborHeap(k);
+    }
+
+    @Benchmark
+    public NeighborHeap nearestNeighbors() {
+        model.getNearestNeighbors(normalizedQueries[nextQuery++ & (QUERIES - 1)], nearestNeighbors);
+        return nearestNeighbors;
+    }
+
+    @Benchmark
+    public double predict() {
+        return model.predict(queries[nextQuery++ & (QUERIES - 1)]);
+    }
+}
@@ -0,0 +1,21 @@
+package algorithm;
+
+import distanceFunctions.ChebyshevDistance;
+import distanceFunctions.MinkowskiDistance;
+
+/**
+ * The real value distance functions the benchmarks are run with
+ */
+public enum RealDistance {
+
+    MANHATTAN(new MinkowskiDistance(1)),
+    EUCLIDEAN(new MinkowskiDistance(2)),
+    MINKOWSKI_3(new MinkowskiDistance(3)),
+    CHEBYSHEV(new ChebyshevDistance());
+
+    public final MinkowskiDistance function;
+
+    RealDistance(MinkowskiDistance function) {
+        this.function = function;
+    }
+}
@@ -0,0 +1,164 @@
+package algorithm;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates data sets of any size that look like one of the data sets in the README.
+ * Every generated row is a random row of the original data set with some noise added to its
+ * real values, so the generated data has the same attributes, the same mix of real and
+ * categorical values, the same missing values and roughly the same clusters as the original.
+ */
+public enum SyntheticData {
+
+    IONOSPHERE("ionosphere.arff", "class"),
+    AUTOS("autos.arff", "price");
+
+    /**
+     * The standard deviation of the noise added to a real value, as a fraction of the
+     * standard deviation of the attribute in the original data set
+     */
+    private static final float NOISE = 0.05f;
+
+    /**
+     * The resource holding the original data set, and its target attribute
+     */
+    private final String resource;
+    public final String targetAttributeName;
+
+    SyntheticData(String resource, String targetAttributeName) {
+        this.resource = resource;
+        this.targetAttributeName = targetAttributeName;
+    }
+
+    /**
+     * Generates a data set as an ARFF file
+     * @param rows how many rows to generate
+     * @param seed the seed of the random numbers, so that the same data can be generated again
+     * @return the contents of the ARFF file
+     */
+    public byte[] arff(int rows, long seed) {
+        try (InputStream in = SyntheticData.class.getClassLoader().getResourceAsStream(resource)) {
+            if (in == null) {
+                throw new IllegalStateException("Missing resource " + resource);
+            }
+            ArffReader original = new ArffReader(in);
+            List<Attribute> attributes = original.getAttributes();
+            List<float[]> realRows = new ArrayList<>();
+            List<int[]> categoricalRows = new ArrayList<>();
+            float[] realValues = new float[attributes.size()];
+            int[] categoricalValues = new int[attributes.size()];
+            while (original.next(realValues, categoricalValues)) {
+                realRows.add(realValues.clone());
+                categoricalRows.add(categoricalValues.clone());
+            }
+            float[] standardDeviations = standardDeviations(attributes, realRows);
+
+            StringBuilder arff = new StringBuilder();
+            arff.append("@relation ").append(quote(original.getRelationName() + "-synthetic")).append('\n');
+            for (Attribute attribute : attributes) {
+                arff.append("@attribute ").append(quote(attribute.name)).append(' ');
+                if (attribute.isReal) {
+                    arff.append("real");
+                } else if (attribute.declaredValueCount == 0) {
+                    arff.append("string");
+                } else {
+                    List<String> values = new ArrayList<>();
+                    for (String value : attribute.getDeclaredValues()) {
+                        values.add(quote(value));
+                    }
+                    arff.append('{').append(String.join(",", values)).append('}');
+                }
+                arff.append('\n');
+            }
+            arff.append("@data\n");
+            Random random = new Random(seed);
+            for (int row = 0; row < rows; row++) {
+                int source = random.nextInt(realRows.size());
+                for (int i = 0; i < attributes.size(); i++) {
+                    if (i > 0) {
+                        arff.append(',');
+                    }
+                    Attribute attribute = attributes.get(i);
+                    if (attribute.isReal) {
+                        float value = realRows.get(source)[i];
+                        if (Float.isNaN(value)) {
+                            arff.append('?');
+                        } else {
+                            arff.append(value + (float) random.nextGaussian() * NOISE * standardDeviations[i]);
+                        }
+                    } else {
+                        String value = attribute.getValue(categoricalRows.get(source)[i]);
+                        arff.append(value.equals("?") ? value : quote(value));
+                    }
+                }
+                arff.append('\n');
+            }
+            return arff.toString().getBytes(StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Generates a data set and loads it the way the README's experiments load theirs, without normalizing it
+     * @param rows how many rows to generate
+     * @param seed the seed of the random numbers, so that the same data can be generated again
+     * @return the data set
+     */
+    public DataSet dataSet(int rows, long seed) {
+        return load(arff(rows, seed));
+    }
+
+    /**
+     * Loads a generated ARFF file, without normalizing it
+     */
+    public DataSet load(byte[] arff) {
+        try (ArffReader in = new ArffReader(new ByteArrayInputStream(arff))) {
+            return in.readDataSet(targetAttributeName, Collections.emptyList());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static float[] standardDeviations(List<Attribute> attributes, List<float[]> rows) {
+        float[] standardDeviations = new float[attributes.size()];
+        for (int i = 0; i < attributes.size(); i++) {
+            if (!attributes.get(i).isReal) {
+                continue;
+            }
+            double sum = 0, sumOfSquares = 0;
+            int count = 0;
+            for (float[] row : rows) {
+                if (!Float.isNaN(row[i])) {
+                    sum += row[i];
+                    sumOfSquares += (double) row[i] * row[i];
+                    count++;
+                }
+            }
+            if (count > 0) {
+                double mean = sum / count;
+                standardDeviations[i] = (float) Math.sqrt(Math.max(0, sumOfSquares / count - mean * mean));
+            }
+        }
+        return standardDeviations;
+    }
+
+    /**
+     * Quotes a name or value if it contains anything but letters, digits and -_.
+     */
+    private static String quote(String value) {
+        if (!value.isEmpty() && value.chars().allMatch(c -> Character.isLetterOrDigit(c) || c == '-' || c == '_' || c == '.')) {
+            return value;
+        }
+        return "'" + value.replace("\\", "\\\\").replace("'", "\\'") + "'";
+    }
+}
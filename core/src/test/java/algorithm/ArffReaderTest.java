@@ -0,0 +1,183 @@
+package algorithm;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ArffReaderTest {
+
+    private static ArffReader reader(String arff) throws IOException {
+        return new ArffReader(new ByteArrayInputStream(arff.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static DataSet read(String arff, String targetAttributeName, List<String> ignoredAttributes) throws IOException {
+        try (ArffReader in = reader(arff)) {
+            return in.readDataSet(targetAttributeName, ignoredAttributes);
+        }
+    }
+
+    @Test
+    void readsQuotedValuesAndEscapes() throws IOException {
+        DataSet dataSet = read("@relation 'quoted values'\n"
+                + "@attribute 'first name' string\n"
+                + "@attribute x numeric\n"
+                + "@attribute color {red, 'light blue'}\n"
+                + "@data\n"
+                + "'it\\'s', 1.5, 'light blue'\n"
+                + "\"a,b\", '2', red\n"
+                + "'tab\\there', 3, \"red\"\n", "color", List.of());
+        assertEquals("first name", dataSet.getCategoricalAttribute(0).name);
+        assertEquals("it's", dataSet.getCategoricalValue(0, 0));
+        assertEquals("a,b", dataSet.getCategoricalValue(1, 0));
+        assertEquals("tab\there", dataSet.getCategoricalValue(2, 0));
+        assertEquals(2f, dataSet.getRealValue(1, 0));
+        assertEquals("light blue", dataSet.getTargetAttributeValue(0));
+        assertEquals("red", dataSet.getTargetAttributeValue(1));
+        assertEquals("red", dataSet.getTargetAttributeValue(2));
+    }
+
+    private static final String MISSING_VALUES = "@relation missing\n"
+            + "@attribute a numeric\n"
+            + "@attribute b numeric\n"
+            + "@attribute c {x, y}\n"
+            + "@attribute t numeric\n"
+            + "@data\n"
+            + "?, 1, x, 1\n"
+            + "2, ?, ?, 2\n"
+            + "% a comment\n"
+            + "\n"
+            + "4, 3, y, 3\n";
+
+    @Test
+    void replacesMissingRealValuesByTheMean() throws IOException {
+        DataSet dataSet = read(MISSING_VALUES, "t", List.of());
+        assertEquals(3, dataSet.size());
+        assertEquals(3f, dataSet.getRealValue(0, 0));
+        assertEquals(2f, dataSet.getRealValue(1, 1));
+        assertEquals("x", dataSet.getCategoricalValue(0, 0));
+        assertEquals("?", dataSet.getCategoricalValue(1, 0));
+        assertEquals("y", dataSet.getCategoricalValue(2, 0));
+        assertEquals(2.0, dataSet.getTargetValue(1));
+    }
+
+    @Test
+    void leavesMissingRealValuesOfAChunkAsNaN() throws IOException {
+        try (ArffReader in = reader(MISSING_VALUES)) {
+            DataSet chunk = in.readRows("t", List.of(), 2);
+            assertEquals(2, chunk.size());
+            assertTrue(Float.isNaN(chunk.getRealValue(0, 0)));
+            assertTrue(Float.isNaN(chunk.getRealValue(1, 1)));
+            assertEquals(1, in.readRows("t", List.of(), 2).size());
+            assertEquals(0, in.readRows("t", List.of(), 2).size());
+        }
+    }
+
+    private static final String SPARSE = "@relation sparse\n"
+            + "@attribute a numeric\n"
+            + "@attribute b numeric\n"
+            + "@attribute c {x, y}\n"
+            + "@attribute t {p, q}\n"
+            + "@data\n"
+            + "{1 5, 3 q}\n"
+            + "{0 -2.5, 2 y, 3 p}\n"
+            + "{ }\n"
+            + "7, 8, y, q\n";
+
+    @Test
+    void readsSparseRows() throws IOException {
+        DataSet dataSet = read(SPARSE, "t", List.of());
+        assertEquals(4, dataSet.size());
+        float[][] realValues = {{0, 5}, {-2.5f, 0}, {0, 0}, {7, 8}};
+        String[] c = {"x", "y", "x", "y"};
+        String[] t = {"q", "p", "p", "q"};
+        for (int row = 0; row < dataSet.size(); row++) {
+            assertEquals(realValues[row][0], dataSet.getRealValue(row, 0), "row " + row);
+            assertEquals(realValues[row][1], dataSet.getRealValue(row, 1), "row " + row);
+            assertEquals(c[row], dataSet.getCategoricalValue(row, 0), "row " + row);
+            assertEquals(t[row], dataSet.getTargetAttributeValue(row), "row " + row);
+        }
+    }
+
+    @Test
+    void leavesOutIgnoredAttributes() throws IOException {
+        for (String arff : new String[]{SPARSE, MISSING_VALUES}) {
+            DataSet all = read(arff, "t", List.of());
+            DataSet kept = read(arff, "t", List.of("b", "c"));
+            assertEquals(1, kept.realAttributeCount);
+            assertEquals(0, kept.categoricalAttributeCount);
+            assertEquals("a", kept.getRealAttribute(0).name);
+            for (int row = 0; row < all.size(); row++) {
+                assertEquals(all.getRealValue(row, 0), kept.getRealValue(row, 0));
+                assertEquals(all.getTargetAttributeValue(row), kept.getTargetAttributeValue(row));
+            }
+        }
+    }
+
+    /**
+     * @return the values of a single real value column, read from a dense file
+     */
+    private static float[] readColumn(List<String> values) throws IOException {
+        StringBuilder arff = new StringBuilder("@relation numbers\n@attribute x real\n@data\n");
+        for (String value : values) {
+            arff.append(value).append('\n');
+        }
+        DataSet dataSet = read(arff.toString(), null, List.of());
+        float[] column = new float[dataSet.size()];
+        for (int row = 0; row < column.length; row++) {
+            column[row] = dataSet.getRealValue(row, 0);
+        }
+        return column;
+    }
+
+    @Test
+    void parsesNumbersLikeFloatParseFloat() throws IOException {
+        Random random = new Random(1);
+        List<String> values = new ArrayList<>(List.of("0", "-0", "+1", "0.1", "1.", ".5", "-.5", "16777216", "16777217", "123456789",
+                "3.4028235e38", "1.4e-45", "1e-50", "1e39", "1E10", "1e-10", "1e+3", "0.000000001", "12345678901234567890", "-Infinity", "1.5f"));
+        for (int i = 0; i < 20000; i++) {
+            switch (random.nextInt(3)) {
+                case 0:
+                    values.add(Float.toString(Float.intBitsToFloat(random.nextInt())).replace("Infinity", "1").replace("NaN", "2"));
+                    break;
+                case 1:
+                    values.add(Double.toString(random.nextGaussian() * Math.pow(10, random.nextInt(20) - 10)));
+                    break;
+                default:
+                    // a few digits with a decimal point somewhere, and maybe an exponent
+                    StringBuilder number = new StringBuilder(random.nextBoolean() ? "-" : "");
+                    int digits = 1 + random.nextInt(10), point = random.nextInt(digits + 1);
+                    for (int j = 0; j < digits; j++) {
+                        if (j == point) {
+                            number.append('.');
+                        }
+                        number.append((char) ('0' + random.nextInt(10)));
+                    }
+                    if (random.nextBoolean()) {
+                        number.append(random.nextBoolean() ? 'e' : 'E').append(random.nextBoolean() ? "-" : "").append(random.nextInt(15));
+                    }
+                    values.add(number.toString());
+            }
+        }
+        float[] column = readColumn(values);
+        for (int i = 0; i < values.size(); i++) {
+            assertEquals(Float.floatToIntBits(Float.parseFloat(values.get(i))), Float.floatToIntBits(column[i]), values.get(i));
+        }
+    }
+
+    @Test
+    void rejectsWhatFloatParseFloatRejects() {
+        for (String value : new String[]{"1e", "1e+", "1E-", "-", ".", "e5", "1.2.3", "abc", "1e5x"}) {
+            assertThrows(NumberFormatException.class, () -> Float.parseFloat(value), value);
+            assertThrows(IOException.class, () -> readColumn(List.of(value)), value);
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package algorithm;
+
+import distanceFunctions.HammingDistance;
+import distanceFunctions.MinkowskiDistance;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class BinaryDataSetFileTest {
+
+    private static DataSet readArff(String filename, String targetAttributeName, List<String> ignoredAttributes) throws IOException {
+        try (ArffReader in = new ArffReader(filename)) {
+            return in.readDataSet(targetAttributeName, ignoredAttributes);
+        }
+    }
+
+    private static void assertSameRows(DataSet expected, DataSet actual) {
+        assertEquals(expected.size(), actual.size());
+        assertEquals(expected.realAttributeCount, actual.realAttributeCount);
+        assertEquals(expected.categoricalAttributeCount, actual.categoricalAttributeCount);
+        for (int row = 0; row < expected.size(); row++) {
+            for (int i = 0; i < expected.realAttributeCount; i++) {
+                assertEquals(expected.getRealValue(row, i), actual.getRealValue(row, i), "row " + row);
+            }
+            for (int i = 0; i < expected.categoricalAttributeCount; i++) {
+                assertEquals(expected.categoricalValues()[row * expected.categoricalAttributeCount + i], actual.categoricalValues()[row * actual.categoricalAttributeCount + i], "row " + row);
+                assertEquals(expected.getCategoricalValue(row, i), actual.getCategoricalValue(row, i), "row " + row);
+            }
+            if (expected.targetAttribute.isReal) {
+                assertEquals(expected.getTargetValue(row), actual.getTargetValue(row), "row " + row);
+            } else {
+                assertEquals(expected.getTargetClass(row), actual.getTargetClass(row), "row " + row);
+                assertEquals(expected.getTargetAttributeValue(row), actual.getTargetAttributeValue(row), "row " + row);
+            }
+        }
+    }
+
+    /**
+     * Converts the ARFF file, and checks that the binary file gives back exactly the values, codes, targets and
+     * normalization of the ARFF file, with all the attributes as well as with some of them left out
+     */
+    private static void assertRoundTrip(String filename, String targetAttributeName, List<String> ignoredAttributes) throws IOException {
+        Path binaryFile = Files.createTempFile("roundtrip", BinaryDataSetFile.EXTENSION);
+        try {
+            BinaryDataSetFile.convert(filename, binaryFile.toString(), targetAttributeName, List.of());
+            for (List<String> ignored : List.of(List.<String>of(), ignoredAttributes)) {
+                DataSet expected = readArff(filename, targetAttributeName, ignored);
+                Normalization normalization = Normalization.fit(expected);
+                normalization.apply(expected);
+                try (BinaryDataSetFile in = new BinaryDataSetFile(binaryFile.toString())) {
+                    assertEquals(targetAttributeName, in.getTargetAttribute().name);
+                    assertSameRows(expected, in.read(ignored));
+                    Normalization read = in.getNormalization(ignored);
+                    assertEquals(normalization.attributeCount(), read.attributeCount());
+                    for (int i = 0; i < normalization.attributeCount(); i++) {
+                        assertEquals(normalization.getMin(i), read.getMin(i));
+                        assertEquals(normalization.getMax(i), read.getMax(i));
+                    }
+                }
+            }
+        } finally {
+            Files.delete(binaryFile);
+        }
+    }
+
+    @Test
+    void roundTripsARealTarget() throws IOException {
+        assertRoundTrip("autos.arff", "price", List.of("width", "make", "bore"));
+    }
+
+    @Test
+    void roundTripsACategoricalTarget() throws IOException {
+        assertRoundTrip("ionosphere.arff", "class", List.of("a01", "a02"));
+    }
+
+    @Test
+    void loadsOnlyTheStoredTargetAttribute() throws IOException {
+        Path binaryFile = Files.createTempFile("target", BinaryDataSetFile.EXTENSION);
+        try {
+            BinaryDataSetFile.convert("autos.arff", binaryFile.toString(), "price", List.of());
+            assertThrows(IllegalArgumentException.class, () -> NearestNeighbors.fromFile(3, 10, false, "horsepower", new ArrayList<>(), binaryFile.toString(),
+                    new MinkowskiDistance(2), new HammingDistance(), NeighborIndexType.BRUTE_FORCE, null, Metrics.NONE));
+            NearestNeighbors fromBinaryFile = NearestNeighbors.fromFile(3, 10, false, "price", new ArrayList<>(), binaryFile.toString(),
+                    new MinkowskiDistance(2), new HammingDistance(), NeighborIndexType.BRUTE_FORCE, null, Metrics.NONE);
+            NearestNeighbors fromArffFile = NearestNeighbors.fromFile(3, 10, false, "price", new ArrayList<>(), "autos.arff",
+                    new MinkowskiDistance(2), new HammingDistance(), NeighborIndexType.BRUTE_FORCE, null, Metrics.NONE);
+            assertEquals(fromArffFile.regressionMeanAbsoluteError(), fromBinaryFile.regressionMeanAbsoluteError());
+        } finally {
+            Files.delete(binaryFile);
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package algorithm;
+
+import distanceFunctions.HammingDistance;
+import distanceFunctions.MinkowskiDistance;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class IncrementalNearestNeighborsModelTest {
+
+    private static final int WINDOW_SIZE = 200;
+
+    /**
+     * Streams points whose values drift away from where they started, so the window keeps moving to parts
+     * of the space the tree has never seen, and checks every so often that the sliding window model predicts
+     * exactly what a model refit to the points in the window predicts
+     */
+    @Test
+    void slidingWindowPredictsLikeARefit() throws IOException {
+        DataSet dataSet;
+        try (ArffReader in = new ArffReader("autos.arff")) {
+            dataSet = in.readDataSet("price", List.of());
+        }
+        DataSet empty = new DataSet(dataSet, new int[0]);
+        int dimensions = dataSet.realAttributeCount;
+        IncrementalNearestNeighborsModel model = new IncrementalNearestNeighborsModel(empty, 5, true, new MinkowskiDistance(2), new HammingDistance(), WINDOW_SIZE);
+        ArrayDeque<Integer> window = new ArrayDeque<>();
+        DataSet points = new DataSet(empty, new int[0]);
+        Random random = new Random(1);
+        for (int point = 0; point < 20000; point++) {
+            float[] realValues = drifting(random, point, dimensions);
+            String[] categoricalValues = categoricalValues(dataSet, point % dataSet.size());
+            String target = Float.toString((float) random.nextGaussian());
+            model.add(realValues, categoricalValues, target);
+            window.add(points.add(realValues, categoricalValues, target));
+            if (window.size() > WINDOW_SIZE) {
+                window.remove();
+            }
+            if (point % 1000 == 999) {
+                int[] rows = window.stream().mapToInt(Integer::intValue).toArray();
+                IncrementalNearestNeighborsModel refit = new IncrementalNearestNeighborsModel(new DataSet(points, rows), 5, true, new MinkowskiDistance(2), new HammingDistance(), 0);
+                assertEquals(refit.size(), model.size());
+                for (int query = 0; query < 50; query++) {
+                    float[] queryValues = drifting(random, point, dimensions);
+                    String[] queryCategoricalValues = categoricalValues(dataSet, random.nextInt(dataSet.size()));
+                    assertEquals(refit.predict(queryValues, queryCategoricalValues), model.predict(queryValues, queryCategoricalValues), "after " + (point + 1) + " points");
+                }
+            }
+        }
+    }
+
+    @Test
+    void removeOldestForgetsInOrder() throws IOException {
+        DataSet dataSet;
+        try (ArffReader in = new ArffReader("ionosphere.arff")) {
+            dataSet = in.readDataSet("class", List.of());
+        }
+        IncrementalNearestNeighborsModel model = new IncrementalNearestNeighborsModel(dataSet, 3, false, new MinkowskiDistance(2), new HammingDistance(), 0);
+        int[] rows = new int[dataSet.size()];
+        Arrays.setAll(rows, row -> row);
+        for (int forgotten = 1; forgotten < dataSet.size() - 3; forgotten += 37) {
+            while (model.size() > dataSet.size() - forgotten) {
+                model.removeOldest();
+            }
+            IncrementalNearestNeighborsModel refit = new IncrementalNearestNeighborsModel(new DataSet(dataSet, Arrays.copyOfRange(rows, forgotten, rows.length)), 3, false, new MinkowskiDistance(2), new HammingDistance(), 0);
+            for (int query = 0; query < dataSet.size(); query += 7) {
+                float[] realValues = Arrays.copyOfRange(dataSet.realValues(), query * dataSet.realAttributeCount, (query + 1) * dataSet.realAttributeCount);
+                String[] categoricalValues = categoricalValues(dataSet, query);
+                assertEquals(refit.predictLabel(realValues, categoricalValues), model.predictLabel(realValues, categoricalValues), forgotten + " forgotten, query " + query);
+            }
+        }
+    }
+
+    /**
+     * A leaf full of identical rows can't be split, and is only tried again once other values come in.
+     * Once they do, the model has to find the same neighbors as a refit
+     */
+    @Test
+    void repeatedPointsPredictLikeARefit() throws IOException {
+        DataSet dataSet;
+        try (ArffReader in = new ArffReader("autos.arff")) {
+            dataSet = in.readDataSet("price", List.of());
+        }
+        DataSet empty = new DataSet(dataSet, new int[0]);
+        int dimensions = dataSet.realAttributeCount;
+        IncrementalNearestNeighborsModel model = new IncrementalNearestNeighborsModel(empty, 3, false, new MinkowskiDistance(2), new HammingDistance(), 0);
+        DataSet points = new DataSet(empty, new int[0]);
+        Random random = new Random(2);
+        float[] repeated = drifting(random, 0, dimensions);
+        for (int point = 0; point < 3000; point++) {
+            // long runs of the same values, then a few others
+            float[] realValues = point % 1000 < 900 ? repeated : drifting(random, 0, dimensions);
+            String[] categoricalValues = categoricalValues(dataSet, point % dataSet.size());
+            String target = Integer.toString(point);
+            model.add(realValues, categoricalValues, target);
+            points.add(realValues, categoricalValues, target);
+        }
+        int[] rows = new int[points.size()];
+        Arrays.setAll(rows, row -> row);
+        IncrementalNearestNeighborsModel refit = new IncrementalNearestNeighborsModel(new DataSet(points, rows), 3, false, new MinkowskiDistance(2), new HammingDistance(), 0);
+        for (int query = 0; query < 200; query++) {
+            float[] queryValues = query % 2 == 0 ? repeated : drifting(random, 0, dimensions);
+            String[] queryCategoricalValues = categoricalValues(dataSet, random.nextInt(dataSet.size()));
+            assertEquals(refit.predict(queryValues, queryCategoricalValues), model.predict(queryValues, queryCategoricalValues), "query " + query);
+        }
+    }
+
+    private static float[] drifting(Random random, int point, int dimensions) {
+        float[] values = new float[dimensions];
+        for (int i = 0; i < dimensions; i++) {
+            values[i] = (float) (random.nextGaussian() + point * 0.001 * (i + 1));
+        }
+        return values;
+    }
+
+    static String[] categoricalValues(DataSet dataSet, int row) {
+        String[] values = new String[dataSet.categoricalAttributeCount];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = dataSet.getCategoricalValue(row, i);
+        }
+        return values;
+    }
+}
@@ -0,0 +1,39 @@
+package algorithm;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LSHIndexTest {
+
+    @Test
+    void exactIndexesHaveFullRecall() {
+        for (NeighborIndexType indexType : NeighborIndexType.values()) {
+            for (int k : new int[]{1, 5}) {
+                assertEquals(1f, NearestNeighborsTest.ionosphere(k, false, indexType, null).recall(), indexType + ", k = " + k);
+                assertEquals(1f, NearestNeighborsTest.autos(k, false, indexType, null).recall(), indexType + ", k = " + k);
+            }
+        }
+    }
+
+    /**
+     * With the default parameters the index finds 83% to 98% of the nearest neighbors on the data sets of the README
+     */
+    @Test
+    void defaultParametersFindMostNeighbors() {
+        for (int k : new int[]{1, 5}) {
+            float ionosphereRecall = NearestNeighborsTest.ionosphere(k, false, new LSHIndex.Parameters(), null).recall();
+            float autosRecall = NearestNeighborsTest.autos(k, false, new LSHIndex.Parameters(), null).recall();
+            assertTrue(ionosphereRecall >= 0.75 && ionosphereRecall < 1, "ionosphere, k = " + k + ": " + ionosphereRecall);
+            assertTrue(autosRecall >= 0.75 && autosRecall <= 1, "autos, k = " + k + ": " + autosRecall);
+        }
+    }
+
+    @Test
+    void sameSeedFindsTheSameNeighbors() {
+        LSHIndex.Parameters parameters = new LSHIndex.Parameters(4, 6, 1, 0.5, 7);
+        assertEquals(NearestNeighborsTest.ionosphere(3, false, parameters, null).recall(), NearestNeighborsTest.ionosphere(3, false, parameters, null).recall());
+        assertEquals(NearestNeighborsTest.autos(3, true, parameters, null).regressionMeanAbsoluteError(), NearestNeighborsTest.autos(3, true, parameters, null).regressionMeanAbsoluteError());
+    }
+}
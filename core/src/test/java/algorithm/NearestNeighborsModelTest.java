@@ -0,0 +1,53 @@
+package algorithm;
+
+import distanceFunctions.HammingDistance;
+import distanceFunctions.MinkowskiDistance;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class NearestNeighborsModelTest {
+
+    /**
+     * Fits a model of every index type to the first three quarters of the data set, and checks that every
+     * model makes the brute force model's predictions for the rest, one at a time as well as in batches
+     */
+    private static void assertIndexTypesPredictTheSame(String filename, String targetAttributeName, int k, boolean useDistanceWeighting) throws IOException {
+        DataSet dataSet;
+        try (ArffReader in = new ArffReader(filename)) {
+            dataSet = in.readDataSet(targetAttributeName, List.of());
+        }
+        int[] trainingRows = new int[dataSet.size() * 3 / 4];
+        for (int i = 0; i < trainingRows.length; i++) {
+            trainingRows[i] = i;
+        }
+        DataSet trainingSet = new DataSet(dataSet, trainingRows);
+        List<DataPoint> queries = new ArrayList<>();
+        for (int row = trainingRows.length; row < dataSet.size(); row++) {
+            queries.add(dataSet.get(row));
+        }
+        double[] expected = NearestNeighborsModel.fit(trainingSet, k, useDistanceWeighting, new MinkowskiDistance(2), new HammingDistance(), NeighborIndexType.BRUTE_FORCE).predictBatch(queries);
+        for (NeighborIndexType indexType : NeighborIndexType.values()) {
+            NearestNeighborsModel model = NearestNeighborsModel.fit(trainingSet, k, useDistanceWeighting, new MinkowskiDistance(2), new HammingDistance(), indexType);
+            double[] predictions = model.predictBatch(queries);
+            for (int i = 0; i < queries.size(); i++) {
+                assertEquals(expected[i], predictions[i], indexType + ", batch, query " + i);
+                assertEquals(expected[i], model.predict(queries.get(i)), indexType + ", query " + i);
+            }
+        }
+    }
+
+    @Test
+    void indexTypesClassifyTheSame() throws IOException {
+        assertIndexTypesPredictTheSame("ionosphere.arff", "class", 3, true);
+    }
+
+    @Test
+    void indexTypesRegressTheSame() throws IOException {
+        assertIndexTypesPredictTheSame("autos.arff", "price", 5, false);
+    }
+}
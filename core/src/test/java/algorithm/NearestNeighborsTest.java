@@ -0,0 +1,112 @@
+package algorithm;
+
+import distanceFunctions.HammingDistance;
+import distanceFunctions.MinkowskiDistance;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class NearestNeighborsTest {
+
+    /**
+     * The cross-validation results of the main method. The indexes, parallel folds, blocked searches and
+     * distance kernels all find exactly the same neighbors as a plain scan, so none of them may change
+     * the scores in any digit
+     */
+    @Test
+    void mainPrintsTheSameCrossValidationResults() throws IOException {
+        String expected;
+        try (InputStream in = NearestNeighborsTest.class.getResourceAsStream("main-output.txt")) {
+            expected = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(output, true, StandardCharsets.UTF_8));
+        try {
+            NearestNeighbors.main(new String[0]);
+        } finally {
+            System.setOut(out);
+        }
+        assertEquals(expected.lines().toList(), output.toString(StandardCharsets.UTF_8).lines().toList());
+    }
+
+    static NearestNeighbors ionosphere(int k, boolean useDistanceWeighting, NeighborIndexBuilder indexType, ForkJoinPool pool) {
+        return NearestNeighbors.fromFile(k, 10, useDistanceWeighting, "class", new ArrayList<>(List.of("a01", "a03")), "ionosphere.arff", new MinkowskiDistance(2), new HammingDistance(), indexType, pool, Metrics.NONE);
+    }
+
+    static NearestNeighbors autos(int k, boolean useDistanceWeighting, NeighborIndexBuilder indexType, ForkJoinPool pool) {
+        return NearestNeighbors.fromFile(k, 10, useDistanceWeighting, "price", new ArrayList<>(List.of("normalized-losses", "symboling")), "autos.arff", new MinkowskiDistance(2), new HammingDistance(), indexType, pool, Metrics.NONE);
+    }
+
+    @Test
+    void poolGivesTheSameResultsAsTheCallingThread() {
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            for (NeighborIndexType indexType : NeighborIndexType.values()) {
+                for (int k : new int[]{1, 3, 7}) {
+                    for (boolean useDistanceWeighting : new boolean[]{false, true}) {
+                        String message = indexType + ", k = " + k + (useDistanceWeighting ? ", distance weighted" : "");
+                        assertEquals(ionosphere(k, useDistanceWeighting, indexType, null).classificationSuccessRate(),
+                                ionosphere(k, useDistanceWeighting, indexType, pool).classificationSuccessRate(), message);
+                        assertEquals(autos(k, useDistanceWeighting, indexType, null).regressionMeanAbsoluteError(),
+                                autos(k, useDistanceWeighting, indexType, pool).regressionMeanAbsoluteError(), message);
+                    }
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    void fromFileReportsAFileThatCantBeRead() {
+        UncheckedIOException e = assertThrows(UncheckedIOException.class, () -> NearestNeighbors.fromFile(3, 10, false, "class", new ArrayList<>(), "missing.arff",
+                new MinkowskiDistance(2), new HammingDistance(), NeighborIndexType.BRUTE_FORCE, null, Metrics.NONE));
+        assertEquals("Could not load missing.arff", e.getMessage());
+    }
+
+    @Test
+    void sweepScoresEveryKLikeItsOwnCrossValidation() {
+        int maxK = 10;
+        List<NearestNeighbors.SweepResult> ionosphereResults = ionosphere(1, false, NeighborIndexType.KD_TREE, null).sweep(maxK);
+        List<NearestNeighbors.SweepResult> autosResults = autos(1, false, NeighborIndexType.KD_TREE, null).sweep(maxK);
+        assertEquals(2 * maxK, ionosphereResults.size());
+        assertEquals(2 * maxK, autosResults.size());
+        for (int i = 0; i < 2 * maxK; i++) {
+            int k = i / 2 + 1;
+            boolean useDistanceWeighting = i % 2 == 1;
+            String message = "k = " + k + (useDistanceWeighting ? ", distance weighted" : "");
+            assertEquals(k, ionosphereResults.get(i).k, message);
+            assertEquals(useDistanceWeighting, ionosphereResults.get(i).useDistanceWeighting, message);
+            assertEquals(ionosphere(k, useDistanceWeighting, NeighborIndexType.KD_TREE, null).classificationSuccessRate(), ionosphereResults.get(i).score, message);
+            assertEquals(k, autosResults.get(i).k, message);
+            assertEquals(useDistanceWeighting, autosResults.get(i).useDistanceWeighting, message);
+            assertEquals(autos(k, useDistanceWeighting, NeighborIndexType.KD_TREE, null).regressionMeanAbsoluteError(), autosResults.get(i).score, message);
+        }
+    }
+
+    @Test
+    void selectedAttributesScoreLikeACrossValidationWithoutTheOthers() {
+        for (boolean forward : new boolean[]{true, false}) {
+            NearestNeighbors.AttributeSelection ionosphereSelection = ionosphere(3, false, NeighborIndexType.BRUTE_FORCE, null).selectAttributes(forward);
+            NearestNeighbors withoutIgnored = NearestNeighbors.fromFile(3, 10, false, "class", ionosphereSelection.ignoredAttributes, "ionosphere.arff",
+                    new MinkowskiDistance(2), new HammingDistance(), NeighborIndexType.BRUTE_FORCE, null, Metrics.NONE);
+            assertEquals(withoutIgnored.classificationSuccessRate(), ionosphereSelection.score, "forward = " + forward);
+            NearestNeighbors.AttributeSelection autosSelection = autos(3, true, NeighborIndexType.BRUTE_FORCE, null).selectAttributes(forward);
+            withoutIgnored = NearestNeighbors.fromFile(3, 10, true, "price", autosSelection.ignoredAttributes, "autos.arff",
+                    new MinkowskiDistance(2), new HammingDistance(), NeighborIndexType.BRUTE_FORCE, null, Metrics.NONE);
+            assertEquals(withoutIgnored.regressionMeanAbsoluteError(), autosSelection.score, "forward = " + forward);
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package algorithm;
+
+import distanceFunctions.HammingDistance;
+import distanceFunctions.MinkowskiDistance;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class NeighborCacheTest {
+
+    /**
+     * Predicts the rest of the data set with a model fitted to its first three quarters, with and without
+     * a cache. The second time round every query is a hit, and every hit has to predict what a search does
+     */
+    private static void assertHitsPredictLikeSearches(String filename, String targetAttributeName, int k, boolean useDistanceWeighting) throws IOException {
+        DataSet dataSet;
+        try (ArffReader in = new ArffReader(filename)) {
+            dataSet = in.readDataSet(targetAttributeName, List.of());
+        }
+        int[] trainingRows = new int[dataSet.size() * 3 / 4];
+        Arrays.setAll(trainingRows, row -> row);
+        List<DataPoint> queries = new ArrayList<>();
+        for (int row = trainingRows.length; row < dataSet.size(); row++) {
+            queries.add(dataSet.get(row));
+        }
+        NearestNeighborsModel model = NearestNeighborsModel.fit(new DataSet(dataSet, trainingRows), k, useDistanceWeighting, new MinkowskiDistance(2), new HammingDistance(), NeighborIndexType.KD_TREE);
+        double[] expected = model.predictBatch(queries);
+        NeighborCache cache = new NeighborCache(1000);
+        NearestNeighborsModel cached = model.withCache(cache);
+        double[] misses = cached.predictBatch(queries);
+        // the queries that repeat an earlier one are already hits
+        assertEquals(queries.size(), cache.getHits() + cache.getMisses());
+        long missCount = cache.getMisses();
+        double[] hits = cached.predictBatch(queries);
+        for (int i = 0; i < queries.size(); i++) {
+            assertEquals(expected[i], misses[i], filename + ", batch miss " + i);
+            assertEquals(expected[i], hits[i], filename + ", batch hit " + i);
+            assertEquals(expected[i], cached.predict(queries.get(i)), filename + ", hit " + i);
+        }
+        assertEquals(missCount, cache.getMisses());
+        assertEquals(3L * queries.size() - missCount, cache.getHits());
+        assertEquals(missCount, cache.size());
+        assertEquals(0, cache.getEvictions());
+    }
+
+    @Test
+    void hitsClassifyLikeSearches() throws IOException {
+        assertHitsPredictLikeSearches("ionosphere.arff", "class", 3, true);
+    }
+
+    @Test
+    void hitsRegressLikeSearches() throws IOException {
+        assertHitsPredictLikeSearches("autos.arff", "price", 5, false);
+    }
+
+    /**
+     * Adds and forgets points in a model with a cache and in one without, asking both the same queries twice
+     * after every change. The second time round is all hits, and a search from before the change must never
+     * be returned after it: every change gets new searches
+     */
+    @Test
+    void changesToAnIncrementalModelAreNeverHidden() throws IOException {
+        DataSet dataSet;
+        try (ArffReader in = new ArffReader("autos.arff")) {
+            dataSet = in.readDataSet("price", List.of());
+        }
+        DataSet empty = new DataSet(dataSet, new int[0]);
+        IncrementalNearestNeighborsModel model = new IncrementalNearestNeighborsModel(empty, 3, true, new MinkowskiDistance(2), new HammingDistance(), 20);
+        IncrementalNearestNeighborsModel uncached = new IncrementalNearestNeighborsModel(empty, 3, true, new MinkowskiDistance(2), new HammingDistance(), 20);
+        NeighborCache cache = new NeighborCache(1000);
+        model.setCache(cache);
+        int dimensions = dataSet.realAttributeCount;
+        int queryCount = 10, changes = 0;
+        Random random = new Random(1);
+        for (int row = 0; row < dataSet.size(); row++) {
+            if (row % 5 == 4) {
+                model.removeOldest();
+                uncached.removeOldest();
+            } else {
+                float[] realValues = Arrays.copyOfRange(dataSet.realValues(), row * dimensions, (row + 1) * dimensions);
+                String[] categoricalValues = IncrementalNearestNeighborsModelTest.categoricalValues(dataSet, row);
+                String target = Integer.toString(random.nextInt(1000));
+                model.add(realValues, categoricalValues, target);
+                uncached.add(realValues, categoricalValues, target);
+            }
+            changes++;
+            for (int repeat = 0; repeat < 2; repeat++) {
+                for (int query = 0; query < queryCount; query++) {
+                    float[] realValues = Arrays.copyOfRange(dataSet.realValues(), query * dimensions, (query + 1) * dimensions);
+                    String[] categoricalValues = IncrementalNearestNeighborsModelTest.categoricalValues(dataSet, query);
+                    assertEquals(uncached.predict(realValues, categoricalValues), model.predict(realValues, categoricalValues), "after row " + row + ", query " + query);
+                }
+            }
+        }
+        assertEquals((long) changes * queryCount, cache.getMisses());
+        assertEquals((long) changes * queryCount, cache.getHits());
+    }
+
+    /**
+     * Caches a search of one point for three neighbors, its first row at the given distances
+     */
+    private static void put(NeighborCache cache, long owner, DataPoint query, double... distances) {
+        NeighborHeap nearestNeighbors = new NeighborHeap(3);
+        for (int i = 0; i < distances.length; i++) {
+            nearestNeighbors.offer(distances[i], i);
+        }
+        nearestNeighbors.sort();
+        cache.put(owner, 0, query, nearestNeighbors);
+    }
+
+    /**
+     * @return the first distance of the cached search, or NaN if it's not cached
+     */
+    private static double get(NeighborCache cache, long owner, DataPoint query) {
+        NeighborHeap nearestNeighbors = new NeighborHeap(3);
+        return cache.get(owner, 0, query, nearestNeighbors) ? nearestNeighbors.getDistance(0) : Double.NaN;
+    }
+
+    @Test
+    void evictsTheLeastRecentlyUsedSearch() {
+        DataSet points = new DataSet(new Attribute[]{new Attribute("x")}, new Attribute[]{new Attribute("c", List.of("p", "q"))}, new Attribute("t"));
+        for (int i = 0; i < 4; i++) {
+            points.add(new float[]{i}, new String[]{"p"}, "0");
+        }
+        DataPoint a = points.get(0), b = points.get(1), c = points.get(2), d = points.get(3);
+        long owner = NeighborCache.newOwner();
+        NeighborCache cache = new NeighborCache(2);
+        put(cache, owner, a, 1);
+        put(cache, owner, b, 2);
+        // a is now used more recently than b, so c takes b's place
+        assertEquals(1, get(cache, owner, a));
+        put(cache, owner, c, 3);
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.getEvictions());
+        assertTrue(Double.isNaN(get(cache, owner, b)));
+        assertEquals(1, get(cache, owner, a));
+        assertEquals(3, get(cache, owner, c));
+        // c is now used more recently than a, so d takes a's place
+        put(cache, owner, d, 4);
+        assertTrue(Double.isNaN(get(cache, owner, a)));
+        assertEquals(3, get(cache, owner, c));
+        assertEquals(4, get(cache, owner, d));
+        assertEquals(2, cache.getEvictions());
+        assertEquals(5, cache.getHits());
+        assertEquals(2, cache.getMisses());
+        assertEquals(5 / 7.0, cache.hitRate());
+        cache.clear();
+        assertEquals(0, cache.size());
+        assertTrue(Double.isNaN(get(cache, owner, d)));
+    }
+
+    @Test
+    void searchesOfOtherModelsVersionsAndKsAreMisses() {
+        DataSet points = new DataSet(new Attribute[]{new Attribute("x")}, new Attribute[0], new Attribute("t"));
+        points.add(new float[]{1}, new String[0], "0");
+        points.add(new float[]{1}, new String[0], "1");
+        DataPoint query = points.get(0);
+        long owner = NeighborCache.newOwner();
+        NeighborCache cache = new NeighborCache(10);
+        NeighborHeap nearestNeighbors = new NeighborHeap(3);
+        nearestNeighbors.offer(0.5, 7);
+        nearestNeighbors.offer(0.25, 4);
+        nearestNeighbors.sort();
+        cache.put(owner, 1, query, nearestNeighbors);
+        assertEquals(0, cache.hitRate());
+        assertFalse(cache.get(NeighborCache.newOwner(), 1, query, new NeighborHeap(3)));
+        assertFalse(cache.get(owner, 2, query, new NeighborHeap(3)));
+        assertFalse(cache.get(owner, 1, query, new NeighborHeap(2)));
+        // the same values in another row are the same query
+        NeighborHeap hit = new NeighborHeap(3);
+        assertTrue(cache.get(owner, 1, points.get(1), hit));
+        assertEquals(2, hit.size());
+        assertEquals(0.25, hit.getDistance(0));
+        assertEquals(4, hit.getIndex(0));
+        assertEquals(0.5, hit.getDistance(1));
+        assertEquals(7, hit.getIndex(1));
+        assertEquals(1, cache.getHits());
+        assertEquals(3, cache.getMisses());
+    }
+}
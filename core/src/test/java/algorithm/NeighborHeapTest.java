@@ -0,0 +1,115 @@
+package algorithm;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class NeighborHeapTest {
+
+    /**
+     * The neighbors the sorted insertion the heap replaced would have kept: every candidate is inserted
+     * after the ones with a smaller or equal distance, so among equally far candidates the one offered
+     * first wins, which is the one with the lower index when candidates are offered in index order
+     */
+    private static List<double[]> sortedInsertion(double[] distances, int k) {
+        List<double[]> nearest = new ArrayList<>();
+        for (int index = 0; index < distances.length; index++) {
+            int position = nearest.size();
+            while (position > 0 && nearest.get(position - 1)[0] > distances[index]) {
+                position--;
+            }
+            if (position < k) {
+                nearest.add(position, new double[]{distances[index], index});
+                if (nearest.size() > k) {
+                    nearest.remove(k);
+                }
+            }
+        }
+        return nearest;
+    }
+
+    @Test
+    void keepsTheSameNeighborsAsSortedInsertion() {
+        Random random = new Random(1);
+        for (int trial = 0; trial < 2000; trial++) {
+            int k = 1 + random.nextInt(20);
+            double[] distances = new double[random.nextInt(200)];
+            // few distinct distances, so there are lots of ties
+            int distinct = 1 + random.nextInt(8);
+            for (int i = 0; i < distances.length; i++) {
+                distances[i] = random.nextInt(distinct) / 4.0;
+            }
+            NeighborHeap nearestNeighbors = new NeighborHeap(k);
+            for (int index = 0; index < distances.length; index++) {
+                nearestNeighbors.offer(distances[index], index);
+            }
+            nearestNeighbors.sort();
+            List<double[]> expected = sortedInsertion(distances, k);
+            assertEquals(expected.size(), nearestNeighbors.size());
+            for (int i = 0; i < expected.size(); i++) {
+                assertEquals(expected.get(i)[0], nearestNeighbors.getDistance(i));
+                assertEquals((int) expected.get(i)[1], nearestNeighbors.getIndex(i));
+            }
+        }
+    }
+
+    @Test
+    void keepsTheSameNeighborsWhateverTheOfferOrder() {
+        Random random = new Random(2);
+        for (int trial = 0; trial < 500; trial++) {
+            int k = 1 + random.nextInt(10);
+            List<double[]> candidates = new ArrayList<>();
+            for (int index = 0; index < 100; index++) {
+                candidates.add(new double[]{random.nextInt(5), index});
+            }
+            Collections.shuffle(candidates, random);
+            NeighborHeap nearestNeighbors = new NeighborHeap(k);
+            for (double[] candidate : candidates) {
+                nearestNeighbors.offer(candidate[0], (int) candidate[1]);
+            }
+            nearestNeighbors.sort();
+            candidates.sort(Comparator.<double[]>comparingDouble(candidate -> candidate[0]).thenComparingDouble(candidate -> candidate[1]));
+            for (int i = 0; i < k; i++) {
+                assertEquals(candidates.get(i)[0], nearestNeighbors.getDistance(i));
+                assertEquals((int) candidates.get(i)[1], nearestNeighbors.getIndex(i));
+            }
+        }
+    }
+
+    @Test
+    void worstDistanceIsInfiniteUntilFull() {
+        NeighborHeap nearestNeighbors = new NeighborHeap(2);
+        assertEquals(Double.POSITIVE_INFINITY, nearestNeighbors.worstDistance());
+        nearestNeighbors.offer(3, 0);
+        assertEquals(Double.POSITIVE_INFINITY, nearestNeighbors.worstDistance());
+        nearestNeighbors.offer(1, 1);
+        assertEquals(3, nearestNeighbors.worstDistance());
+        nearestNeighbors.offer(2, 2);
+        assertEquals(2, nearestNeighbors.worstDistance());
+    }
+
+    @Test
+    void copyNearestKeepsWhatASmallerHeapWould() {
+        Random random = new Random(3);
+        NeighborHeap large = new NeighborHeap(10), small = new NeighborHeap(4);
+        for (int index = 0; index < 50; index++) {
+            double distance = random.nextInt(6);
+            large.offer(distance, index);
+            small.offer(distance, index);
+        }
+        large.sort();
+        small.sort();
+        NeighborHeap copy = new NeighborHeap(4);
+        copy.copyNearest(large, 4);
+        for (int i = 0; i < 4; i++) {
+            assertEquals(small.getDistance(i), copy.getDistance(i));
+            assertEquals(small.getIndex(i), copy.getIndex(i));
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package algorithm;
+
+import distanceFunctions.CategoricalValueDistanceFunction;
+import distanceFunctions.ChebyshevDistance;
+import distanceFunctions.HammingDistance;
+import distanceFunctions.IgnoreCategoricalValues;
+import distanceFunctions.MinkowskiDistance;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Every exact index has to find the same neighbors, at the same distances, as a scan over every row with
+ * the textbook distance: ties are broken by row, distances are compared bit for bit
+ */
+class NeighborIndexTest {
+
+    private static final MinkowskiDistance[] DISTANCES = {new MinkowskiDistance(1), new MinkowskiDistance(2), new MinkowskiDistance(3), new ChebyshevDistance()};
+    private static final CategoricalValueDistanceFunction[] CATEGORICAL_DISTANCES = {new HammingDistance(), new IgnoreCategoricalValues()};
+    private static final int[] KS = {1, 5, 25};
+
+    private static DataSet read(String filename, String targetAttributeName) throws IOException {
+        try (ArffReader in = new ArffReader(filename)) {
+            return in.readDataSet(targetAttributeName, List.of());
+        }
+    }
+
+    /**
+     * The distance as Math.pow computes it, with the same float differences as the kernels
+     */
+    private static double textbookDistance(DataSet dataSet, int row1, int row2, int p) {
+        int length = dataSet.realAttributeCount;
+        float[] values = dataSet.realValues();
+        double distance = 0;
+        for (int i = 0; i < length; i++) {
+            float difference = Math.abs(values[row1 * length + i] - values[row2 * length + i]);
+            distance = p == Integer.MAX_VALUE ? Math.max(distance, difference) : distance + Math.pow(difference, p);
+        }
+        return p == Integer.MAX_VALUE ? distance : Math.pow(distance, 1.0 / p);
+    }
+
+    private static NeighborHeap scan(DataSet dataSet, int[] rows, int query, int p, CategoricalValueDistanceFunction catValDist, int k) {
+        NeighborHeap nearestNeighbors = new NeighborHeap(k);
+        for (int row : rows) {
+            nearestNeighbors.offer(textbookDistance(dataSet, row, query, p) + catValDist.distance(dataSet, row, dataSet, query), row);
+        }
+        nearestNeighbors.sort();
+        return nearestNeighbors;
+    }
+
+    private static void assertSameNeighbors(NeighborHeap expected, NeighborHeap actual, String message) {
+        assertEquals(expected.size(), actual.size(), message);
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.getIndex(i), actual.getIndex(i), message);
+            assertEquals(expected.getDistance(i), actual.getDistance(i), message);
+        }
+    }
+
+    private static void assertIndexesMatchScan(DataSet dataSet) {
+        // index the first three quarters of the rows, and search for the neighbors of every row
+        int[] rows = new int[dataSet.size() * 3 / 4];
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = i;
+        }
+        for (MinkowskiDistance realValDist : DISTANCES) {
+            for (CategoricalValueDistanceFunction catValDist : CATEGORICAL_DISTANCES) {
+                NeighborIndex[] indexes = {new BruteForceIndex(dataSet, rows, realValDist, catValDist), new KDTree(dataSet, rows, realValDist, catValDist),
+                        new BallTree(dataSet, rows, realValDist, catValDist), new PivotIndex(dataSet, rows, realValDist, catValDist)};
+                for (int k : KS) {
+                    NeighborHeap[] blockNeighbors = new NeighborHeap[dataSet.size()];
+                    for (int query = 0; query < blockNeighbors.length; query++) {
+                        blockNeighbors[query] = new NeighborHeap(k);
+                    }
+                    indexes[0].search(dataSet, 0, dataSet.size(), blockNeighbors);
+                    for (int query = 0; query < dataSet.size(); query++) {
+                        NeighborHeap expected = scan(dataSet, rows, query, realValDist.getP(), catValDist, k);
+                        for (NeighborIndex index : indexes) {
+                            NeighborHeap nearestNeighbors = new NeighborHeap(k);
+                            index.search(dataSet.get(query), nearestNeighbors);
+                            nearestNeighbors.sort();
+                            assertSameNeighbors(expected, nearestNeighbors, index.getClass().getSimpleName() + ", " + realValDist + ", " + catValDist + ", k = " + k + ", query " + query);
+                        }
+                        blockNeighbors[query].sort();
+                        assertSameNeighbors(expected, blockNeighbors[query], "block search, " + realValDist + ", " + catValDist + ", k = " + k + ", query " + query);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    void indexesMatchScanOnIonosphere() throws IOException {
+        assertIndexesMatchScan(read("ionosphere.arff", "class"));
+    }
+
+    @Test
+    void indexesMatchScanOnAutos() throws IOException {
+        assertIndexesMatchScan(read("autos.arff", "price"));
+    }
+
+    @Test
+    void indexesBreakTiesLikeScan() throws IOException {
+        // every row four times over, so every neighbor is tied with its copies
+        DataSet dataSet = read("autos.arff", "price");
+        int[] rows = new int[4 * dataSet.size()];
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = i % dataSet.size();
+        }
+        assertIndexesMatchScan(new DataSet(dataSet, rows));
+    }
+}
@@ -0,0 +1,27 @@
+package algorithm;
+
+import distanceFunctions.HammingDistance;
+import distanceFunctions.MinkowskiDistance;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class PairwiseDistancesTest {
+
+    @Test
+    void rejectsDataSetsWhosePairsDontFitInAnInt() throws IOException {
+        DataSet dataSet;
+        try (ArffReader in = new ArffReader("autos.arff")) {
+            dataSet = in.readDataSet("price", List.of());
+        }
+        int[] rows = new int[PairwiseDistances.MAX_ROWS + 1];
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = i % dataSet.size();
+        }
+        DataSet tooLarge = new DataSet(dataSet, rows);
+        assertThrows(IllegalArgumentException.class, () -> new PairwiseDistances(tooLarge, new MinkowskiDistance(2), new HammingDistance()));
+    }
+}
@@ -0,0 +1,105 @@
+package algorithm;
+
+import distanceFunctions.HammingDistance;
+import distanceFunctions.MinkowskiDistance;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ShardedNearestNeighborsTest {
+
+    /**
+     * Workers in this JVM, one searching on its connection's thread and two in the common pool.
+     * They run until the JVM exits
+     */
+    private static List<InetSocketAddress> startWorkers() throws IOException {
+        List<InetSocketAddress> workers = new ArrayList<>();
+        workers.add(ShardWorker.start(null));
+        workers.add(ShardWorker.start(ForkJoinPool.commonPool()));
+        workers.add(ShardWorker.start(ForkJoinPool.commonPool()));
+        return workers;
+    }
+
+    /**
+     * The shards hold every row with its fold, and their neighbors are merged by distance and then row,
+     * so the cross-validation over any number of shards finds the same neighbors as the one in memory
+     */
+    @Test
+    void shardedScoreIsTheCrossValidationScore() throws IOException {
+        List<InetSocketAddress> workers = startWorkers();
+        for (NeighborIndexType indexType : new NeighborIndexType[]{NeighborIndexType.BRUTE_FORCE, NeighborIndexType.KD_TREE}) {
+            for (int k : new int[]{1, 5}) {
+                for (boolean useDistanceWeighting : new boolean[]{false, true}) {
+                    NearestNeighbors ionosphere = NearestNeighborsTest.ionosphere(k, useDistanceWeighting, indexType, null);
+                    NearestNeighbors autos = NearestNeighborsTest.autos(k, useDistanceWeighting, indexType, null);
+                    float successRate = ionosphere.classificationSuccessRate();
+                    float meanAbsoluteError = autos.regressionMeanAbsoluteError();
+                    for (int shards = 1; shards <= workers.size(); shards++) {
+                        String message = indexType + ", k = " + k + (useDistanceWeighting ? ", distance weighted" : "") + ", " + shards + " shards";
+                        assertEquals(successRate, ionosphere.shardedScore(workers.subList(0, shards)), message);
+                        assertEquals(meanAbsoluteError, autos.shardedScore(workers.subList(0, shards)), message);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * A search before the shards are built fails on every worker. The other shards' answers are left
+     * unread, so the connections must not be used again
+     */
+    @Test
+    void anErrorClosesTheConnections() throws IOException {
+        List<InetSocketAddress> workers = startWorkers();
+        DataSet dataSet;
+        try (ArffReader in = new ArffReader("autos.arff")) {
+            dataSet = in.readDataSet("price", List.of());
+        }
+        Normalization normalization = Normalization.fit(dataSet);
+        List<DataPoint> queries = List.of(dataSet.get(0), dataSet.get(1));
+        try (ShardedNearestNeighbors sharded = new ShardedNearestNeighbors(workers, dataSet, normalization, 3, false, new MinkowskiDistance(2), new HammingDistance(), NeighborIndexType.BRUTE_FORCE)) {
+            IOException failure = assertThrows(IOException.class, () -> sharded.predictBatch(queries));
+            assertEquals("Shard 0 failed: The shard's indexes haven't been built", failure.getMessage());
+            failure = assertThrows(IOException.class, () -> sharded.predictBatch(queries));
+            assertEquals("The connections to the shards are closed", failure.getMessage());
+            assertThrows(IOException.class, sharded::build);
+        }
+    }
+
+    /**
+     * A request that can't be read is answered with an error, like one that can't be carried out
+     */
+    @Test
+    void aWorkerReportsARequestItCantRead() throws IOException {
+        InetSocketAddress worker = ShardWorker.start(null);
+        try (Socket socket = new Socket(worker.getAddress(), worker.getPort())) {
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            out.writeByte(ShardWorker.SETUP);
+            out.writeInt(1);
+            out.writeInt(0);
+            out.writeBoolean(true);
+            // a modified UTF-8 string of two bytes, the second of which can't follow the first
+            out.writeShort(2);
+            out.writeByte(0xC0);
+            out.writeByte('a');
+            out.flush();
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            assertEquals(ShardWorker.ERROR, in.readByte());
+            // the message of the UTFDataFormatException, which is up to the JDK
+            assertFalse(in.readUTF().isEmpty());
+            assertEquals(-1, in.read());
+        }
+    }
+}
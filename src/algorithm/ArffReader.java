@@ -0,0 +1,628 @@
+package algorithm;
+
+import java.io.Closeable;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Streaming reader for ARFF files.
+ * The header is parsed when the reader is created, after which the rows can be read one at a
+ * time with next. Rows are parsed directly from a byte buffer: numbers are parsed without
+ * creating Strings, and categorical values are looked up in their attribute's dictionary
+ * without creating Strings once the value has been seen. Attributes can be skipped, in which
+ * case their values are only scanned past.
+ *
+ * Supports dense and sparse rows, values quoted with ' or ", and missing values (?).
+ * A missing real value is read as NaN. A missing categorical value is read as the value "?".
+ */
+public class ArffReader implements Closeable {
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /**
+     * Powers of ten that are exactly representable as floats
+     */
+    private static final float[] POWERS_OF_TEN = {1e0f, 1e1f, 1e2f, 1e3f, 1e4f, 1e5f, 1e6f, 1e7f, 1e8f, 1e9f, 1e10f};
+
+    /**
+     * The largest mantissa that is exactly representable as a float
+     */
+    private static final long MAX_EXACT_MANTISSA = 1 << 24;
+
+    private final InputStream in;
+
+    /**
+     * buffer[position, limit) holds the input that hasn't been consumed yet
+     */
+    private byte[] buffer;
+    private int position, limit;
+    private boolean endOfInput;
+
+    /**
+     * buffer[lineStart, lineEnd) holds the current line, without the line terminator
+     */
+    private int lineStart, lineEnd;
+    private long lineNumber;
+
+    /**
+     * Holds the current value if it was quoted, after removing the quotes and escapes
+     */
+    private byte[] unquoted;
+    private int unquotedLength;
+
+    private String relationName;
+    private final ArrayList<Attribute> attributes;
+
+    /**
+     * Which attributes to skip when reading rows
+     */
+    private boolean[] skipped;
+
+    /**
+     * Opens the given file and reads its header
+     * @param filename the name of the ARFF file
+     */
+    public ArffReader(String filename) throws IOException {
+        this(new FileInputStream(filename));
+    }
+
+    /**
+     * Reads the header of an ARFF file from the given stream. The stream is closed when the reader is closed
+     * @param in the stream to read the ARFF file from
+     */
+    public ArffReader(InputStream in) throws IOException {
+        this.in = in;
+        this.buffer = new byte[BUFFER_SIZE];
+        this.unquoted = new byte[64];
+        this.attributes = new ArrayList<>();
+        try {
+            readHeader();
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+        this.skipped = new boolean[attributes.size()];
+    }
+
+    /**
+     * @return the name given in the @relation line
+     */
+    public String getRelationName() {
+        return relationName;
+    }
+
+    /**
+     * @return the attributes declared in the header, in order
+     */
+    public List<Attribute> getAttributes() {
+        return Collections.unmodifiableList(attributes);
+    }
+
+    /**
+     * Sets which attributes to skip when reading rows. The values of skipped attributes are left untouched by next
+     * @param skipped for each attribute, whether it should be skipped
+     */
+    public void skipAttributes(boolean[] skipped) {
+        if (skipped.length != attributes.size()) {
+            throw new IllegalArgumentException("Expected " + attributes.size() + " attributes, got " + skipped.length);
+        }
+        this.skipped = skipped.clone();
+    }
+
+    /**
+     * @return the number of the line that was read last, starting from 1
+     */
+    public long getLineNumber() {
+        return lineNumber;
+    }
+
+    /**
+     * Reads the next row. For every attribute that isn't skipped, the value is stored at the
+     * attribute's index in realValues if it's a real value attribute, or its code is stored at
+     * the attribute's index in categoricalValues if it's a categorical attribute.
+     * @param realValues array with one element per attribute
+     * @param categoricalValues array with one element per attribute
+     * @return true if a row was read, false at the end of the file
+     */
+    public boolean next(float[] realValues, int[] categoricalValues) throws IOException {
+        while (nextLine()) {
+            int i = skipSpaces(lineStart);
+            if (i == lineEnd || buffer[i] == '%') {
+                continue;
+            }
+            if (buffer[i] == '{') {
+                readSparseRow(i + 1, realValues, categoricalValues);
+            } else {
+                readDenseRow(i, realValues, categoricalValues);
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Reads all remaining rows into a data set.
+     * Missing real values are replaced by the mean of the values that are present for the attribute.
+     * @param targetAttributeName the name of the target attribute, which is stored separately from the other attributes
+     * @param ignoredAttributes the names of the attributes to leave out
+     * @return the data set
+     */
+    public DataSet readDataSet(String targetAttributeName, Collection<String> ignoredAttributes) throws IOException {
+        DataSet dataSet = readRows(targetAttributeName, ignoredAttributes, Integer.MAX_VALUE);
+        replaceMissingValues(dataSet);
+        return dataSet;
+    }
+
+    /**
+     * Reads the next rows into a data set, so a file that doesn't fit in memory can be read a chunk at a time.
+     * Missing real values are left as NaN, since their replacement depends on the rest of the file.
+     * The attributes are the reader's own, so the codes of categorical values are the same in every chunk
+     * @param targetAttributeName the name of the target attribute, which is stored separately from the other attributes
+     * @param ignoredAttributes the names of the attributes to leave out
+     * @param maxRows how many rows to read at most
+     * @return the data set, which is empty at the end of the file
+     */
+    public DataSet readRows(String targetAttributeName, Collection<String> ignoredAttributes, int maxRows) throws IOException {
+        // work out which attributes to read, and where their values go in the data set
+        boolean[] skippedAttributes = new boolean[attributes.size()];
+        int targetAttributeIndex = -1;
+        ArrayList<Attribute> realAttributes = new ArrayList<>();
+        ArrayList<Attribute> categoricalAttributes = new ArrayList<>();
+        for (int i = 0; i < attributes.size(); i++) {
+            Attribute attribute = attributes.get(i);
+            if (ignoredAttributes.contains(attribute.name)) {
+                skippedAttributes[i] = true;
+            } else if (attribute.name.equals(targetAttributeName)) {
+                targetAttributeIndex = i;
+            } else if (attribute.isReal) {
+                realAttributes.add(attribute);
+            } else {
+                categoricalAttributes.add(attribute);
+            }
+        }
+        int realAttributeCount = realAttributes.size();
+        int[] realColumns = new int[realAttributeCount];
+        int[] categoricalColumns = new int[categoricalAttributes.size()];
+        for (int i = 0, realIndex = 0, categoricalIndex = 0; i < attributes.size(); i++) {
+            if (skippedAttributes[i] || i == targetAttributeIndex) {
+                continue;
+            }
+            if (attributes.get(i).isReal) {
+                realColumns[realIndex++] = i;
+            } else {
+                categoricalColumns[categoricalIndex++] = i;
+            }
+        }
+        skipAttributes(skippedAttributes);
+        // read the rows
+        Attribute targetAttribute = targetAttributeIndex == -1 ? null : attributes.get(targetAttributeIndex);
+        DataSet dataSet = new DataSet(realAttributes.toArray(new Attribute[0]), categoricalAttributes.toArray(new Attribute[0]), targetAttribute);
+        float[] rowRealValues = new float[attributes.size()];
+        int[] rowCategoricalValues = new int[attributes.size()];
+        float[] realValues = new float[realAttributeCount];
+        int[] categoricalValues = new int[categoricalColumns.length];
+        while (dataSet.size() < maxRows && next(rowRealValues, rowCategoricalValues)) {
+            for (int i = 0; i < realColumns.length; i++) {
+                realValues[i] = rowRealValues[realColumns[i]];
+            }
+            for (int i = 0; i < categoricalColumns.length; i++) {
+                categoricalValues[i] = rowCategoricalValues[categoricalColumns[i]];
+            }
+            int row = dataSet.add(realValues, categoricalValues);
+            if (targetAttribute != null && targetAttribute.isReal) {
+                dataSet.setTargetValue(row, rowRealValues[targetAttributeIndex]);
+            } else if (targetAttribute != null) {
+                dataSet.setTargetClass(row, rowCategoricalValues[targetAttributeIndex]);
+            }
+        }
+        return dataSet;
+    }
+
+    /**
+     * Replaces the missing real values of a data set by the mean of the values that are present for the attribute
+     */
+    private static void replaceMissingValues(DataSet dataSet) {
+        int realAttributeCount = dataSet.realAttributeCount;
+        float[] values = dataSet.realValues();
+        double[] sums = new double[realAttributeCount];
+        int[] counts = new int[realAttributeCount];
+        boolean hasMissingValues = false;
+        for (int row = 0; row < dataSet.size(); row++) {
+            for (int i = 0; i < realAttributeCount; i++) {
+                float value = values[row * realAttributeCount + i];
+                if (Float.isNaN(value)) {
+                    hasMissingValues = true;
+                } else {
+                    sums[i] += value;
+                    counts[i]++;
+                }
+            }
+        }
+        if (hasMissingValues) {
+            for (int row = 0; row < dataSet.size(); row++) {
+                for (int i = 0; i < realAttributeCount; i++) {
+                    if (Float.isNaN(values[row * realAttributeCount + i])) {
+                        values[row * realAttributeCount + i] = counts[i] == 0 ? 0 : (float) (sums[i] / counts[i]);
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    private void readDenseRow(int i, float[] realValues, int[] categoricalValues) throws IOException {
+        int attribute = 0;
+        while (true) {
+            if (attribute == attributes.size()) {
+                throw error("Expected " + attributes.size() + " values");
+            }
+            i = readValue(skipSpaces(i), attribute, false, realValues, categoricalValues);
+            attribute++;
+            if (i == lineEnd) {
+                break;
+            }
+            if (buffer[i] != ',') {
+                throw error("Expected a comma after value " + attribute);
+            }
+            i++;
+        }
+        if (attribute != attributes.size()) {
+            throw error("Expected " + attributes.size() + " values, found " + attribute);
+        }
+    }
+
+    private void readSparseRow(int i, float[] realValues, int[] categoricalValues) throws IOException {
+        // attributes that aren't listed have the value 0, or the first declared value
+        for (int attribute = 0; attribute < attributes.size(); attribute++) {
+            if (skipped[attribute]) {
+                continue;
+            }
+            if (attributes.get(attribute).isReal) {
+                realValues[attribute] = 0;
+            } else {
+                categoricalValues[attribute] = attributes.get(attribute).declaredValueCount > 0 ? 0 : attributes.get(attribute).code(buffer, 0, 0);
+            }
+        }
+        i = skipSpaces(i);
+        while (i < lineEnd && buffer[i] != '}') {
+            int attribute = 0;
+            int start = i;
+            while (i < lineEnd && buffer[i] >= '0' && buffer[i] <= '9') {
+                attribute = 10 * attribute + buffer[i++] - '0';
+            }
+            if (i == start || attribute >= attributes.size()) {
+                throw error("Invalid attribute index in sparse row");
+            }
+            i = readValue(skipSpaces(i), attribute, true, realValues, categoricalValues);
+            if (i < lineEnd && buffer[i] == ',') {
+                i = skipSpaces(i + 1);
+            }
+        }
+        if (i == lineEnd) {
+            throw error("Sparse row is missing its closing }");
+        }
+    }
+
+    /**
+     * Reads the value starting at buffer[i] into the arrays, unless the attribute is skipped
+     * @param sparse true if the value is part of a sparse row, which ends with a closing brace
+     * @return the index of the comma or closing brace after the value, or lineEnd
+     */
+    private int readValue(int i, int attribute, boolean sparse, float[] realValues, int[] categoricalValues) throws IOException {
+        if (i < lineEnd && (buffer[i] == '\'' || buffer[i] == '"')) {
+            i = readQuoted(i);
+            if (!skipped[attribute]) {
+                store(attribute, unquoted, 0, unquotedLength, true, realValues, categoricalValues);
+            }
+            return skipSpaces(i);
+        }
+        int start = i;
+        while (i < lineEnd && buffer[i] != ',' && (!sparse || buffer[i] != '}')) {
+            i++;
+        }
+        if (!skipped[attribute]) {
+            int end = i;
+            while (end > start && (buffer[end - 1] == ' ' || buffer[end - 1] == '\t')) {
+                end--;
+            }
+            store(attribute, buffer, start, end, false, realValues, categoricalValues);
+        }
+        return i;
+    }
+
+    private void store(int attribute, byte[] bytes, int start, int end, boolean quoted, float[] realValues, int[] categoricalValues) throws IOException {
+        Attribute a = attributes.get(attribute);
+        if (!a.isReal) {
+            categoricalValues[attribute] = a.code(bytes, start, end);
+        } else if (!quoted && end - start == 1 && bytes[start] == '?') {
+            realValues[attribute] = Float.NaN;
+        } else {
+            realValues[attribute] = parseFloat(bytes, start, end);
+        }
+    }
+
+    /**
+     * Copies the quoted value starting at buffer[i] into unquoted, resolving backslash escapes
+     * @return the index after the closing quote
+     */
+    private int readQuoted(int i) throws IOException {
+        byte quote = buffer[i++];
+        unquotedLength = 0;
+        while (true) {
+            if (i == lineEnd) {
+                throw error("Unterminated quoted value");
+            }
+            byte b = buffer[i++];
+            if (b == quote) {
+                return i;
+            }
+            if (b == '\\' && i < lineEnd) {
+                b = buffer[i++];
+                if (b == 'n') {
+                    b = '\n';
+                } else if (b == 't') {
+                    b = '\t';
+                } else if (b == 'r') {
+                    b = '\r';
+                }
+            }
+            if (unquotedLength == unquoted.length) {
+                unquoted = Arrays.copyOf(unquoted, 2 * unquoted.length);
+            }
+            unquoted[unquotedLength++] = b;
+        }
+    }
+
+    /**
+     * Parses a decimal number. Numbers with at most 7 significant digits and a small exponent,
+     * which covers almost every value in practice, are computed with a single correctly rounded
+     * float operation, which gives exactly the same result as Float.parseFloat. Anything else is
+     * handed to Float.parseFloat.
+     */
+    private float parseFloat(byte[] bytes, int start, int end) throws IOException {
+        int i = start;
+        boolean negative = false;
+        if (i < end && (bytes[i] == '-' || bytes[i] == '+')) {
+            negative = bytes[i] == '-';
+            i++;
+        }
+        long mantissa = 0;
+        int exponent = 0, digits = 0;
+        while (i < end && bytes[i] >= '0' && bytes[i] <= '9' && mantissa <= MAX_EXACT_MANTISSA) {
+            mantissa = 10 * mantissa + bytes[i++] - '0';
+            digits++;
+        }
+        if (i < end && bytes[i] == '.') {
+            i++;
+            while (i < end && bytes[i] >= '0' && bytes[i] <= '9' && mantissa <= MAX_EXACT_MANTISSA) {
+                mantissa = 10 * mantissa + bytes[i++] - '0';
+                exponent--;
+                digits++;
+            }
+        }
+        if (i < end && (bytes[i] == 'e' || bytes[i] == 'E') && digits > 0) {
+            i++;
+            boolean negativeExponent = false;
+            if (i < end && (bytes[i] == '-' || bytes[i] == '+')) {
+                negativeExponent = bytes[i] == '-';
+                i++;
+            }
+            int explicitExponent = 0, exponentStart = i;
+            while (i < end && bytes[i] >= '0' && bytes[i] <= '9' && explicitExponent < 100) {
+                explicitExponent = 10 * explicitExponent + bytes[i++] - '0';
+            }
+            if (i == exponentStart) {
+                // an exponent needs at least one digit, Float.parseFloat rejects 1e and 1e+
+                digits = 0;
+            }
+            exponent += negativeExponent ? -explicitExponent : explicitExponent;
+        }
+        if (i == end && digits > 0 && mantissa <= MAX_EXACT_MANTISSA && exponent >= -10 && exponent <= 10) {
+            float value = exponent >= 0 ? (float) mantissa * POWERS_OF_TEN[exponent] : (float) mantissa / POWERS_OF_TEN[-exponent];
+            return negative ? -value : value;
+        }
+        String text = new String(bytes, start, end - start, StandardCharsets.ISO_8859_1);
+        try {
+            return Float.parseFloat(text);
+        } catch (NumberFormatException e) {
+            throw error("Invalid number: " + text);
+        }
+    }
+
+    private int skipSpaces(int i) {
+        while (i < lineEnd && (buffer[i] == ' ' || buffer[i] == '\t')) {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * Advances to the next line
+     * @return false at the end of the input
+     */
+    private boolean nextLine() throws IOException {
+        int scanned = position;
+        while (true) {
+            for (int i = scanned; i < limit; i++) {
+                if (buffer[i] == '\n') {
+                    setLine(position, i);
+                    position = i + 1;
+                    return true;
+                }
+            }
+            if (endOfInput) {
+                if (position == limit) {
+                    return false;
+                }
+                setLine(position, limit);
+                position = limit;
+                return true;
+            }
+            scanned = fill();
+        }
+    }
+
+    private void setLine(int start, int end) {
+        if (end > start && buffer[end - 1] == '\r') {
+            end--;
+        }
+        lineStart = start;
+        lineEnd = end;
+        lineNumber++;
+    }
+
+    /**
+     * Moves the unconsumed input to the start of the buffer, growing it if it's full, and reads more input
+     * @return the index up to which the buffer has already been scanned for a line terminator
+     */
+    private int fill() throws IOException {
+        int remaining = limit - position;
+        if (position > 0) {
+            System.arraycopy(buffer, position, buffer, 0, remaining);
+        } else if (remaining == buffer.length) {
+            buffer = Arrays.copyOf(buffer, 2 * buffer.length);
+        }
+        position = 0;
+        limit = remaining;
+        int read = in.read(buffer, limit, buffer.length - limit);
+        if (read == -1) {
+            endOfInput = true;
+        } else {
+            limit += read;
+        }
+        return remaining;
+    }
+
+    private void readHeader() throws IOException {
+        while (true) {
+            if (!nextLine()) {
+                throw error("Missing @data section");
+            }
+            String line = new String(buffer, lineStart, lineEnd - lineStart, StandardCharsets.UTF_8).trim();
+            if (line.isEmpty() || line.startsWith("%")) {
+                continue;
+            }
+            String keyword = line.split("\\s+", 2)[0].toLowerCase();
+            String rest = line.substring(keyword.length()).trim();
+            if (keyword.equals("@relation")) {
+                relationName = unquote(rest);
+            } else if (keyword.equals("@attribute")) {
+                attributes.add(parseAttribute(rest));
+            } else if (keyword.equals("@data")) {
+                return;
+            } else {
+                throw error("Unexpected line in header: " + line);
+            }
+        }
+    }
+
+    /**
+     * Parses the part of an @attribute line after the keyword
+     */
+    private Attribute parseAttribute(String declaration) throws IOException {
+        int nameEnd;
+        if (declaration.startsWith("'") || declaration.startsWith("\"")) {
+            nameEnd = declaration.indexOf(declaration.charAt(0), 1) + 1;
+            if (nameEnd == 0) {
+                throw error("Unterminated attribute name");
+            }
+        } else {
+            nameEnd = 0;
+            while (nameEnd < declaration.length() && !Character.isWhitespace(declaration.charAt(nameEnd)) && declaration.charAt(nameEnd) != '{') {
+                nameEnd++;
+            }
+        }
+        String name = unquote(declaration.substring(0, nameEnd));
+        String type = declaration.substring(nameEnd).trim();
+        if (type.startsWith("{")) {
+            if (!type.endsWith("}")) {
+                throw error("Unterminated list of values for attribute " + name);
+            }
+            ArrayList<String> values = new ArrayList<>();
+            for (String value : splitValues(type.substring(1, type.length() - 1))) {
+                values.add(unquote(value));
+            }
+            return new Attribute(name, values);
+        }
+        String typeName = type.split("\\s+")[0].toLowerCase();
+        switch (typeName) {
+            case "real":
+            case "numeric":
+            case "integer":
+                return new Attribute(name);
+            case "string":
+            case "date":
+                return new Attribute(name, Collections.<String>emptyList());
+            default:
+                throw error("Unsupported type for attribute " + name + ": " + type);
+        }
+    }
+
+    /**
+     * Splits a comma separated list of values, keeping commas inside quotes
+     */
+    private static ArrayList<String> splitValues(String list) {
+        ArrayList<String> values = new ArrayList<>();
+        int start = 0;
+        char quote = 0;
+        for (int i = 0; i < list.length(); i++) {
+            char c = list.charAt(i);
+            if (quote != 0) {
+                if (c == '\\') {
+                    i++;
+                } else if (c == quote) {
+                    quote = 0;
+                }
+            } else if (c == '\'' || c == '"') {
+                quote = c;
+            } else if (c == ',') {
+                values.add(list.substring(start, i).trim());
+                start = i + 1;
+            }
+        }
+        if (!list.trim().isEmpty()) {
+            values.add(list.substring(start).trim());
+        }
+        return values;
+    }
+
+    /**
+     * Removes the quotes around a name or value, if it has any, and resolves backslash escapes
+     */
+    private static String unquote(String text) {
+        if (text.length() < 2 || (text.charAt(0) != '\'' && text.charAt(0) != '"') || text.charAt(text.length() - 1) != text.charAt(0)) {
+            return text;
+        }
+        StringBuilder unquoted = new StringBuilder();
+        for (int i = 1; i < text.length() - 1; i++) {
+            char c = text.charAt(i);
+            if (c == '\\' && i + 1 < text.length() - 1) {
+                c = text.charAt(++i);
+                if (c == 'n') {
+                    c = '\n';
+                } else if (c == 't') {
+                    c = '\t';
+                } else if (c == 'r') {
+                    c = '\r';
+                }
+            }
+            unquoted.append(c);
+        }
+        return unquoted.toString();
+    }
+
+    private IOException error(String message) {
+        return new IOException("Line " + lineNumber + ": " + message);
+    }
+}
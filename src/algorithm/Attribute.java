@@ -0,0 +1,179 @@
+package algorithm;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * An attribute of a data set, as declared in the header of an ARFF file.
+ * Categorical attributes also act as the dictionary that encodes their values as ints:
+ * the declared values get the codes 0, 1, 2, ... in the order they were declared, and
+ * values that weren't declared (or aren't declared at all, for string attributes) get
+ * the next free code the first time they are seen.
+ */
+public class Attribute {
+
+    /**
+     * The name of the attribute
+     */
+    public final String name;
+
+    /**
+     * True for real value attributes, false for categorical ones
+     */
+    public final boolean isReal;
+
+    /**
+     * How many values were declared in the header
+     */
+    public final int declaredValueCount;
+
+    /**
+     * The values that have been given a code, indexed by code, both as Strings and as UTF-8 bytes
+     */
+    private final ArrayList<String> values;
+    private final ArrayList<byte[]> valueBytes;
+
+    /**
+     * Open addressing hash table from the hash of a value's bytes to its code + 1 (0 means empty)
+     */
+    private int[] table;
+
+    /**
+     * Creates a real value attribute
+     * @param name the name of the attribute
+     */
+    public Attribute(String name) {
+        this.name = name;
+        this.isReal = true;
+        this.declaredValueCount = 0;
+        this.values = new ArrayList<>();
+        this.valueBytes = new ArrayList<>();
+        this.table = new int[0];
+    }
+
+    /**
+     * Creates a categorical attribute
+     * @param name the name of the attribute
+     * @param declaredValues the values the attribute was declared with, which may be empty
+     */
+    public Attribute(String name, List<String> declaredValues) {
+        this.name = name;
+        this.isReal = false;
+        this.values = new ArrayList<>();
+        this.valueBytes = new ArrayList<>();
+        this.table = new int[16];
+        for (String value : declaredValues) {
+            code(value);
+        }
+        this.declaredValueCount = values.size();
+    }
+
+    /**
+     * @return how many values have been given a code
+     */
+    public synchronized int valueCount() {
+        return values.size();
+    }
+
+    /**
+     * @return the value with the given code
+     */
+    public synchronized String getValue(int code) {
+        return values.get(code);
+    }
+
+    /**
+     * @return the values that were declared in the header, in order
+     */
+    public synchronized String[] getDeclaredValues() {
+        return values.subList(0, declaredValueCount).toArray(new String[0]);
+    }
+
+    /**
+     * Returns the code of the given value, assigning a new code if the value hasn't been seen before
+     */
+    public int code(String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        return code(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Returns the code of the value whose UTF-8 bytes are buffer[start, end), assigning a new code
+     * if the value hasn't been seen before. Looking up a known value doesn't allocate.
+     */
+    public synchronized int code(byte[] buffer, int start, int end) {
+        return find(buffer, start, end, true);
+    }
+
+    /**
+     * Returns the code of the given value without assigning a new one
+     * @return the code of the value, or -1 if it hasn't been seen before
+     */
+    public synchronized int lookup(String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        return find(bytes, 0, bytes.length, false);
+    }
+
+    private int find(byte[] buffer, int start, int end, boolean add) {
+        int hash = hash(buffer, start, end);
+        int mask = table.length - 1;
+        for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+            int entry = table[slot];
+            if (entry == 0) {
+                if (!add) {
+                    return -1;
+                }
+                int code = values.size();
+                byte[] bytes = Arrays.copyOfRange(buffer, start, end);
+                values.add(new String(bytes, StandardCharsets.UTF_8));
+                valueBytes.add(bytes);
+                table[slot] = code + 1;
+                if (2 * values.size() > table.length) {
+                    rehash();
+                }
+                return code;
+            }
+            byte[] bytes = valueBytes.get(entry - 1);
+            if (bytes.length == end - start && equals(bytes, buffer, start)) {
+                return entry - 1;
+            }
+        }
+    }
+
+    private void rehash() {
+        table = new int[2 * table.length];
+        int mask = table.length - 1;
+        for (int code = 0; code < valueBytes.size(); code++) {
+            byte[] bytes = valueBytes.get(code);
+            int slot = hash(bytes, 0, bytes.length) & mask;
+            while (table[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = code + 1;
+        }
+    }
+
+    private static int hash(byte[] buffer, int start, int end) {
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + buffer[i];
+        }
+        return hash ^ (hash >>> 16);
+    }
+
+    private static boolean equals(byte[] bytes, byte[] buffer, int start) {
+        for (int i = 0; i < bytes.length; i++) {
+            if (bytes[i] != buffer[start + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -0,0 +1,72 @@
+package algorithm;
+
+import distanceFunctions.CategoricalValueDistanceFunction;
+import distanceFunctions.MinkowskiDistance;
+
+import java.util.Arrays;
+
+/**
+ * Ball tree over the real values of the rows.
+ * Every node keeps the centroid of its rows and the distance from the centroid to its
+ * farthest row. By the triangle inequality, no row of the node can be closer to the query
+ * than the distance to the centroid minus that radius. The bound is lowered by a tiny
+ * relative margin so that rounding in the distance function can never prune a true neighbor.
+ */
+public class BallTree extends SpatialTree {
+
+    /**
+     * Relative margin subtracted from the lower bound to absorb rounding errors
+     */
+    private static final double ROUNDING_MARGIN = 1e-9;
+
+    /**
+     * The centroid of the rows of each node. Node i occupies the indices [i*dimensions, (i+1)*dimensions)
+     */
+    private float[] centroids;
+
+    /**
+     * The distance from the centroid of each node to its farthest row
+     */
+    private double[] radiuses;
+
+    /**
+     * @param dataSet the data set the rows belong to
+     * @param rows the rows to index
+     * @param realValDist distance function to use for real value attributes
+     * @param catValDist distance function to use for categorical value attributes
+     */
+    public BallTree(DataSet dataSet, int[] rows, MinkowskiDistance realValDist, CategoricalValueDistanceFunction catValDist) {
+        super(dataSet, rows, realValDist, catValDist);
+        centroids = new float[0];
+        radiuses = new double[0];
+        build();
+    }
+
+    @Override
+    void summarize(int node, int[] rows, int start, int end) {
+        if (node >= radiuses.length) {
+            int capacity = Math.max(2 * radiuses.length, node + 1);
+            centroids = Arrays.copyOf(centroids, capacity * dimensions);
+            radiuses = Arrays.copyOf(radiuses, capacity);
+        }
+        float[] realValues = dataSet.realValues();
+        for (int attribute = 0; attribute < dimensions; attribute++) {
+            double sum = 0;
+            for (int i = start; i < end; i++) {
+                sum += realValues[rows[i] * dimensions + attribute];
+            }
+            centroids[node * dimensions + attribute] = (float) (sum / (end - start));
+        }
+        double radius = 0;
+        for (int i = start; i < end; i++) {
+            radius = Math.max(radius, realValDist.distance(centroids, node * dimensions, realValues, rows[i] * dimensions, dimensions));
+        }
+        radiuses[node] = radius;
+    }
+
+    @Override
+    double lowerBound(int node, DataPoint query, float[] scratch) {
+        double distance = realValDist.distance(centroids, node * dimensions, query.dataSet.realValues(), query.realValuesOffset(), dimensions);
+        return distance - radiuses[node] - ROUNDING_MARGIN * (distance + radiuses[node]);
+    }
+}
@@ -0,0 +1,433 @@
+package algorithm;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * A data set stored in a compact binary file, so it can be loaded without parsing or normalizing.
+ *
+ * The file starts with a header holding the schema (the real value, categorical and target
+ * attributes, with the dictionaries of the categorical ones), the min and max the real values
+ * were normalized with, and the number of rows. After the header come three blocks, each
+ * aligned to 64 bytes and stored little-endian: the normalized real values as floats, the
+ * categorical value codes as ints, and the target values (doubles for a real target, int codes
+ * for a categorical one). The first two blocks use the same row after row layout as DataSet, so
+ * a range of rows is loaded with a bulk copy out of the memory mapped file. Only the rows that
+ * are read have to fit in the heap.
+ *
+ * To convert an ARFF file, run: java algorithm.BinaryDataSetFile in.arff out.bin targetAttribute [ignoredAttribute ...]
+ * The .bin file can then be used wherever an ARFF file name is taken, and attributes can still be ignored when loading it.
+ */
+public class BinaryDataSetFile implements Closeable {
+
+    /**
+     * The extension of binary data set files
+     */
+    public static final String EXTENSION = ".bin";
+
+    private static final int MAGIC = 0x4b4e4e42; // "KNNB"
+    private static final int VERSION = 2;
+    private static final int ALIGNMENT = 64;
+
+    /**
+     * How many rows to map at a time, so no single mapping gets close to the 2 GB limit
+     */
+    private static final int ROWS_PER_MAPPING = 1 << 20;
+
+    private final FileChannel channel;
+    private final Attribute[] realAttributes, categoricalAttributes;
+    private final Attribute targetAttribute;
+    /**
+     * The min and max every real value attribute in the file was normalized with
+     */
+    private final float[] min, max;
+    private final int size;
+
+    /**
+     * The file offsets of the real value, categorical value and target blocks
+     */
+    private final long realValuesOffset, categoricalValuesOffset, targetValuesOffset;
+
+    /**
+     * Opens a binary data set file and reads its header
+     * @param filename the name of the file
+     */
+    public BinaryDataSetFile(String filename) throws IOException {
+        channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ);
+        try {
+            ByteBuffer prefix = channel.map(FileChannel.MapMode.READ_ONLY, 0, 12);
+            if (prefix.getInt() != MAGIC || prefix.getInt() != VERSION) {
+                throw new IOException(filename + " is not a binary data set file of version " + VERSION);
+            }
+            int headerLength = prefix.getInt();
+            DataInputStream header = new DataInputStream(new ByteBufferInputStream(channel.map(FileChannel.MapMode.READ_ONLY, 12, headerLength)));
+            size = header.readInt();
+            realAttributes = new Attribute[header.readInt()];
+            min = new float[realAttributes.length];
+            max = new float[realAttributes.length];
+            for (int i = 0; i < realAttributes.length; i++) {
+                realAttributes[i] = new Attribute(header.readUTF());
+                min[i] = header.readFloat();
+                max[i] = header.readFloat();
+            }
+            categoricalAttributes = new Attribute[header.readInt()];
+            for (int i = 0; i < categoricalAttributes.length; i++) {
+                categoricalAttributes[i] = readCategoricalAttribute(header);
+            }
+            byte targetType = header.readByte();
+            if (targetType == 0) {
+                targetAttribute = null;
+            } else if (targetType == 1) {
+                targetAttribute = new Attribute(header.readUTF());
+            } else {
+                targetAttribute = readCategoricalAttribute(header);
+            }
+            realValuesOffset = align(12 + headerLength);
+            categoricalValuesOffset = align(realValuesOffset + 4L * size * realAttributes.length);
+            targetValuesOffset = align(categoricalValuesOffset + 4L * size * categoricalAttributes.length);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return how many rows the file holds
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the normalization the real values in the file were normalized with, for every real value attribute
+     */
+    public Normalization getNormalization() {
+        return new Normalization(min, max);
+    }
+
+    /**
+     * Returns the normalization of the real value attributes that read keeps when it leaves out the given
+     * attributes, so it lines up with the columns of the data sets read with the same ignored attributes
+     * @param ignoredAttributes the names of attributes to leave out
+     * @return the normalization the kept real values were normalized with
+     */
+    public Normalization getNormalization(Collection<String> ignoredAttributes) {
+        int[] realColumns = keptColumns(realAttributes, ignoredAttributes);
+        float[] keptMin = new float[realColumns.length], keptMax = new float[realColumns.length];
+        for (int i = 0; i < realColumns.length; i++) {
+            keptMin[i] = min[realColumns[i]];
+            keptMax[i] = max[realColumns[i]];
+        }
+        return new Normalization(keptMin, keptMax);
+    }
+
+    /**
+     * @return the target attribute, or null if the data set has none
+     */
+    public Attribute getTargetAttribute() {
+        return targetAttribute;
+    }
+
+    /**
+     * Loads every row into a data set
+     * @param ignoredAttributes the names of attributes to leave out
+     * @return the data set, whose real values are already normalized
+     */
+    public DataSet read(Collection<String> ignoredAttributes) throws IOException {
+        return read(0, size, ignoredAttributes);
+    }
+
+    /**
+     * Loads the rows [fromRow, toRow) into a data set
+     * @param fromRow the first row to load
+     * @param toRow one past the last row to load
+     * @param ignoredAttributes the names of attributes to leave out
+     * @return the data set, whose real values are already normalized
+     */
+    public DataSet read(int fromRow, int toRow, Collection<String> ignoredAttributes) throws IOException {
+        int[] realColumns = keptColumns(realAttributes, ignoredAttributes);
+        int[] categoricalColumns = keptColumns(categoricalAttributes, ignoredAttributes);
+        Attribute[] keptRealAttributes = new Attribute[realColumns.length];
+        for (int i = 0; i < realColumns.length; i++) {
+            keptRealAttributes[i] = realAttributes[realColumns[i]];
+        }
+        Attribute[] keptCategoricalAttributes = new Attribute[categoricalColumns.length];
+        for (int i = 0; i < categoricalColumns.length; i++) {
+            keptCategoricalAttributes[i] = categoricalAttributes[categoricalColumns[i]];
+        }
+        DataSet dataSet = new DataSet(keptRealAttributes, keptCategoricalAttributes, targetAttribute);
+        boolean keepsEveryColumn = realColumns.length == realAttributes.length && categoricalColumns.length == categoricalAttributes.length;
+        float[] realValues = new float[realAttributes.length];
+        int[] categoricalValues = new int[categoricalAttributes.length];
+        for (int start = fromRow; start < toRow; start += ROWS_PER_MAPPING) {
+            int end = Math.min(toRow, start + ROWS_PER_MAPPING);
+            FloatBuffer realBlock = map(realValuesOffset, start, end, 4L * realAttributes.length).asFloatBuffer();
+            IntBuffer categoricalBlock = map(categoricalValuesOffset, start, end, 4L * categoricalAttributes.length).asIntBuffer();
+            ByteBuffer targetBlock = map(targetValuesOffset, start, end, targetBytes(targetAttribute));
+            int firstRow = dataSet.addRows(end - start);
+            float[] dataSetRealValues = dataSet.realValues();
+            int[] dataSetCategoricalValues = dataSet.categoricalValues();
+            if (keepsEveryColumn) {
+                // the layouts match, so the rows are copied straight out of the mapped file
+                realBlock.get(dataSetRealValues, firstRow * realValues.length, (end - start) * realValues.length);
+                categoricalBlock.get(dataSetCategoricalValues, firstRow * categoricalValues.length, (end - start) * categoricalValues.length);
+            } else {
+                for (int row = firstRow; row < firstRow + end - start; row++) {
+                    realBlock.get(realValues);
+                    categoricalBlock.get(categoricalValues);
+                    for (int i = 0; i < realColumns.length; i++) {
+                        dataSetRealValues[row * realColumns.length + i] = realValues[realColumns[i]];
+                    }
+                    for (int i = 0; i < categoricalColumns.length; i++) {
+                        dataSetCategoricalValues[row * categoricalColumns.length + i] = categoricalValues[categoricalColumns[i]];
+                    }
+                }
+            }
+            for (int row = firstRow; targetAttribute != null && row < firstRow + end - start; row++) {
+                if (targetAttribute.isReal) {
+                    dataSet.setTargetValue(row, targetBlock.getDouble());
+                } else {
+                    dataSet.setTargetClass(row, targetBlock.getInt());
+                }
+            }
+        }
+        return dataSet;
+    }
+
+    /**
+     * Maps the part of a block that holds the rows [start, end)
+     * @param rowLength how many bytes each row takes up in the block
+     */
+    private ByteBuffer map(long blockOffset, int start, int end, long rowLength) throws IOException {
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, blockOffset + start * rowLength, (end - start) * rowLength);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        return buffer;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Writes a data set to a binary file
+     * @param dataSet the data set, whose real values must already be normalized
+     * @param normalization the normalization that was applied to the data set
+     * @param filename the name of the file to write
+     */
+    public static void write(DataSet dataSet, Normalization normalization, String filename) throws IOException {
+        ByteArrayOutputStream headerBytes = new ByteArrayOutputStream();
+        DataOutputStream header = new DataOutputStream(headerBytes);
+        header.writeInt(dataSet.size());
+        header.writeInt(dataSet.realAttributeCount);
+        for (int i = 0; i < dataSet.realAttributeCount; i++) {
+            header.writeUTF(dataSet.getRealAttribute(i).name);
+            header.writeFloat(normalization.getMin(i));
+            header.writeFloat(normalization.getMax(i));
+        }
+        header.writeInt(dataSet.categoricalAttributeCount);
+        for (int i = 0; i < dataSet.categoricalAttributeCount; i++) {
+            writeCategoricalAttribute(header, dataSet.getCategoricalAttribute(i));
+        }
+        Attribute targetAttribute = dataSet.targetAttribute;
+        if (targetAttribute == null) {
+            header.writeByte(0);
+        } else if (targetAttribute.isReal) {
+            header.writeByte(1);
+            header.writeUTF(targetAttribute.name);
+        } else {
+            header.writeByte(2);
+            writeCategoricalAttribute(header, targetAttribute);
+        }
+        header.flush();
+
+        try (FileChannel out = FileChannel.open(Paths.get(filename), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer prefix = ByteBuffer.allocate(12);
+            prefix.putInt(MAGIC).putInt(VERSION).putInt(headerBytes.size()).flip();
+            writeFully(out, prefix);
+            writeFully(out, ByteBuffer.wrap(headerBytes.toByteArray()));
+            long position = 12 + headerBytes.size();
+            ByteBuffer block = ByteBuffer.allocate(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+            // real values
+            position = pad(out, position);
+            float[] realValues = dataSet.realValues();
+            for (int i = 0; i < dataSet.size() * dataSet.realAttributeCount; i++) {
+                if (!block.hasRemaining()) {
+                    position += flush(out, block);
+                }
+                block.putFloat(realValues[i]);
+            }
+            position += flush(out, block);
+            // categorical values
+            position = pad(out, position);
+            int[] categoricalValues = dataSet.categoricalValues();
+            for (int i = 0; i < dataSet.size() * dataSet.categoricalAttributeCount; i++) {
+                if (!block.hasRemaining()) {
+                    position += flush(out, block);
+                }
+                block.putInt(categoricalValues[i]);
+            }
+            position += flush(out, block);
+            // target values
+            pad(out, position);
+            for (int row = 0; targetAttribute != null && row < dataSet.size(); row++) {
+                if (!block.hasRemaining()) {
+                    flush(out, block);
+                }
+                if (targetAttribute.isReal) {
+                    block.putDouble(dataSet.getTargetValue(row));
+                } else {
+                    block.putInt(dataSet.getTargetClass(row));
+                }
+            }
+            flush(out, block);
+        }
+    }
+
+    /**
+     * Converts an ARFF file to a binary data set file, normalizing the real values on the way
+     * @param arffFilename the name of the ARFF file
+     * @param binaryFilename the name of the binary file to write
+     * @param targetAttributeName the name of the target attribute
+     * @param ignoredAttributes the names of attributes to leave out
+     */
+    public static void convert(String arffFilename, String binaryFilename, String targetAttributeName, Collection<String> ignoredAttributes) throws IOException {
+        DataSet dataSet;
+        try (ArffReader in = new ArffReader(arffFilename)) {
+            dataSet = in.readDataSet(targetAttributeName, ignoredAttributes);
+        }
+        Normalization normalization = Normalization.fit(dataSet);
+        normalization.apply(dataSet);
+        write(dataSet, normalization, binaryFilename);
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 3) {
+            System.out.println("Usage: java algorithm.BinaryDataSetFile in.arff out" + EXTENSION + " targetAttribute [ignoredAttribute ...]");
+            return;
+        }
+        convert(args[0], args[1], args[2], Arrays.asList(args).subList(3, args.length));
+    }
+
+    /**
+     * @return how many bytes the target of a row takes up: 8 for the double of a real target, 4 for the code of
+     * a categorical one, and none if there is no target
+     */
+    private static int targetBytes(Attribute targetAttribute) {
+        if (targetAttribute == null) {
+            return 0;
+        }
+        return targetAttribute.isReal ? 8 : 4;
+    }
+
+    private static int[] keptColumns(Attribute[] attributes, Collection<String> ignoredAttributes) {
+        ArrayList<Integer> columns = new ArrayList<>();
+        for (int i = 0; i < attributes.length; i++) {
+            if (!ignoredAttributes.contains(attributes[i].name)) {
+                columns.add(i);
+            }
+        }
+        int[] kept = new int[columns.size()];
+        for (int i = 0; i < kept.length; i++) {
+            kept[i] = columns.get(i);
+        }
+        return kept;
+    }
+
+    private static Attribute readCategoricalAttribute(DataInputStream in) throws IOException {
+        String name = in.readUTF();
+        String[] values = new String[in.readInt()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = in.readUTF();
+        }
+        int declaredValueCount = in.readInt();
+        Attribute attribute = new Attribute(name, Arrays.asList(values).subList(0, declaredValueCount));
+        for (int i = declaredValueCount; i < values.length; i++) {
+            attribute.code(values[i]);
+        }
+        return attribute;
+    }
+
+    private static void writeCategoricalAttribute(DataOutputStream out, Attribute attribute) throws IOException {
+        out.writeUTF(attribute.name);
+        int valueCount = attribute.valueCount();
+        out.writeInt(valueCount);
+        for (int code = 0; code < valueCount; code++) {
+            out.writeUTF(attribute.getValue(code));
+        }
+        out.writeInt(attribute.declaredValueCount);
+    }
+
+    private static long align(long position) {
+        return (position + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+    }
+
+    /**
+     * Writes zeros up to the next aligned position
+     * @return the aligned position
+     */
+    private static long pad(FileChannel out, long position) throws IOException {
+        writeFully(out, ByteBuffer.allocate((int) (align(position) - position)));
+        return align(position);
+    }
+
+    /**
+     * Writes the contents of the block and clears it
+     * @return how many bytes were written
+     */
+    private static int flush(FileChannel out, ByteBuffer block) throws IOException {
+        block.flip();
+        int length = block.remaining();
+        writeFully(out, block);
+        block.clear();
+        return length;
+    }
+
+    private static void writeFully(FileChannel out, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+    }
+
+    /**
+     * Reads a byte buffer as a stream, so the header can be parsed with a DataInputStream
+     */
+    private static class ByteBufferInputStream extends InputStream {
+
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) {
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            length = Math.min(length, buffer.remaining());
+            buffer.get(bytes, offset, length);
+            return length;
+        }
+    }
+}
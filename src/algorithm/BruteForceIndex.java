@@ -0,0 +1,169 @@
+package algorithm;
+
+import distanceFunctions.CategoricalValueDistanceFunction;
+import distanceFunctions.DistanceKernel;
+import distanceFunctions.MinkowskiDistance;
+import distanceFunctions.RealValueDistanceFunction;
+
+/**
+ * Neighbor index that computes the distance from the query to every row.
+ * Blocks of queries are compared to the rows one tile at a time: a block of rows is copied
+ * into a contiguous buffer and compared to every query in the block before moving on, so it
+ * stays in the cache. For the Euclidean distance the squared distance within a tile is computed as
+ * |a|^2 + |b|^2 - 2 a.b, where the norms are computed once per query and once per row, leaving
+ * a plain dot product in the innermost loop. That only serves to rule rows out: every row that
+ * might be a neighbor is offered with its exact distance, so the results are the same as a full scan.
+ * For other Minkowski distances a row is first compared to the current k-th nearest neighbor by its
+ * ranking distance, and the root is only taken for rows that may be neighbors. Adding up the
+ * differences stops as soon as the sum shows the row is farther away than that neighbor.
+ */
+public class BruteForceIndex implements NeighborIndex {
+
+    /**
+     * How many rows are compared to a block of queries at a time
+     */
+    static final int ROW_BLOCK_SIZE = 256;
+
+    /**
+     * The squared distance computed from the norms and the dot product differs from the exact squared
+     * distance by at most this fraction of the sum of the squared norms. Rounding in the dot product
+     * is far smaller than this, the margin mostly covers the float subtraction in the exact distance
+     */
+    private static final double EXPANSION_MARGIN = 1e-6;
+
+    private final DataSet dataSet;
+    private final int[] rows;
+    private final RealValueDistanceFunction realValDist;
+    private final CategoricalValueDistanceFunction catValDist;
+
+    /**
+     * The kernel of the real value distance if it's a Minkowski distance, otherwise null,
+     * and a vectorized version of it to rule rows out with, or null if there is none
+     */
+    private final DistanceKernel kernel, vectorizedKernel;
+
+    /**
+     * @param dataSet the data set the rows belong to
+     * @param rows the rows to index
+     * @param realValDist distance function to use for real value attributes
+     * @param catValDist distance function to use for categorical value attributes
+     */
+    public BruteForceIndex(DataSet dataSet, int[] rows, RealValueDistanceFunction realValDist, CategoricalValueDistanceFunction catValDist) {
+        this.dataSet = dataSet;
+        this.rows = rows;
+        this.realValDist = realValDist;
+        this.catValDist = catValDist;
+        this.kernel = realValDist instanceof MinkowskiDistance ? ((MinkowskiDistance) realValDist).getKernel() : null;
+        this.vectorizedKernel = kernel == null ? null : DistanceKernel.vectorized(kernel);
+    }
+
+    @Override
+    public void search(DataPoint query, NeighborHeap nearestNeighbors) {
+        nearestNeighbors.countDistances(rows.length);
+        for (int row : rows) {
+            offer(query, row, nearestNeighbors);
+        }
+    }
+
+    /**
+     * Offers the row to the heap, unless its real value distance alone shows it's farther away than
+     * the heap's current worst neighbor. The categorical value distance is never negative, so
+     * such a row can't be a neighbor
+     */
+    private void offer(DataPoint query, int row, NeighborHeap nearestNeighbors) {
+        if (kernel == null) {
+            double distance = realValDist.distance(dataSet, row, query.dataSet, query.index, nearestNeighbors.worstDistance());
+            if (distance <= nearestNeighbors.worstDistance()) {
+                nearestNeighbors.offer(distance + catValDist.distance(dataSet, row, query.dataSet, query.index), row);
+            }
+            return;
+        }
+        int dimensions = dataSet.realAttributeCount;
+        float[] values = dataSet.realValues(), queryValues = query.dataSet.realValues();
+        int offset = row * dimensions, queryOffset = query.realValuesOffset();
+        double threshold = kernel.toRankingDistance(nearestNeighbors.worstDistance());
+        if (vectorizedKernel != null
+                && vectorizedKernel.rankingDistance(values, offset, queryValues, queryOffset, dimensions) > threshold * (1 + vectorizedKernel.rankingMargin(dimensions))) {
+            return;
+        }
+        // stop adding up the differences as soon as the row can't be a neighbor
+        double bound = threshold * (1 + kernel.rankingMargin(dimensions));
+        double rankingDistance = kernel.rankingDistance(values, offset, queryValues, queryOffset, dimensions, bound);
+        if (rankingDistance > bound) {
+            return;
+        }
+        nearestNeighbors.offer(kernel.toDistance(rankingDistance) + catValDist.distance(dataSet, row, query.dataSet, query.index), row);
+    }
+
+    @Override
+    public void search(DataSet queries, int from, int to, NeighborHeap[] nearestNeighbors) {
+        int dimensions = dataSet.realAttributeCount;
+        for (int q = from; q < to; q++) {
+            nearestNeighbors[q - from].countDistances(rows.length);
+        }
+        if (kernel != DistanceKernel.EUCLIDEAN || dimensions == 0) {
+            for (int start = 0; start < rows.length; start += ROW_BLOCK_SIZE) {
+                int end = Math.min(start + ROW_BLOCK_SIZE, rows.length);
+                for (int q = from; q < to; q++) {
+                    DataPoint query = queries.get(q);
+                    for (int i = start; i < end; i++) {
+                        offer(query, rows[i], nearestNeighbors[q - from]);
+                    }
+                }
+            }
+            return;
+        }
+        float[] queryValues = queries.realValues();
+        double[] queryNorms = new double[to - from];
+        for (int q = from; q < to; q++) {
+            queryNorms[q - from] = squaredNorm(queryValues, q * dimensions, dimensions);
+        }
+        float[] values = dataSet.realValues();
+        float[] block = new float[ROW_BLOCK_SIZE * dimensions];
+        double[] blockNorms = new double[ROW_BLOCK_SIZE];
+        for (int start = 0; start < rows.length; start += ROW_BLOCK_SIZE) {
+            int end = Math.min(start + ROW_BLOCK_SIZE, rows.length);
+            for (int i = start; i < end; i++) {
+                System.arraycopy(values, rows[i] * dimensions, block, (i - start) * dimensions, dimensions);
+                blockNorms[i - start] = squaredNorm(block, (i - start) * dimensions, dimensions);
+            }
+            for (int q = from; q < to; q++) {
+                NeighborHeap heap = nearestNeighbors[q - from];
+                int queryOffset = q * dimensions;
+                double queryNorm = queryNorms[q - from];
+                for (int i = start; i < end; i++) {
+                    double worstDistance = heap.worstDistance();
+                    double blockNorm = blockNorms[i - start];
+                    double squaredDistance = queryNorm + blockNorm - 2 * dot(queryValues, queryOffset, block, (i - start) * dimensions, dimensions);
+                    if (squaredDistance - EXPANSION_MARGIN * (queryNorm + blockNorm) > worstDistance * worstDistance) {
+                        continue;
+                    }
+                    double distance = realValDist.distance(dataSet, rows[i], queries, q, worstDistance);
+                    if (distance <= worstDistance) {
+                        heap.offer(distance + catValDist.distance(dataSet, rows[i], queries, q), rows[i]);
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    public boolean searchesInBlocks() {
+        return true;
+    }
+
+    private static double squaredNorm(float[] values, int offset, int length) {
+        return dot(values, offset, values, offset, length);
+    }
+
+    /**
+     * Products of two floats are exact as doubles, so the only rounding is in the sum
+     */
+    private static double dot(float[] values1, int offset1, float[] values2, int offset2, int length) {
+        double sum = 0;
+        for (int i = 0; i < length; i++) {
+            sum += (double) values1[offset1 + i] * values2[offset2 + i];
+        }
+        return sum;
+    }
+}
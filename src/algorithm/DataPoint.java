@@ -1,42 +1,56 @@
 package algorithm;
 
-import java.util.ArrayList;
 import java.util.Arrays;
 
 /**
  * Representation of a single data point.
+ * The values themselves live in a DataSet; a data point is only a view of one of its rows.
  */
 public class DataPoint {
 
     /**
-     * An array of all the real values of the data point
+     * The data set this data point belongs to
      */
-    public final Float[] realValues;
+    public final DataSet dataSet;
 
     /**
-     * An array of all the categorical values of the data point
+     * The index of this data point's row in the data set
      */
-    public final String[] categoricalValues;
+    public final int index;
+
+    DataPoint(DataSet dataSet, int index) {
+        this.dataSet = dataSet;
+        this.index = index;
+    }
 
     /**
-     * The value of the target attribute for this data point
+     * @return the index in dataSet.realValues() of this data point's first real value
      */
-    final String targetAttributeValue;
+    public int realValuesOffset() {
+        return index * dataSet.realAttributeCount;
+    }
 
-    DataPoint(ArrayList<Float> realValues, ArrayList<String> categoricalValues, String targetAttributeValue) {
-        this.realValues = new Float[realValues.size()];
-        this.categoricalValues = new String[categoricalValues.size()];
-        for (int i = 0; i < realValues.size(); i++) {
-            this.realValues[i] = realValues.get(i);
-        }
-        for (int i = 0; i < categoricalValues.size(); i++) {
-            this.categoricalValues[i] = categoricalValues.get(i);
-        }
-        this.targetAttributeValue = targetAttributeValue;
+    /**
+     * @return the index in dataSet.categoricalValues() of this data point's first categorical value
+     */
+    public int categoricalValuesOffset() {
+        return index * dataSet.categoricalAttributeCount;
+    }
+
+    /**
+     * @return the value of the target attribute for this data point
+     */
+    String targetAttributeValue() {
+        return dataSet.getTargetAttributeValue(index);
     }
 
     @Override
     public String toString() {
-        return "Class: " + targetAttributeValue + " " + Arrays.toString(realValues) + " " + Arrays.toString(categoricalValues);
+        float[] realValues = Arrays.copyOfRange(dataSet.realValues(), realValuesOffset(), realValuesOffset() + dataSet.realAttributeCount);
+        String[] categoricalValues = new String[dataSet.categoricalAttributeCount];
+        for (int i = 0; i < categoricalValues.length; i++) {
+            categoricalValues[i] = dataSet.getCategoricalValue(index, i);
+        }
+        return "Class: " + targetAttributeValue() + " " + Arrays.toString(realValues) + " " + Arrays.toString(categoricalValues);
     }
 }
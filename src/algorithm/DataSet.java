@@ -0,0 +1,279 @@
+package algorithm;
+
+import java.util.Arrays;
+
+/**
+ * Columnar storage for a whole data set.
+ * The real values of every row are stored back to back in one flat float array,
+ * and the categorical values are dictionary encoded as ints, so a row is just an
+ * offset into two primitive arrays. DataPoint is a lightweight view of a single row.
+ */
+public class DataSet {
+
+    /**
+     * realAttributeCount: How many real value attributes each row has
+     * categoricalAttributeCount: How many categorical value attributes each row has
+     */
+    public final int realAttributeCount, categoricalAttributeCount;
+
+    /**
+     * The real values of all rows. Row i occupies the indices
+     * [i*realAttributeCount, (i+1)*realAttributeCount)
+     */
+    private float[] realValues;
+
+    /**
+     * The dictionary codes of the categorical values of all rows. Row i occupies the indices
+     * [i*categoricalAttributeCount, (i+1)*categoricalAttributeCount)
+     */
+    private int[] categoricalValues;
+
+    /**
+     * The value of the target attribute for each row, encoded when it's set: the value itself if the
+     * target attribute is real, otherwise its code in the target attribute's dictionary, so the
+     * declared classes are 0, 1, 2, ... Only the array for the kind of target attribute is allocated
+     */
+    private double[] targetValues;
+    private int[] targetClasses;
+
+    /**
+     * The real value attributes, and the categorical attributes, which hold the dictionaries the codes refer to
+     */
+    private final Attribute[] realAttributes, categoricalAttributes;
+
+    /**
+     * The target attribute, or null if the data set has none
+     */
+    public final Attribute targetAttribute;
+
+    /**
+     * How many rows have been added, and how many rows the arrays have room for
+     */
+    private int size, capacity;
+
+    /**
+     * @param realAttributes the real value attributes of the rows, in order
+     * @param categoricalAttributes the categorical attributes of the rows, in order
+     * @param targetAttribute the target attribute, or null if there is none
+     */
+    DataSet(Attribute[] realAttributes, Attribute[] categoricalAttributes, Attribute targetAttribute) {
+        this.realAttributeCount = realAttributes.length;
+        this.categoricalAttributeCount = categoricalAttributes.length;
+        this.realValues = new float[16 * realAttributeCount];
+        this.categoricalValues = new int[16 * categoricalAttributeCount];
+        this.capacity = 16;
+        this.realAttributes = realAttributes;
+        this.categoricalAttributes = categoricalAttributes;
+        this.targetAttribute = targetAttribute;
+        this.targetValues = targetAttribute != null && targetAttribute.isReal ? new double[16] : null;
+        this.targetClasses = targetAttribute != null && !targetAttribute.isReal ? new int[16] : null;
+    }
+
+    /**
+     * Creates a data set containing the given rows of another data set, in the given order.
+     * The categorical value dictionaries are shared, so codes stay comparable between the two.
+     * @param source the data set to copy the rows from
+     * @param rows the indexes of the rows to copy
+     */
+    DataSet(DataSet source, int[] rows) {
+        this.realAttributeCount = source.realAttributeCount;
+        this.categoricalAttributeCount = source.categoricalAttributeCount;
+        this.realValues = new float[Math.max(rows.length, 1) * realAttributeCount];
+        this.categoricalValues = new int[Math.max(rows.length, 1) * categoricalAttributeCount];
+        this.realAttributes = source.realAttributes;
+        this.categoricalAttributes = source.categoricalAttributes;
+        this.targetAttribute = source.targetAttribute;
+        this.targetValues = source.targetValues == null ? null : new double[Math.max(rows.length, 1)];
+        this.targetClasses = source.targetClasses == null ? null : new int[Math.max(rows.length, 1)];
+        for (int i = 0; i < rows.length; i++) {
+            System.arraycopy(source.realValues, rows[i] * realAttributeCount, realValues, i * realAttributeCount, realAttributeCount);
+            System.arraycopy(source.categoricalValues, rows[i] * categoricalAttributeCount, categoricalValues, i * categoricalAttributeCount, categoricalAttributeCount);
+            if (targetValues != null) {
+                targetValues[i] = source.targetValues[rows[i]];
+            }
+            if (targetClasses != null) {
+                targetClasses[i] = source.targetClasses[rows[i]];
+            }
+        }
+        this.size = rows.length;
+        this.capacity = Math.max(rows.length, 1);
+    }
+
+    /**
+     * Appends a row to the data set
+     * @param realValues the real values of the row
+     * @param categoricalValues the categorical values of the row
+     * @param targetAttributeValue the value of the target attribute of the row
+     * @return the index of the new row
+     */
+    int add(float[] realValues, String[] categoricalValues, String targetAttributeValue) {
+        int row = addRows(1);
+        System.arraycopy(realValues, 0, this.realValues, row * realAttributeCount, realAttributeCount);
+        for (int i = 0; i < categoricalAttributeCount; i++) {
+            this.categoricalValues[row * categoricalAttributeCount + i] = categoricalAttributes[i].code(categoricalValues[i]);
+        }
+        setTargetAttributeValue(row, targetAttributeValue);
+        return row;
+    }
+
+    /**
+     * Appends a row whose categorical values are already encoded by the categorical attributes
+     * @param realValues the real values of the row
+     * @param categoricalValues the codes of the categorical values of the row
+     * @param targetAttributeValue the value of the target attribute of the row
+     * @return the index of the new row
+     */
+    int add(float[] realValues, int[] categoricalValues, String targetAttributeValue) {
+        int row = add(realValues, categoricalValues);
+        setTargetAttributeValue(row, targetAttributeValue);
+        return row;
+    }
+
+    /**
+     * Appends a row whose categorical values are already encoded by the categorical attributes,
+     * leaving its target to setTargetValue or setTargetClass
+     * @param realValues the real values of the row
+     * @param categoricalValues the codes of the categorical values of the row
+     * @return the index of the new row
+     */
+    int add(float[] realValues, int[] categoricalValues) {
+        int row = addRows(1);
+        System.arraycopy(realValues, 0, this.realValues, row * realAttributeCount, realAttributeCount);
+        System.arraycopy(categoricalValues, 0, this.categoricalValues, row * categoricalAttributeCount, categoricalAttributeCount);
+        return row;
+    }
+
+    /**
+     * Appends rows whose values the caller fills in directly, through realValues(),
+     * categoricalValues() and setTargetValue or setTargetClass
+     * @param count how many rows to append
+     * @return the index of the first new row
+     */
+    int addRows(int count) {
+        if (size + count > capacity) {
+            capacity = Math.max(size * 2, size + count);
+            this.realValues = Arrays.copyOf(this.realValues, capacity * realAttributeCount);
+            this.categoricalValues = Arrays.copyOf(this.categoricalValues, capacity * categoricalAttributeCount);
+            if (targetValues != null) {
+                this.targetValues = Arrays.copyOf(targetValues, capacity);
+            }
+            if (targetClasses != null) {
+                this.targetClasses = Arrays.copyOf(targetClasses, capacity);
+            }
+        }
+        size += count;
+        return size - count;
+    }
+
+    /**
+     * @return how many rows the data set contains
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the backing array of real values. Row i starts at index i*realAttributeCount.
+     * The array may be longer than size()*realAttributeCount, and is replaced when rows are added.
+     */
+    public float[] realValues() {
+        return realValues;
+    }
+
+    /**
+     * Returns the backing array of categorical value codes. Row i starts at index i*categoricalAttributeCount.
+     * The array may be longer than size()*categoricalAttributeCount, and is replaced when rows are added.
+     */
+    public int[] categoricalValues() {
+        return categoricalValues;
+    }
+
+    /**
+     * @return the real value of the given attribute in the given row
+     */
+    public float getRealValue(int row, int attribute) {
+        return realValues[row * realAttributeCount + attribute];
+    }
+
+    /**
+     * @return the categorical value of the given attribute in the given row
+     */
+    public String getCategoricalValue(int row, int attribute) {
+        return categoricalAttributes[attribute].getValue(categoricalValues[row * categoricalAttributeCount + attribute]);
+    }
+
+    /**
+     * @return the real value attribute with the given index
+     */
+    public Attribute getRealAttribute(int attribute) {
+        return realAttributes[attribute];
+    }
+
+    /**
+     * @return the categorical attribute with the given index, which holds the dictionary of its codes
+     */
+    public Attribute getCategoricalAttribute(int attribute) {
+        return categoricalAttributes[attribute];
+    }
+
+    /**
+     * @return the value of the target attribute in the given row, or "" if the data set has no target attribute
+     */
+    String getTargetAttributeValue(int row) {
+        if (targetAttribute == null) {
+            return "";
+        }
+        return targetAttribute.isReal ? Float.toString((float) targetValues[row]) : targetAttribute.getValue(targetClasses[row]);
+    }
+
+    /**
+     * Sets the value of the target attribute in the given row, encoding it. Does nothing if the data set
+     * has no target attribute
+     */
+    void setTargetAttributeValue(int row, String targetAttributeValue) {
+        if (targetAttribute == null) {
+            return;
+        }
+        if (targetAttribute.isReal) {
+            setTargetValue(row, Float.parseFloat(targetAttributeValue));
+        } else {
+            setTargetClass(row, targetAttribute.code(targetAttributeValue));
+        }
+    }
+
+    /**
+     * @return the value of the real target attribute in the given row
+     */
+    double getTargetValue(int row) {
+        return targetValues[row];
+    }
+
+    /**
+     * Sets the value of the real target attribute in the given row
+     */
+    void setTargetValue(int row, double value) {
+        targetValues[row] = value;
+    }
+
+    /**
+     * Returns the class of the given row, which is the code of the categorical target attribute's value.
+     * A class below targetAttribute.declaredValueCount is the index of its value in the declared values
+     */
+    int getTargetClass(int row) {
+        return targetClasses[row];
+    }
+
+    /**
+     * Sets the class of the given row to a code of the categorical target attribute
+     */
+    void setTargetClass(int row, int code) {
+        targetClasses[row] = code;
+    }
+
+    /**
+     * @return a view of the given row
+     */
+    public DataPoint get(int row) {
+        return new DataPoint(this, row);
+    }
+}
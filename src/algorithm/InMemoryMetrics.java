@@ -0,0 +1,151 @@
+package algorithm;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps the measurements in memory: the total of every counter, and a histogram of every distribution
+ * from which its percentiles can be read. The histograms have 16 buckets per power of two, so a
+ * percentile is accurate to within about 6%, and take the same little memory however many values
+ * are recorded. toString prints all of it.
+ */
+public class InMemoryMetrics implements Metrics {
+
+    /**
+     * How many buckets each power of two is split into, as a power of two
+     */
+    private static final int SUB_BUCKET_BITS = 4;
+
+    private final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+    private final Map<String, Histogram> distributions = new ConcurrentHashMap<>();
+
+    @Override
+    public void count(String name, long amount) {
+        counters.computeIfAbsent(name, ignored -> new LongAdder()).add(amount);
+    }
+
+    @Override
+    public void record(String name, long value) {
+        distributions.computeIfAbsent(name, ignored -> new Histogram()).record(value);
+    }
+
+    /**
+     * @return the total of a counter, 0 if nothing was added to it
+     */
+    public long getCount(String name) {
+        LongAdder counter = counters.get(name);
+        return counter == null ? 0 : counter.sum();
+    }
+
+    /**
+     * @return how many values of a distribution were recorded
+     */
+    public long getValueCount(String name) {
+        Histogram histogram = distributions.get(name);
+        return histogram == null ? 0 : histogram.getCount();
+    }
+
+    /**
+     * Returns a percentile of a distribution
+     * @param name the name of the distribution
+     * @param percentile the percentile, from 0 to 100
+     * @return the value that the given percentage of the recorded values is no larger than,
+     * or 0 if no values were recorded
+     */
+    public long getPercentile(String name, double percentile) {
+        Histogram histogram = distributions.get(name);
+        return histogram == null ? 0 : histogram.getPercentile(percentile);
+    }
+
+    /**
+     * @return the mean of a distribution, or 0 if no values were recorded
+     */
+    public double getMean(String name) {
+        Histogram histogram = distributions.get(name);
+        return histogram == null ? 0 : histogram.getMean();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder s = new StringBuilder();
+        for (Map.Entry<String, LongAdder> counter : new TreeMap<>(counters).entrySet()) {
+            s.append(counter.getKey()).append(": ").append(counter.getValue().sum()).append('\n');
+        }
+        for (Map.Entry<String, Histogram> distribution : new TreeMap<>(distributions).entrySet()) {
+            s.append(distribution.getKey()).append(": ").append(distribution.getValue()).append('\n');
+        }
+        return s.toString();
+    }
+
+    /**
+     * Counts values in buckets whose width grows with the values. Values below 2^(SUB_BUCKET_BITS+1)
+     * get a bucket each, every larger power of two is split into 2^SUB_BUCKET_BITS buckets
+     */
+    private static class Histogram {
+
+        private static final int EXACT_BUCKETS = 2 << SUB_BUCKET_BITS;
+
+        private final long[] bucketCounts = new long[EXACT_BUCKETS + ((63 - SUB_BUCKET_BITS - 1) << SUB_BUCKET_BITS)];
+        private long count, sum, min = Long.MAX_VALUE, max = Long.MIN_VALUE;
+
+        synchronized void record(long value) {
+            value = Math.max(value, 0);
+            bucketCounts[bucket(value)]++;
+            count++;
+            sum += value;
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+        }
+
+        private static int bucket(long value) {
+            if (value < EXACT_BUCKETS) {
+                return (int) value;
+            }
+            // keep the SUB_BUCKET_BITS bits after the leading one
+            int shift = 64 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS - 1;
+            return EXACT_BUCKETS + ((shift - 1) << SUB_BUCKET_BITS) + (int) (value >>> shift) - (1 << SUB_BUCKET_BITS);
+        }
+
+        /**
+         * @return the largest value that falls in the bucket
+         */
+        private static long bucketEnd(int bucket) {
+            if (bucket < EXACT_BUCKETS) {
+                return bucket;
+            }
+            int shift = ((bucket - EXACT_BUCKETS) >>> SUB_BUCKET_BITS) + 1;
+            long first = (long) ((1 << SUB_BUCKET_BITS) + ((bucket - EXACT_BUCKETS) & ((1 << SUB_BUCKET_BITS) - 1))) << shift;
+            return first + (1L << shift) - 1;
+        }
+
+        synchronized long getCount() {
+            return count;
+        }
+
+        synchronized double getMean() {
+            return count == 0 ? 0 : (double) sum / count;
+        }
+
+        synchronized long getPercentile(double percentile) {
+            if (count == 0) {
+                return 0;
+            }
+            long rank = Math.max((long) Math.ceil(percentile / 100 * count), 1);
+            long seen = 0;
+            for (int bucket = 0; bucket < bucketCounts.length; bucket++) {
+                seen += bucketCounts[bucket];
+                if (seen >= rank) {
+                    return Math.max(Math.min(bucketEnd(bucket), max), min);
+                }
+            }
+            return max;
+        }
+
+        @Override
+        public synchronized String toString() {
+            return "count " + count + ", mean " + (float) getMean() + ", p50 " + getPercentile(50) + ", p99 " + getPercentile(99) + ", max " + (count == 0 ? 0 : max);
+        }
+    }
+}
@@ -0,0 +1,603 @@
+package algorithm;
+
+import distanceFunctions.CategoricalValueDistanceFunction;
+import distanceFunctions.DistanceKernel;
+import distanceFunctions.MinkowskiDistance;
+
+import java.util.Arrays;
+
+/**
+ * A k-NearestNeighbor model that training points can be added to one at a time, optionally over a
+ * sliding window that forgets the oldest points once it's full.
+ *
+ * The model keeps the real values as they were added, along with the running min and max of every
+ * real value attribute over the points in the window, and normalizes the values with those whenever
+ * it computes a distance. Adding or forgetting a point therefore never renormalizes the other points.
+ * The min and max over the window are kept in monotonic deques, so forgetting the point that was the
+ * min or max finds the next one in constant time. Unlike Normalization.fit, an attribute whose values
+ * are all the same is ignored rather than turned into NaN.
+ *
+ * The points are indexed by a k-d tree over the raw values that is updated in place: a new point goes
+ * into the leaf its values belong to, which is split once it holds too many points, and a forgotten point
+ * is removed from its leaf. Bounding boxes only grow in between, which keeps them valid, if looser, as points
+ * are forgotten, and the tree is rebuilt from the points in the window whenever the forgotten rows are dropped.
+ * Every distance is computed on the normalized values, so the neighbors are exactly the ones a scan would find.
+ *
+ * All methods are synchronized, so points can be added from one thread while others predict.
+ */
+public class IncrementalNearestNeighborsModel {
+
+    /**
+     * A leaf is split once it holds this many points
+     */
+    private static final int MAX_LEAF_SIZE = 32;
+
+    /**
+     * The points, oldest first. The points of the window are the rows [firstRow, dataSet.size()),
+     * the rows before that have been forgotten and are dropped once they take up half the data set
+     */
+    private DataSet dataSet;
+    private int firstRow;
+
+    /**
+     * The most points the window holds, or 0 for no limit
+     */
+    private final int windowSize;
+
+    private final int k;
+    private final boolean useDistanceWeighting;
+    private final DistanceKernel kernel;
+    private final CategoricalValueDistanceFunction catValDist;
+
+    /**
+     * The possible values of the target attribute if it's categorical, otherwise null
+     */
+    private final String[] classificationTargetAttributeValues;
+
+    /**
+     * How many points have been added in total. The point of row r was the
+     * (addedCount - dataSet.size() + r)-th to be added
+     */
+    private long addedCount;
+
+    /**
+     * The smallest and largest value of each real value attribute in the window
+     */
+    private final SlidingExtreme[] min, max;
+
+    /**
+     * The nodes of the tree. Inner nodes split their points at splitValue of splitAttribute, sending
+     * smaller values to the left child. Leaves (leftChild == -1) hold their rows in leafRows.
+     * Node i's box occupies [i*dimensions, (i+1)*dimensions) of boxMin and boxMax
+     */
+    private int nodeCount;
+    private int[] splitAttribute, leftChild, rightChild, leafSize;
+
+    /**
+     * For every leaf that couldn't be split because its rows had the same values, how many rows it had
+     * then, otherwise 0. Such a leaf is only split again once its box grows or it holds twice as many rows
+     */
+    private int[] unsplitSize;
+    private float[] splitValue, boxMin, boxMax;
+    private int[][] leafRows;
+
+    /**
+     * The leaf every row is in
+     */
+    private int[] leafOf;
+
+    /**
+     * The cache searches are looked up in first, or null, the id this model's searches are cached under,
+     * and the version of the model, which changes whenever a point is added or forgotten
+     */
+    private NeighborCache cache;
+    private final long cacheOwner = NeighborCache.newOwner();
+    private long version;
+
+    /**
+     * Creates a model from the points of a data set, which must not be normalized. The model copies the points,
+     * and uses the data set's attributes for the points that are added later
+     * @param dataSet the initial points, which may be none
+     * @param k how many neighbors to consider
+     * @param useDistanceWeighting if the neighbors should be distance weighted
+     * @param realValDist distance function to use for real value attributes
+     * @param catValDist distance function to use for categorical value attributes
+     * @param windowSize the most points to keep, or 0 to keep every point
+     */
+    public IncrementalNearestNeighborsModel(DataSet dataSet, int k, boolean useDistanceWeighting, MinkowskiDistance realValDist, CategoricalValueDistanceFunction catValDist, int windowSize) {
+        if (dataSet.targetAttribute == null) {
+            throw new IllegalArgumentException("The data set has no target attribute");
+        }
+        if (windowSize < 0) {
+            throw new IllegalArgumentException("Negative window size " + windowSize);
+        }
+        this.k = k;
+        this.useDistanceWeighting = useDistanceWeighting;
+        this.kernel = realValDist.getKernel();
+        this.catValDist = catValDist;
+        this.windowSize = windowSize;
+        this.classificationTargetAttributeValues = dataSet.targetAttribute.isReal ? null : dataSet.targetAttribute.getDeclaredValues();
+        this.dataSet = new DataSet(dataSet, new int[0]);
+        int dimensions = dataSet.realAttributeCount;
+        min = new SlidingExtreme[dimensions];
+        max = new SlidingExtreme[dimensions];
+        for (int i = 0; i < dimensions; i++) {
+            min[i] = new SlidingExtreme(false);
+            max[i] = new SlidingExtreme(true);
+        }
+        splitAttribute = new int[16];
+        leftChild = new int[16];
+        rightChild = new int[16];
+        leafSize = new int[16];
+        unsplitSize = new int[16];
+        splitValue = new float[16];
+        boxMin = new float[16 * dimensions];
+        boxMax = new float[16 * dimensions];
+        leafRows = new int[16][];
+        leafOf = new int[16];
+        newLeaf();
+        float[] realValues = new float[dimensions];
+        int[] categoricalValues = new int[dataSet.categoricalAttributeCount];
+        for (int row = 0; row < dataSet.size(); row++) {
+            System.arraycopy(dataSet.realValues(), row * dimensions, realValues, 0, dimensions);
+            System.arraycopy(dataSet.categoricalValues(), row * categoricalValues.length, categoricalValues, 0, categoricalValues.length);
+            add(realValues, categoricalValues, dataSet.getTargetAttributeValue(row));
+        }
+    }
+
+    /**
+     * @return how many points the model currently holds
+     */
+    public synchronized int size() {
+        return dataSet.size() - firstRow;
+    }
+
+    /**
+     * Looks up the neighbors of every query in a cache first, and caches the ones that have to be searched for.
+     * Adding or forgetting a point changes the model's version, so no search made before the change is used after it
+     * @param cache the cache, which may be shared with other models, or null to stop caching
+     */
+    public synchronized void setCache(NeighborCache cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * @return true if the target attribute is categorical, false if it's a real value
+     */
+    public boolean isClassification() {
+        return classificationTargetAttributeValues != null;
+    }
+
+    /**
+     * @return the possible values of the target attribute, or null if the model does regression
+     */
+    public String[] getClassLabels() {
+        return classificationTargetAttributeValues == null ? null : classificationTargetAttributeValues.clone();
+    }
+
+    /**
+     * Adds a training point. If the window is full, the oldest point is forgotten
+     * @param realValues the real values of the point, without normalization
+     * @param categoricalValues the categorical values of the point
+     * @param targetAttributeValue the value of the point's target attribute
+     */
+    public synchronized void add(float[] realValues, String[] categoricalValues, String targetAttributeValue) {
+        checkLengths(realValues, categoricalValues);
+        int[] codes = new int[categoricalValues.length];
+        for (int i = 0; i < codes.length; i++) {
+            codes[i] = dataSet.getCategoricalAttribute(i).code(categoricalValues[i]);
+        }
+        add(realValues, codes, targetAttributeValue);
+    }
+
+    private void add(float[] realValues, int[] categoricalValues, String targetAttributeValue) {
+        for (float value : realValues) {
+            if (Float.isNaN(value)) {
+                throw new IllegalArgumentException("Missing real value");
+            }
+        }
+        if (windowSize > 0 && size() == windowSize) {
+            removeOldest();
+        }
+        int row = dataSet.add(realValues, categoricalValues, targetAttributeValue);
+        long sequence = addedCount++;
+        version++;
+        for (int i = 0; i < realValues.length; i++) {
+            min[i].add(sequence, realValues[i]);
+            max[i].add(sequence, realValues[i]);
+        }
+        if (row >= leafOf.length) {
+            leafOf = Arrays.copyOf(leafOf, 2 * leafOf.length);
+        }
+        insert(row);
+    }
+
+    /**
+     * Forgets the oldest training point, if there is one
+     */
+    public synchronized void removeOldest() {
+        if (size() == 0) {
+            return;
+        }
+        int row = firstRow++;
+        long sequence = addedCount - dataSet.size() + row;
+        version++;
+        for (int i = 0; i < min.length; i++) {
+            min[i].expire(sequence);
+            max[i].expire(sequence);
+        }
+        int leaf = leafOf[row];
+        int[] rows = leafRows[leaf];
+        for (int i = 0; i < leafSize[leaf]; i++) {
+            if (rows[i] == row) {
+                rows[i] = rows[--leafSize[leaf]];
+                break;
+            }
+        }
+        if (firstRow > dataSet.size() / 2 && firstRow >= MAX_LEAF_SIZE) {
+            compact();
+        }
+    }
+
+    /**
+     * Drops the forgotten rows from the data set, and rebuilds the tree from the rows that are left.
+     * Forgetting rows leaves empty leaves and loose boxes behind, which the rebuild gets rid of, so the
+     * size of the tree stays proportional to the window instead of to every row ever added. Compacting happens
+     * once for every window's worth of forgotten rows, so each forgotten row pays for about one insert
+     */
+    private void compact() {
+        int[] rows = new int[dataSet.size() - firstRow];
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = firstRow + i;
+        }
+        dataSet = new DataSet(dataSet, rows);
+        firstRow = 0;
+        nodeCount = 0;
+        newLeaf();
+        for (int row = 0; row < rows.length; row++) {
+            insert(row);
+        }
+    }
+
+    /**
+     * Predicts the target attribute of a point
+     * @param realValues the real values of the point, without normalization
+     * @param categoricalValues the categorical values of the point. Values that no training point
+     *                          has ever had are different from every training point's value
+     * @return the predicted value when doing regression, or the index in getClassLabels() of the predicted class
+     */
+    public synchronized double predict(float[] realValues, String[] categoricalValues) {
+        NeighborHeap nearestNeighbors = getNearestNeighbors(realValues, categoricalValues);
+        if (!isClassification()) {
+            return NearestNeighborsModel.regress(nearestNeighbors, dataSet, useDistanceWeighting);
+        }
+        return NearestNeighborsModel.classify(nearestNeighbors, dataSet, classificationTargetAttributeValues.length, useDistanceWeighting);
+    }
+
+    /**
+     * Predicts the class of a point
+     * @param realValues the real values of the point, without normalization
+     * @param categoricalValues the categorical values of the point
+     * @return the predicted value of the target attribute
+     */
+    public synchronized String predictLabel(float[] realValues, String[] categoricalValues) {
+        if (!isClassification()) {
+            throw new IllegalStateException("The model does regression");
+        }
+        return classificationTargetAttributeValues[NearestNeighborsModel.classify(getNearestNeighbors(realValues, categoricalValues), dataSet, classificationTargetAttributeValues.length, useDistanceWeighting)];
+    }
+
+    /**
+     * Finds the k nearest neighbors of a point among the training points in the window.
+     * When two training points are equally far away, the older one is considered nearer.
+     * @return heap holding the rows of the k nearest neighbors, nearest first
+     */
+    private NeighborHeap getNearestNeighbors(float[] realValues, String[] categoricalValues) {
+        checkLengths(realValues, categoricalValues);
+        // the query as a data point, for the categorical value distance
+        Attribute[] realAttributes = new Attribute[dataSet.realAttributeCount], categoricalAttributes = new Attribute[dataSet.categoricalAttributeCount];
+        for (int i = 0; i < realAttributes.length; i++) {
+            realAttributes[i] = dataSet.getRealAttribute(i);
+        }
+        int[] codes = new int[categoricalAttributes.length];
+        for (int i = 0; i < categoricalAttributes.length; i++) {
+            categoricalAttributes[i] = dataSet.getCategoricalAttribute(i);
+            codes[i] = categoricalAttributes[i].lookup(categoricalValues[i]);
+        }
+        DataSet querySet = new DataSet(realAttributes, categoricalAttributes, null);
+        querySet.add(realValues, codes, null);
+        DataPoint query = querySet.get(0);
+
+        NeighborHeap nearestNeighbors = new NeighborHeap(k);
+        if (cache != null && cache.get(cacheOwner, version, query, nearestNeighbors)) {
+            return nearestNeighbors;
+        }
+        if (size() > 0) {
+            Search search = new Search(realValues, query);
+            search.search(0, nearestNeighbors);
+        }
+        nearestNeighbors.sort();
+        if (cache != null) {
+            cache.put(cacheOwner, version, query, nearestNeighbors);
+        }
+        return nearestNeighbors;
+    }
+
+    private void checkLengths(float[] realValues, String[] categoricalValues) {
+        if (realValues.length != dataSet.realAttributeCount || categoricalValues.length != dataSet.categoricalAttributeCount) {
+            throw new IllegalArgumentException("Expected " + dataSet.realAttributeCount + " real values and " + dataSet.categoricalAttributeCount + " categorical values");
+        }
+    }
+
+    /**
+     * The state of a single search: the query, the current normalization and scratch arrays
+     */
+    private class Search {
+
+        private final int dimensions = dataSet.realAttributeCount;
+        private final float[] normalizedQuery, normalizedRow, gaps, origin;
+        private final float[] lowest, range;
+        private final DataPoint queryPoint;
+
+        Search(float[] query, DataPoint queryPoint) {
+            this.queryPoint = queryPoint;
+            lowest = new float[dimensions];
+            range = new float[dimensions];
+            for (int i = 0; i < dimensions; i++) {
+                lowest[i] = min[i].get();
+                range[i] = max[i].get() - lowest[i];
+            }
+            normalizedQuery = new float[dimensions];
+            normalize(query, 0, normalizedQuery);
+            normalizedRow = new float[dimensions];
+            gaps = new float[dimensions];
+            origin = new float[dimensions];
+        }
+
+        /**
+         * Normalizes the same way as Normalization.apply, except that constant attributes become 0
+         */
+        private void normalize(float[] values, int offset, float[] normalized) {
+            for (int i = 0; i < dimensions; i++) {
+                normalized[i] = range[i] == 0 ? 0 : (values[offset + i] - lowest[i]) / range[i];
+            }
+        }
+
+        /**
+         * The distance from the query to the node's box. Normalizing is monotonic even with rounding, so the
+         * normalized box contains the normalized values of the node's rows, and the gaps between the
+         * normalized query and the normalized box are never larger than the differences to those rows
+         */
+        private double lowerBound(int node) {
+            for (int i = 0; i < dimensions; i++) {
+                float low = range[i] == 0 ? 0 : (boxMin[node * dimensions + i] - lowest[i]) / range[i];
+                float high = range[i] == 0 ? 0 : (boxMax[node * dimensions + i] - lowest[i]) / range[i];
+                gaps[i] = Math.max(0, Math.max(low - normalizedQuery[i], normalizedQuery[i] - high));
+            }
+            return kernel.distance(gaps, 0, origin, 0, dimensions);
+        }
+
+        void search(int node, NeighborHeap nearestNeighbors) {
+            int left = leftChild[node], right = rightChild[node];
+            if (left == -1) {
+                for (int i = 0; i < leafSize[node]; i++) {
+                    int row = leafRows[node][i];
+                    normalize(dataSet.realValues(), row * dimensions, normalizedRow);
+                    double distance = kernel.distance(normalizedRow, 0, normalizedQuery, 0, dimensions, nearestNeighbors.worstDistance());
+                    if (distance <= nearestNeighbors.worstDistance()) {
+                        nearestNeighbors.offer(distance + catValDist.distance(dataSet, row, queryPoint.dataSet, queryPoint.index), row);
+                    }
+                }
+                return;
+            }
+            double leftBound = lowerBound(left), rightBound = lowerBound(right);
+            if (rightBound < leftBound) {
+                int child = left;
+                left = right;
+                right = child;
+                double bound = leftBound;
+                leftBound = rightBound;
+                rightBound = bound;
+            }
+            if (leftBound <= nearestNeighbors.worstDistance()) {
+                search(left, nearestNeighbors);
+            }
+            if (rightBound <= nearestNeighbors.worstDistance()) {
+                search(right, nearestNeighbors);
+            }
+        }
+    }
+
+    /**
+     * Puts a row into the leaf its values belong to, growing the boxes on the way, and splits the leaf if it's full.
+     * A leaf that couldn't be split before is only tried again if the new row grew its box, or it has doubled in
+     * size since, so a stream of identical rows doesn't scan the whole leaf on every insert
+     */
+    private void insert(int row) {
+        int dimensions = dataSet.realAttributeCount;
+        float[] values = dataSet.realValues();
+        int node = 0;
+        boolean grew;
+        while (true) {
+            grew = false;
+            for (int i = 0; i < dimensions; i++) {
+                float value = values[row * dimensions + i];
+                if (value < boxMin[node * dimensions + i]) {
+                    boxMin[node * dimensions + i] = value;
+                    grew = true;
+                }
+                if (value > boxMax[node * dimensions + i]) {
+                    boxMax[node * dimensions + i] = value;
+                    grew = true;
+                }
+            }
+            if (leftChild[node] == -1) {
+                break;
+            }
+            node = values[row * dimensions + splitAttribute[node]] < splitValue[node] ? leftChild[node] : rightChild[node];
+        }
+        addToLeaf(node, row);
+        if (leafSize[node] >= MAX_LEAF_SIZE && (grew || leafSize[node] >= 2 * unsplitSize[node])) {
+            split(node);
+        }
+    }
+
+    private void addToLeaf(int leaf, int row) {
+        if (leafSize[leaf] == leafRows[leaf].length) {
+            leafRows[leaf] = Arrays.copyOf(leafRows[leaf], 2 * leafRows[leaf].length);
+        }
+        leafRows[leaf][leafSize[leaf]++] = row;
+        leafOf[row] = leaf;
+    }
+
+    /**
+     * Splits a leaf at the median of the attribute with the widest spread among its rows.
+     * Leaves whose rows all have the same values can't be split, and just keep growing until a different row arrives
+     */
+    private void split(int leaf) {
+        int dimensions = dataSet.realAttributeCount;
+        float[] values = dataSet.realValues();
+        int[] rows = Arrays.copyOf(leafRows[leaf], leafSize[leaf]);
+        int attribute = -1;
+        float widest = 0;
+        for (int i = 0; i < dimensions; i++) {
+            float low = Float.POSITIVE_INFINITY, high = Float.NEGATIVE_INFINITY;
+            for (int row : rows) {
+                low = Math.min(low, values[row * dimensions + i]);
+                high = Math.max(high, values[row * dimensions + i]);
+            }
+            if (high - low > widest) {
+                widest = high - low;
+                attribute = i;
+            }
+        }
+        if (attribute == -1) {
+            unsplitSize[leaf] = rows.length;
+            return;
+        }
+        float[] column = new float[rows.length];
+        for (int i = 0; i < rows.length; i++) {
+            column[i] = values[rows[i] * dimensions + attribute];
+        }
+        Arrays.sort(column);
+        // values equal to the split value go right, so the split value must be larger than the smallest value
+        float split = column[column.length / 2];
+        if (split == column[0]) {
+            int i = column.length / 2;
+            while (column[i] == split) {
+                i++;
+            }
+            split = column[i];
+        }
+        int left = newLeaf(), right = newLeaf();
+        splitAttribute[leaf] = attribute;
+        splitValue[leaf] = split;
+        leftChild[leaf] = left;
+        rightChild[leaf] = right;
+        leafRows[leaf] = null;
+        leafSize[leaf] = 0;
+        for (int row : rows) {
+            int child = values[row * dimensions + attribute] < split ? left : right;
+            for (int i = 0; i < dimensions; i++) {
+                float value = values[row * dimensions + i];
+                boxMin[child * dimensions + i] = Math.min(boxMin[child * dimensions + i], value);
+                boxMax[child * dimensions + i] = Math.max(boxMax[child * dimensions + i], value);
+            }
+            addToLeaf(child, row);
+        }
+    }
+
+    /**
+     * @return a new empty leaf with an empty box
+     */
+    private int newLeaf() {
+        int dimensions = dataSet.realAttributeCount;
+        if (nodeCount == leftChild.length) {
+            int capacity = 2 * nodeCount;
+            splitAttribute = Arrays.copyOf(splitAttribute, capacity);
+            leftChild = Arrays.copyOf(leftChild, capacity);
+            rightChild = Arrays.copyOf(rightChild, capacity);
+            leafSize = Arrays.copyOf(leafSize, capacity);
+            unsplitSize = Arrays.copyOf(unsplitSize, capacity);
+            splitValue = Arrays.copyOf(splitValue, capacity);
+            boxMin = Arrays.copyOf(boxMin, capacity * dimensions);
+            boxMax = Arrays.copyOf(boxMax, capacity * dimensions);
+            leafRows = Arrays.copyOf(leafRows, capacity);
+        }
+        int node = nodeCount++;
+        leftChild[node] = -1;
+        rightChild[node] = -1;
+        leafRows[node] = new int[MAX_LEAF_SIZE];
+        leafSize[node] = 0;
+        unsplitSize[node] = 0;
+        Arrays.fill(boxMin, node * dimensions, (node + 1) * dimensions, Float.POSITIVE_INFINITY);
+        Arrays.fill(boxMax, node * dimensions, (node + 1) * dimensions, Float.NEGATIVE_INFINITY);
+        return node;
+    }
+
+    /**
+     * The smallest or largest value over a sliding window, kept in a monotonic deque: the values that
+     * may still become the extreme once older values are forgotten, in the order they were added.
+     * Every value is added and removed at most once, so both operations take constant amortized time
+     */
+    private static class SlidingExtreme {
+
+        private final boolean largest;
+
+        /**
+         * Ring buffer of the values and the sequence numbers of the points they belong to
+         */
+        private float[] values = new float[16];
+        private long[] sequences = new long[16];
+        private int head, size;
+
+        /**
+         * @param largest true to keep the largest value, false to keep the smallest
+         */
+        SlidingExtreme(boolean largest) {
+            this.largest = largest;
+        }
+
+        void add(long sequence, float value) {
+            // values that are no more extreme than the new one will be forgotten before it, so can never be the extreme
+            while (size > 0) {
+                float last = values[(head + size - 1) & (values.length - 1)];
+                if (largest ? last > value : last < value) {
+                    break;
+                }
+                size--;
+            }
+            if (size == values.length) {
+                float[] newValues = new float[2 * values.length];
+                long[] newSequences = new long[2 * values.length];
+                for (int i = 0; i < size; i++) {
+                    newValues[i] = values[(head + i) & (values.length - 1)];
+                    newSequences[i] = sequences[(head + i) & (values.length - 1)];
+                }
+                values = newValues;
+                sequences = newSequences;
+                head = 0;
+            }
+            values[(head + size) & (values.length - 1)] = value;
+            sequences[(head + size) & (values.length - 1)] = sequence;
+            size++;
+        }
+
+        /**
+         * Forgets the value of the point with the given sequence number, which must be the oldest point
+         */
+        void expire(long sequence) {
+            if (size > 0 && sequences[head] == sequence) {
+                head = (head + 1) & (values.length - 1);
+                size--;
+            }
+        }
+
+        /**
+         * @return the extreme value in the window
+         */
+        float get() {
+            return values[head];
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package algorithm;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Emits every measurement as a Java Flight Recorder event, so the stages of the algorithm show up
+ * in a recording next to the JVM's own events (GC pauses, allocations, lock contention).
+ * Start a recording with -XX:StartFlightRecording and look for the nearestneighbors.Metric events.
+ * When no recording is running the events are dropped right away, so this costs next to nothing.
+ */
+public class JfrMetrics implements Metrics {
+
+    @Name("nearestneighbors.Metric")
+    @Label("Nearest Neighbors Metric")
+    @Category("Nearest Neighbors")
+    @Description("A measurement of a stage of the k-NearestNeighbor algorithm")
+    @StackTrace(false)
+    static class MetricEvent extends Event {
+
+        @Label("Name")
+        String name;
+
+        @Label("Value")
+        @Description("The value recorded, or the amount added to a counter")
+        long value;
+
+        @Label("Counter")
+        @Description("If the value is added to a counter rather than recorded in a distribution")
+        boolean counter;
+    }
+
+    @Override
+    public void count(String name, long amount) {
+        emit(name, amount, true);
+    }
+
+    @Override
+    public void record(String name, long value) {
+        emit(name, value, false);
+    }
+
+    private static void emit(String name, long value, boolean counter) {
+        MetricEvent event = new MetricEvent();
+        if (event.shouldCommit()) {
+            event.name = name;
+            event.value = value;
+            event.counter = counter;
+            event.commit();
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package algorithm;
+
+import distanceFunctions.CategoricalValueDistanceFunction;
+import distanceFunctions.MinkowskiDistance;
+
+import java.util.Arrays;
+
+/**
+ * k-d tree over the real values of the rows.
+ * Every node keeps the bounding box of its rows, and the distance from the query to the
+ * box is used as the lower bound. The per-attribute gaps between the query and the box are
+ * never larger than the differences between the query and a row inside the box, and the gaps
+ * are summed with the same distance function, so the bound is exact even with rounding.
+ */
+public class KDTree extends SpatialTree {
+
+    /**
+     * The smallest and largest value of every attribute among the rows of each node.
+     * Node i occupies the indices [i*dimensions, (i+1)*dimensions)
+     */
+    private float[] boxMin, boxMax;
+
+    /**
+     * All zeros, the point the gaps are measured from
+     */
+    private final float[] origin;
+
+    /**
+     * @param dataSet the data set the rows belong to
+     * @param rows the rows to index
+     * @param realValDist distance function to use for real value attributes
+     * @param catValDist distance function to use for categorical value attributes
+     */
+    public KDTree(DataSet dataSet, int[] rows, MinkowskiDistance realValDist, CategoricalValueDistanceFunction catValDist) {
+        super(dataSet, rows, realValDist, catValDist);
+        boxMin = new float[0];
+        boxMax = new float[0];
+        origin = new float[dimensions];
+        build();
+    }
+
+    @Override
+    void summarize(int node, int[] rows, int start, int end) {
+        if ((node + 1) * dimensions > boxMin.length) {
+            int capacity = Math.max(2 * boxMin.length, (node + 1) * dimensions);
+            boxMin = Arrays.copyOf(boxMin, capacity);
+            boxMax = Arrays.copyOf(boxMax, capacity);
+        }
+        float[] realValues = dataSet.realValues();
+        for (int attribute = 0; attribute < dimensions; attribute++) {
+            float min = Float.POSITIVE_INFINITY, max = Float.NEGATIVE_INFINITY;
+            for (int i = start; i < end; i++) {
+                float value = realValues[rows[i] * dimensions + attribute];
+                min = Math.min(min, value);
+                max = Math.max(max, value);
+            }
+            boxMin[node * dimensions + attribute] = min;
+            boxMax[node * dimensions + attribute] = max;
+        }
+    }
+
+    @Override
+    double lowerBound(int node, DataPoint query, float[] gaps) {
+        float[] queryValues = query.dataSet.realValues();
+        int queryOffset = query.realValuesOffset();
+        for (int attribute = 0; attribute < dimensions; attribute++) {
+            float value = queryValues[queryOffset + attribute];
+            float min = boxMin[node * dimensions + attribute], max = boxMax[node * dimensions + attribute];
+            if (value < min) {
+                gaps[attribute] = min - value;
+            } else if (value > max) {
+                gaps[attribute] = value - max;
+            } else {
+                gaps[attribute] = 0;
+            }
+        }
+        return realValDist.distance(gaps, 0, origin, 0, dimensions);
+    }
+}
@@ -0,0 +1,248 @@
+package algorithm;
+
+import distanceFunctions.CategoricalValueDistanceFunction;
+import distanceFunctions.HammingDistance;
+import distanceFunctions.MinkowskiDistance;
+import distanceFunctions.RealValueDistanceFunction;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Approximate neighbor index using locality sensitive hashing.
+ * The rows are put into buckets by several independent hash tables. Each table hashes a row by
+ * random projections of its real values, cut into slots of a fixed width, so rows that are close
+ * together are likely to share a bucket. When the categorical values are compared with the Hamming
+ * distance, each table also hashes the values of a few randomly chosen categorical attributes,
+ * so rows that differ in fewer categorical values are likely to share a bucket too.
+ *
+ * A search only computes the distances to the rows that share a bucket with the query in at least
+ * one table, so it may miss some of the nearest neighbors. More tables find more of them, more
+ * hashes per table make the buckets smaller and the search faster. If fewer than k rows share a
+ * bucket with the query, every row is scanned, so the heap always ends up full.
+ *
+ * To use it, pass new LSHIndex.Parameters(), or parameters of your own, wherever a NeighborIndexType
+ * is taken. NearestNeighbors.recallReport prints how many of the exact nearest neighbors it finds.
+ */
+public class LSHIndex implements NeighborIndex {
+
+    /**
+     * Parameters of the index, which build one index per training set
+     */
+    public static class Parameters implements NeighborIndexBuilder {
+
+        final int tables, hashesPerTable, categoricalHashesPerTable;
+        final double bucketWidth;
+        final long seed;
+
+        /**
+         * @param tables how many hash tables to build. More tables find more of the nearest neighbors
+         * @param hashesPerTable how many random projections of the real values each table hashes.
+         *                       More hashes give smaller buckets, which are faster to search
+         * @param categoricalHashesPerTable how many categorical values each table hashes, if they're
+         *                                  compared with the Hamming distance
+         * @param bucketWidth the width of the slots of the projections, as a fraction of the median distance
+         *                    between two random rows. Wider slots give larger buckets
+         * @param seed the seed of the random projections
+         */
+        public Parameters(int tables, int hashesPerTable, int categoricalHashesPerTable, double bucketWidth, long seed) {
+            if (tables < 1 || hashesPerTable < 0 || categoricalHashesPerTable < 0 || !(bucketWidth > 0)) {
+                throw new IllegalArgumentException("Invalid LSH parameters");
+            }
+            this.tables = tables;
+            this.hashesPerTable = hashesPerTable;
+            this.categoricalHashesPerTable = categoricalHashesPerTable;
+            this.bucketWidth = bucketWidth;
+            this.seed = seed;
+        }
+
+        /**
+         * Default parameters, which find most of the nearest neighbors on data sets like the ones in the README
+         */
+        public Parameters() {
+            this(10, 6, 1, 0.5, 4);
+        }
+
+        @Override
+        public NeighborIndex build(DataSet dataSet, int[] rows, RealValueDistanceFunction realValDist, CategoricalValueDistanceFunction catValDist) {
+            return new LSHIndex(dataSet, rows, realValDist, catValDist, this);
+        }
+
+        @Override
+        public String toString() {
+            return "LSH (" + tables + " tables, " + hashesPerTable + " + " + categoricalHashesPerTable + " hashes per table, bucket width " + bucketWidth + ")";
+        }
+    }
+
+    /**
+     * How many random pairs of rows the median distance is estimated from
+     */
+    private static final int DISTANCE_SAMPLE_SIZE = 256;
+
+    private final DataSet dataSet;
+    private final int[] rows;
+    private final RealValueDistanceFunction realValDist;
+    private final CategoricalValueDistanceFunction catValDist;
+
+    private final int tables, hashesPerTable, categoricalHashesPerTable;
+
+    /**
+     * The projection vectors and offsets of every hash. Hash h of table t is at index
+     * t * hashesPerTable + h, its vector occupies [index * dimensions, (index+1) * dimensions)
+     */
+    private final float[] projections;
+    private final double[] offsets;
+    private final double bucketWidth;
+
+    /**
+     * The categorical attributes hashed by every table, at t * categoricalHashesPerTable + h
+     */
+    private final int[] hashedCategoricalAttributes;
+
+    /**
+     * For each table, one entry per row in ascending order. The high bits of an entry are the key of
+     * the row's bucket, the low bits (positionMask) are the position of the row in rows. Dropping the
+     * low bits of the keys makes unrelated buckets collide once in a while, which only costs a few
+     * extra distances
+     */
+    private final long[][] bucketEntries;
+    private final long positionMask;
+
+    /**
+     * @param dataSet the data set the rows belong to
+     * @param rows the rows to index
+     * @param realValDist distance function to use for real value attributes
+     * @param catValDist distance function to use for categorical value attributes
+     * @param parameters the parameters of the index
+     */
+    public LSHIndex(DataSet dataSet, int[] rows, RealValueDistanceFunction realValDist, CategoricalValueDistanceFunction catValDist, Parameters parameters) {
+        this.dataSet = dataSet;
+        this.rows = rows;
+        this.realValDist = realValDist;
+        this.catValDist = catValDist;
+        this.tables = parameters.tables;
+        int dimensions = dataSet.realAttributeCount;
+        this.hashesPerTable = dimensions == 0 ? 0 : parameters.hashesPerTable;
+        this.categoricalHashesPerTable = catValDist instanceof HammingDistance && dataSet.categoricalAttributeCount > 0 ? parameters.categoricalHashesPerTable : 0;
+        Random random = new Random(parameters.seed);
+
+        // p-stable projections: Cauchy for the Manhattan distance, Gaussian for everything else
+        boolean manhattan = realValDist instanceof MinkowskiDistance && ((MinkowskiDistance) realValDist).getP() == 1;
+        projections = new float[tables * hashesPerTable * dimensions];
+        for (int i = 0; i < projections.length; i++) {
+            projections[i] = (float) (manhattan ? Math.tan(Math.PI * (random.nextDouble() - 0.5)) : random.nextGaussian());
+        }
+        bucketWidth = Math.max(parameters.bucketWidth * medianDistance(random), Double.MIN_NORMAL);
+        offsets = new double[tables * hashesPerTable];
+        for (int i = 0; i < offsets.length; i++) {
+            offsets[i] = random.nextDouble() * bucketWidth;
+        }
+        hashedCategoricalAttributes = new int[tables * categoricalHashesPerTable];
+        for (int i = 0; i < hashedCategoricalAttributes.length; i++) {
+            hashedCategoricalAttributes[i] = random.nextInt(dataSet.categoricalAttributeCount);
+        }
+
+        positionMask = (1L << (64 - Long.numberOfLeadingZeros(Math.max(rows.length - 1, 1)))) - 1;
+        bucketEntries = new long[tables][rows.length];
+        for (int table = 0; table < tables; table++) {
+            for (int i = 0; i < rows.length; i++) {
+                bucketEntries[table][i] = (key(table, dataSet.get(rows[i])) & ~positionMask) | i;
+            }
+            Arrays.sort(bucketEntries[table]);
+        }
+    }
+
+    /**
+     * Estimates the median real value distance between two rows from a random sample of pairs
+     */
+    private double medianDistance(Random random) {
+        if (rows.length < 2 || dataSet.realAttributeCount == 0) {
+            return 1;
+        }
+        double[] distances = new double[DISTANCE_SAMPLE_SIZE];
+        for (int i = 0; i < distances.length; i++) {
+            distances[i] = realValDist.distance(dataSet, rows[random.nextInt(rows.length)], dataSet, rows[random.nextInt(rows.length)]);
+        }
+        Arrays.sort(distances);
+        return distances[distances.length / 2];
+    }
+
+    /**
+     * Returns the key of the bucket the data point falls in, in the given table
+     */
+    private long key(int table, DataPoint dataPoint) {
+        int dimensions = dataSet.realAttributeCount;
+        float[] values = dataPoint.dataSet.realValues();
+        int offset = dataPoint.realValuesOffset();
+        long key = table;
+        for (int h = table * hashesPerTable; h < (table + 1) * hashesPerTable; h++) {
+            double projection = offsets[h];
+            for (int i = 0; i < dimensions; i++) {
+                projection += (double) projections[h * dimensions + i] * values[offset + i];
+            }
+            key = mix(key, (long) Math.floor(projection / bucketWidth));
+        }
+        int[] categoricalValues = dataPoint.dataSet.categoricalValues();
+        int categoricalOffset = dataPoint.categoricalValuesOffset();
+        for (int h = table * categoricalHashesPerTable; h < (table + 1) * categoricalHashesPerTable; h++) {
+            key = mix(key, categoricalValues[categoricalOffset + hashedCategoricalAttributes[h]]);
+        }
+        return key;
+    }
+
+    private static long mix(long key, long value) {
+        long mixed = (key ^ value) * 0x9E3779B97F4A7C15L;
+        return mixed ^ (mixed >>> 29);
+    }
+
+    /**
+     * @return the index of the first entry that is at least the given key
+     */
+    private static int firstEntry(long[] entries, long key) {
+        int low = 0, high = entries.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (entries[middle] < key) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    @Override
+    public void search(DataPoint query, NeighborHeap nearestNeighbors) {
+        // collect the rows that share a bucket with the query in any table
+        int[] candidates = new int[16];
+        int candidateCount = 0;
+        for (int table = 0; table < tables; table++) {
+            long key = key(table, query) & ~positionMask;
+            long[] entries = bucketEntries[table];
+            for (int i = firstEntry(entries, key); i < entries.length && (entries[i] & ~positionMask) == key; i++) {
+                if (candidateCount == candidates.length) {
+                    candidates = Arrays.copyOf(candidates, 2 * candidates.length);
+                }
+                candidates[candidateCount++] = rows[(int) (entries[i] & positionMask)];
+            }
+        }
+        Arrays.sort(candidates, 0, candidateCount);
+        int distinct = 0;
+        for (int i = 0; i < candidateCount; i++) {
+            if (i == 0 || candidates[i] != candidates[i - 1]) {
+                candidates[distinct++] = candidates[i];
+            }
+        }
+        if (distinct < nearestNeighbors.capacity()) {
+            candidates = rows;
+            distinct = rows.length;
+        }
+        nearestNeighbors.countDistances(distinct);
+        for (int i = 0; i < distinct; i++) {
+            double distance = realValDist.distance(dataSet, candidates[i], query.dataSet, query.index, nearestNeighbors.worstDistance());
+            if (distance <= nearestNeighbors.worstDistance()) {
+                nearestNeighbors.offer(distance + catValDist.distance(dataSet, candidates[i], query.dataSet, query.index), candidates[i]);
+            }
+        }
+    }
+}
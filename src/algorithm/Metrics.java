@@ -0,0 +1,85 @@
+package algorithm;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Receives measurements of the stages of the algorithm: loading, normalizing, building the indexes,
+ * searching, caching and voting. A measurement is either added to a counter, or recorded as one value of a
+ * distribution, such as the time one query took. Times are in nanoseconds.
+ * Measurements may be made from several threads at once, so implementations must be thread safe.
+ *
+ * To measure a run, pass an InMemoryMetrics or a JfrMetrics instead of Metrics.NONE to NearestNeighbors.fromFile
+ * or NearestNeighborsModel.fit.
+ */
+public interface Metrics {
+
+    /**
+     * Names of the measurements.
+     * The load measurements cover reading a data set from a file, the allocated bytes are the ones
+     * allocated by the thread doing the stage. A query's time and allocation are only recorded when it's
+     * searched for on its own. An index that searches a block of queries as a whole, such as the brute
+     * force one, can't tell its queries apart, so the block's time and allocation are recorded once, under
+     * the block measurements, while every query still gets its own count of distances
+     */
+    String LOAD_TIME = "load.time";
+    String LOAD_ROWS = "load.rows";
+    String LOAD_ROWS_PER_SECOND = "load.rowsPerSecond";
+    String LOAD_ALLOCATED_BYTES = "load.allocatedBytes";
+    String NORMALIZATION_TIME = "normalization.time";
+    String INDEX_BUILD_TIME = "index.buildTime";
+    String INDEX_ALLOCATED_BYTES = "index.allocatedBytes";
+    String QUERIES = "query.count";
+    String QUERY_TIME = "query.time";
+    String QUERY_DISTANCES = "query.distances";
+    String QUERY_ALLOCATED_BYTES = "query.allocatedBytes";
+    String BLOCK_TIME = "block.time";
+    String BLOCK_ALLOCATED_BYTES = "block.allocatedBytes";
+    String VOTE_TIME = "vote.time";
+    String CACHE_HITS = "cache.hits";
+    String CACHE_MISSES = "cache.misses";
+
+    /**
+     * Ignores every measurement
+     */
+    Metrics NONE = new Metrics() {
+        @Override
+        public void count(String name, long amount) {
+        }
+
+        @Override
+        public void record(String name, long value) {
+        }
+
+        @Override
+        public long allocatedBytes() {
+            return 0;
+        }
+    };
+
+    /**
+     * Adds to a counter
+     * @param name the name of the counter
+     * @param amount how much to add
+     */
+    void count(String name, long amount);
+
+    /**
+     * Records one value of a distribution
+     * @param name the name of the distribution
+     * @param value the value
+     */
+    void record(String name, long value);
+
+    /**
+     * Returns how many bytes the current thread has allocated so far, so that the difference between
+     * two calls is what the thread allocated in between. Returns 0 if the JVM can't measure it
+     */
+    default long allocatedBytes() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean && ((com.sun.management.ThreadMXBean) threads).isThreadAllocatedMemoryEnabled()) {
+            return ((com.sun.management.ThreadMXBean) threads).getCurrentThreadAllocatedBytes();
+        }
+        return 0;
+    }
+}
@@ -2,10 +2,14 @@ package algorithm;
 
 import distanceFunctions.*;
 
-import java.io.FileNotFoundException;
-import java.io.FileReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
 import java.util.*;
-import java.util.regex.Pattern;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.IntConsumer;
+import java.util.function.ObjIntConsumer;
+import java.util.stream.IntStream;
 
 /**
  * Implementation of a k-NearestNeighbor algorithm
@@ -13,11 +17,18 @@ import java.util.regex.Pattern;
 public class NearestNeighbors {
 
     /**
-     * An ArrayList containing ArrayLists containing DataPoints. Each ArrayList<DataPoint> is a
-     * fold used in cross-validation. With 10-fold cross validation, the
-     * size of folds would be 10
+     * All the data points, stored fold after fold. Fold i consists of the rows
+     * [foldStarts[i], foldStarts[i+1]), so the training set of fold i is every row
+     * before and after that range, and can be scanned in place without copying.
+     * With 10-fold cross validation, the length of foldStarts would be 11
      */
-    private final ArrayList<ArrayList<DataPoint>> folds;
+    private final DataSet dataSet;
+    private final int[] foldStarts;
+
+    /**
+     * For each fold, a model fitted on its training set (every row outside the fold)
+     */
+    private final NearestNeighborsModel[] trainingSetModels;
 
     /**
      * A list of all the possible values for the target variable when we are classifying
@@ -51,17 +62,43 @@ public class NearestNeighbors {
     private final ArrayList<String> ignoredAttributes;
 
     /**
-     * Initializes the algorithm with the given values. Loads the data, normalizes the
-     * data, randomizes the order and divides the data into folds for cross-validation
+     * Builds the index of each fold's training set
+     */
+    private final NeighborIndexBuilder indexType;
+
+    /**
+     * The normalization that was applied to the data
+     */
+    private final Normalization normalization;
+
+    /**
+     * The pool that folds and query points are evaluated in, or null to evaluate
+     * them one at a time on the calling thread
+     */
+    private final ForkJoinPool pool;
+
+    /**
+     * Receives measurements of building the indexes, and of every search and vote of the cross-validation
+     */
+    private final Metrics metrics;
+
+    /**
+     * Initializes the algorithm with the given values and data. Randomizes the order and divides
+     * the data into folds for cross-validation
      * @param k how many neighbors to consider
      * @param crossValidationFolds how many folds to use for cross-validation
      * @param targetAttributeName the name of the target attribute
-     * @param ignoredAttributes list of the names of attributes we're ignoring
+     * @param ignoredAttributes list of the names of attributes that were ignored when loading the data
      * @param filename filename of the data set we're using
+     * @param loadedDataSet the data, already normalized
+     * @param normalization the normalization that was applied to the data
      * @param realValDist distance function to use for real value attributes
      * @param catValDist distance function to use for categorical value attributes
+     * @param indexType which kind of index to search the training sets with, a NeighborIndexType or the parameters of an approximate index
+     * @param pool pool to evaluate folds and query points in parallel, or null to evaluate them sequentially
+     * @param metrics receives measurements of building the indexes and of every search and vote, or Metrics.NONE
      */
-    private NearestNeighbors(int k, int crossValidationFolds, boolean useDistanceWeighting, String targetAttributeName, ArrayList<String> ignoredAttributes, String filename, RealValueDistanceFunction realValDist, CategoricalValueDistanceFunction catValDist) {
+    NearestNeighbors(int k, int crossValidationFolds, boolean useDistanceWeighting, String targetAttributeName, ArrayList<String> ignoredAttributes, String filename, DataSet loadedDataSet, Normalization normalization, RealValueDistanceFunction realValDist, CategoricalValueDistanceFunction catValDist, NeighborIndexBuilder indexType, ForkJoinPool pool, Metrics metrics) {
         // Initialize fields
         this.k = k;
         this.crossValidationFolds = crossValidationFolds;
@@ -71,190 +108,224 @@ public class NearestNeighbors {
         this.ignoredAttributes = ignoredAttributes;
         this.realValDist = realValDist;
         this.catValDist = catValDist;
-        folds = new ArrayList<>();
-        for (int i = 0; i < crossValidationFolds; i++) {
-            folds.add(new ArrayList<>());
+        this.indexType = indexType;
+        this.normalization = normalization;
+        this.pool = pool;
+        this.metrics = metrics;
+        foldStarts = new int[crossValidationFolds + 1];
+        // if the target attribute is categorical, keep track of its possible values
+        if (loadedDataSet.targetAttribute != null && !loadedDataSet.targetAttribute.isReal) {
+            classificationTargetAttributeValues = loadedDataSet.targetAttribute.getDeclaredValues();
         }
-        // Load data
-        int targetAttributeIndex = -1;
-        ArrayList<DataPoint> dataPoints = new ArrayList<>();
-        ArrayList<String> attributeTypes = new ArrayList<>();
-        try {
-            Scanner in = new Scanner(new FileReader(filename));
-            ArrayList<Integer> skippedAttributesIndexes = new ArrayList<>();
-            int currentAttributeIndex = 0;
-            // skip all the comments in the beginning of the file
-            while (!in.nextLine().startsWith("@relation")) {
-                // do nothing
-            }
-            // when we get to the attributes, record the sequence of
-            // real-valued and categorical attributes.
-            // if the attribute in question is to be omitted,
-            // don't record it.
-            // if the attribute in question is the target attribute,
-            // keep track of its index and the possible attribute values.
-            while (in.hasNext(Pattern.compile("@attribute"))) {
-                String line = in.nextLine();
-                String attributeName = line.split(" ")[1];
-                if (ignoredAttributes.contains(attributeName)) {
-                    skippedAttributesIndexes.add(currentAttributeIndex);
-                }
-                if (line.split(" ")[2].equals("real")) {
-                    if (attributeName.equals(targetAttributeName)) {
-                        targetAttributeIndex = currentAttributeIndex;
-                    }
-                    attributeTypes.add("real");
-                } else {
-                    attributeTypes.add("categorical");
-                    if (attributeName.equals(targetAttributeName)) {
-                        targetAttributeIndex = currentAttributeIndex;
-                        classificationTargetAttributeValues = line.split("\\{")[1].substring(0, line.split("\\{")[1].length() - 1).split(", ");
-                    }
-                }
-                currentAttributeIndex++;
-
-            }
-            // skip everything between the attributes and the data
-            while (!in.nextLine().startsWith("@data")) {
-                // do nothing
-            }
-            // When we get to the data, create a DataPoint-object for each row
-            while (!in.hasNext(Pattern.compile("%"))) {
-                String line = in.nextLine();
-                String[] attributeList = line.split(",");
-                ArrayList<Float> attributeListReal = new ArrayList<>();
-                ArrayList<String> attributeListCategorical = new ArrayList<>();
-                String targetAttribute = "";
-                for (int i = 0; i < attributeList.length; i++) {
-                    if (skippedAttributesIndexes.contains(i)) {
-                        continue;
-                    }
-                    if (i == targetAttributeIndex) {
-                        targetAttribute = attributeList[i];
-                    } else if (attributeTypes.get(i).equals("real")) {
-                        attributeListReal.add(Float.parseFloat(attributeList[i]));
-                    } else {
-                        attributeListCategorical.add(attributeList[i]);
-                    }
-                }
-                dataPoints.add(new DataPoint(attributeListReal, attributeListCategorical, targetAttribute));
-            }
-            in.close();
-        } catch (FileNotFoundException e) {
-            e.printStackTrace();
+        // Randomize instance order and divide into folds.
+        // The rows are dealt out to the folds in turn, and then stored fold after fold
+        ArrayList<Integer> shuffledRows = new ArrayList<>(loadedDataSet.size());
+        for (int row = 0; row < loadedDataSet.size(); row++) {
+            shuffledRows.add(row);
         }
-        // Normalize numerical values
-        for (int i = 0; i < dataPoints.get(0).realValues.length; i++) {
-            float min = Float.MAX_VALUE, max = Float.MIN_VALUE;
-            for (DataPoint dataPoint : dataPoints) {
-                if (dataPoint.realValues[i] < min) {
-                    min = dataPoint.realValues[i];
-                } else if (dataPoint.realValues[i] > max) {
-                    max = dataPoint.realValues[i];
-                }
-            }
-            for (DataPoint dataPoint : dataPoints) {
-                dataPoint.realValues[i] = (dataPoint.realValues[i] - min) / (max - min);
+        Collections.shuffle(shuffledRows, new Random(4));
+        int[] foldOrder = new int[shuffledRows.size()];
+        int nextRow = 0;
+        for (int i = 0; i < crossValidationFolds; i++) {
+            foldStarts[i] = nextRow;
+            for (int j = i; j < shuffledRows.size(); j += crossValidationFolds) {
+                foldOrder[nextRow++] = shuffledRows.get(j);
             }
         }
-        // Randomize instance order and divide into folds
-        Collections.shuffle(dataPoints, new Random(4));
-        int nextFoldIndex = 0;
-        while (!dataPoints.isEmpty()) {
-            folds.get(nextFoldIndex).add(dataPoints.remove(0));
-            nextFoldIndex = nextFoldIndex == crossValidationFolds - 1 ? 0 : nextFoldIndex+1;
-        }
+        foldStarts[crossValidationFolds] = nextRow;
+        dataSet = new DataSet(loadedDataSet, foldOrder);
+        // Fit a model to the training set of each fold
+        trainingSetModels = new NearestNeighborsModel[crossValidationFolds];
+        forEach(crossValidationFolds, i ->
+            trainingSetModels[i] = new NearestNeighborsModel(dataSet, trainingRows(i), normalization, k, useDistanceWeighting, realValDist, catValDist, indexType, metrics));
     }
 
     /**
-     * Returns the k nearest neighbors to the given data point
-     * @param dp1 the given data point
-     * @param validationSetIndex the index of the validation set (which will be skipped)
-     * @return the k nearest neighbors to the given data point
+     * Looks up the neighbors of every data point in a cache before searching for them from now on, so evaluating
+     * the same folds again, for example with another success measure or a sweep, reuses the searches.
+     * Every fold's model caches its searches separately
+     * @param cache the cache, which may be shared with other instances
      */
-    private ArrayList<DataPoint> getNearestNeighbors(DataPoint dp1, int validationSetIndex) {
-        ArrayList<DataPoint> nearestNeighbors = new ArrayList<>();
-        ArrayList<DataPoint> trainingSet = new ArrayList<>();
+    void useCache(NeighborCache cache) {
         for (int i = 0; i < crossValidationFolds; i++) {
-            if (i == validationSetIndex) {
-                continue;
+            trainingSetModels[i] = trainingSetModels[i].withCache(cache);
+        }
+    }
+
+    /**
+     * @return the rows of the training set of the given fold, which is every row outside the fold
+     */
+    private int[] trainingRows(int fold) {
+        int[] trainingRows = new int[dataSet.size() - (foldStarts[fold + 1] - foldStarts[fold])];
+        int nextTrainingRow = 0;
+        for (int row = 0; row < dataSet.size(); row++) {
+            if (row < foldStarts[fold] || row >= foldStarts[fold + 1]) {
+                trainingRows[nextTrainingRow++] = row;
             }
-            trainingSet.addAll(folds.get(i));
         }
-        for (DataPoint dataPoint : trainingSet) {
-            if (nearestNeighbors.isEmpty()) {
-                nearestNeighbors.add(dataPoint);
-            } else {
-                for (int j = 0; j < nearestNeighbors.size(); j++) {
-                    if (realValDist.distance(dataPoint, dp1) + catValDist.distance(dataPoint, dp1) < realValDist.distance(nearestNeighbors.get(j), dp1) + catValDist.distance(nearestNeighbors.get(j), dp1)) {
-                        nearestNeighbors.add(j, dataPoint);
-                        break;
+        return trainingRows;
+    }
+
+    /**
+     * Initializes the algorithm with the given values. Loads the data, normalizes the
+     * data, randomizes the order and divides the data into folds for cross-validation
+     * @param k how many neighbors to consider
+     * @param crossValidationFolds how many folds to use for cross-validation
+     * @param targetAttributeName the name of the target attribute, which a binary data set file must have stored as its target
+     * @param ignoredAttributes list of the names of attributes we're ignoring
+     * @param filename filename of the data set we're using
+     * @param realValDist distance function to use for real value attributes
+     * @param catValDist distance function to use for categorical value attributes
+     * @param indexType which kind of index to search the training sets with, a NeighborIndexType or the parameters of an approximate index
+     * @param pool pool to evaluate folds and query points in parallel, or null to evaluate them sequentially
+     * @param metrics receives measurements of every stage, or Metrics.NONE
+     * @throws UncheckedIOException if the file can't be read
+     */
+    static NearestNeighbors fromFile(int k, int crossValidationFolds, boolean useDistanceWeighting, String targetAttributeName, ArrayList<String> ignoredAttributes, String filename, RealValueDistanceFunction realValDist, CategoricalValueDistanceFunction catValDist, NeighborIndexBuilder indexType, ForkJoinPool pool, Metrics metrics) {
+        // Load data. Binary data set files are already normalized,
+        // ARFF files have their numerical values normalized after loading
+        DataSet loadedDataSet;
+        Normalization normalization;
+        long start = System.nanoTime();
+        long allocated = metrics.allocatedBytes();
+        try {
+            if (filename.endsWith(BinaryDataSetFile.EXTENSION)) {
+                try (BinaryDataSetFile in = new BinaryDataSetFile(filename)) {
+                    Attribute targetAttribute = in.getTargetAttribute();
+                    if (targetAttribute == null || !targetAttribute.name.equals(targetAttributeName)) {
+                        throw new IllegalArgumentException("The target attribute of " + filename + " is "
+                                + (targetAttribute == null ? "missing" : targetAttribute.name) + ", not " + targetAttributeName);
                     }
+                    loadedDataSet = in.read(ignoredAttributes);
+                    normalization = in.getNormalization(ignoredAttributes);
                 }
-                if (nearestNeighbors.size() < k && !nearestNeighbors.contains(dataPoint)) {
-                    nearestNeighbors.add(dataPoint);
-                }
-                if (nearestNeighbors.size() > k) {
-                    nearestNeighbors.remove(k);
+                recordLoad(metrics, loadedDataSet, start, allocated);
+            } else {
+                try (ArffReader in = new ArffReader(filename)) {
+                    loadedDataSet = in.readDataSet(targetAttributeName, ignoredAttributes);
                 }
+                recordLoad(metrics, loadedDataSet, start, allocated);
+                start = System.nanoTime();
+                normalization = Normalization.fit(loadedDataSet);
+                normalization.apply(loadedDataSet);
+                metrics.record(Metrics.NORMALIZATION_TIME, System.nanoTime() - start);
             }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not load " + filename, e);
         }
-        return nearestNeighbors;
+        return new NearestNeighbors(k, crossValidationFolds, useDistanceWeighting, targetAttributeName, ignoredAttributes, filename, loadedDataSet, normalization, realValDist, catValDist, indexType, pool, metrics);
     }
 
     /**
-     * Classifies a single data point
-     * @param dp1 the data point to be classified
-     * @param validationSetIndex the index of the validation set (which will be skipped when generating neighbors)
-     * @return the classification value of the data point
+     * Records the time it took to read a data set, how many rows it has and how many bytes reading it allocated
      */
-    private String classify(DataPoint dp1, int validationSetIndex) {
-        ArrayList<DataPoint> nearestNeighbors = getNearestNeighbors(dp1, validationSetIndex);
-        ArrayList<Double> attributeValueCounts = new ArrayList<>();
+    private static void recordLoad(Metrics metrics, DataSet dataSet, long startTime, long startAllocatedBytes) {
+        long time = System.nanoTime() - startTime;
+        metrics.record(Metrics.LOAD_TIME, time);
+        metrics.count(Metrics.LOAD_ROWS, dataSet.size());
+        metrics.record(Metrics.LOAD_ROWS_PER_SECOND, time == 0 ? 0 : dataSet.size() * 1000000000L / time);
+        metrics.record(Metrics.LOAD_ALLOCATED_BYTES, metrics.allocatedBytes() - startAllocatedBytes);
+    }
 
-        for (String ignored : classificationTargetAttributeValues) {
-            attributeValueCounts.add(0.0);
+    /**
+     * Runs the action for every index in [0, count), in the pool if there is one.
+     * The actions must be independent of each other, since they may run in any order
+     */
+    private void forEach(int count, IntConsumer action) {
+        if (pool == null) {
+            for (int i = 0; i < count; i++) {
+                action.accept(i);
+            }
+        } else {
+            pool.submit(() -> IntStream.range(0, count).parallel().forEach(action)).join();
         }
+    }
 
-        for (DataPoint dataPoint : nearestNeighbors) {
-            for (int i = 0; i < classificationTargetAttributeValues.length; i++) {
-                if (dataPoint.targetAttributeValue.equals(classificationTargetAttributeValues[i])) {
-                    if (useDistanceWeighting) {
-                        double distance = Math.pow(realValDist.distance(dataPoint, dp1) + catValDist.distance(dataPoint, dp1), 2);
-                        if (distance == 0) {
-                            distance = 1;
-                        }
-                        attributeValueCounts.set(i, attributeValueCounts.get(i) + 1.0/distance);
-                    } else {
-                        attributeValueCounts.set(i, attributeValueCounts.get(i) + 1);
-                    }
-                }
+    /**
+     * @return the index of the fold the given row belongs to
+     */
+    private int foldOf(int row) {
+        int fold = 0;
+        while (row >= foldStarts[fold + 1]) {
+            fold++;
+        }
+        return fold;
+    }
+
+    /**
+     * Finds the nearest neighbors of every row in its fold's training set and passes them to the action.
+     * The rows of each fold are searched for a block at a time, and the blocks are searched in the
+     * pool if there is one, so the action must be independent for different rows
+     * @param k how many neighbors to find
+     * @param action action which is given the nearest neighbors of a row, nearest first, and the row
+     */
+    private void forEachRowsNeighbors(int k, ObjIntConsumer<NeighborHeap> action) {
+        ArrayList<Integer> blockStarts = new ArrayList<>();
+        ArrayList<Integer> blockFolds = new ArrayList<>();
+        for (int i = 0; i < crossValidationFolds; i++) {
+            for (int row = foldStarts[i]; row < foldStarts[i + 1]; row += NearestNeighborsModel.QUERY_BLOCK_SIZE) {
+                blockStarts.add(row);
+                blockFolds.add(i);
             }
         }
-        return classificationTargetAttributeValues[attributeValueCounts.indexOf(Collections.max(attributeValueCounts))];
+        forEach(blockStarts.size(), block -> {
+            int fold = blockFolds.get(block);
+            int from = blockStarts.get(block);
+            int to = Math.min(from + NearestNeighborsModel.QUERY_BLOCK_SIZE, foldStarts[fold + 1]);
+            NeighborHeap[] nearestNeighbors = new NeighborHeap[to - from];
+            for (int i = 0; i < nearestNeighbors.length; i++) {
+                nearestNeighbors[i] = new NeighborHeap(k);
+            }
+            trainingSetModels[fold].searchBlock(dataSet, from, to, nearestNeighbors);
+            for (int row = from; row < to; row++) {
+                long voteStart = System.nanoTime();
+                action.accept(nearestNeighbors[row - from], row);
+                metrics.record(Metrics.VOTE_TIME, System.nanoTime() - voteStart);
+            }
+        });
     }
 
     /**
      * Performs a k-NearestNeighbor classification
-     * Prints out the results
+     * @return the fraction of data points that were classified correctly, averaged over the folds
      */
-    private void classification() {
+    float classificationSuccessRate() {
+        // classify every data point against its fold's training set, possibly in parallel,
+        // then add up the results in order so they don't depend on the scheduling
+        boolean[] correctlyClassified = new boolean[dataSet.size()];
+        forEachRowsNeighbors(k, (nearestNeighbors, row) ->
+            correctlyClassified[row] = trainingSetModels[foldOf(row)].classify(nearestNeighbors) == dataSet.getTargetClass(row));
+        return successRate(correctlyClassified);
+    }
+
+    /**
+     * @param correctlyClassified for each row, if it was classified correctly
+     * @return the fraction of rows that were classified correctly, averaged over the folds
+     */
+    private float successRate(boolean[] correctlyClassified) {
         ArrayList<Float> successRates = new ArrayList<>();
         for (int i = 0; i < crossValidationFolds; i++) {
             int correct = 0;
-            for (DataPoint dataPoint : folds.get(i)) {
-                if (classify(dataPoint, i).equals(dataPoint.targetAttributeValue)) {
+            for (int row = foldStarts[i]; row < foldStarts[i + 1]; row++) {
+                if (correctlyClassified[row]) {
                     correct++;
                 }
             }
-            successRates.add((float) correct / folds.get(i).size());
+            successRates.add((float) correct / (foldStarts[i + 1] - foldStarts[i]));
         }
         float averageSuccessRate = 0;
         for (Float f : successRates) {
             averageSuccessRate += f;
         }
-        averageSuccessRate = averageSuccessRate / crossValidationFolds;
+        return averageSuccessRate / crossValidationFolds;
+    }
 
+    /**
+     * Performs a k-NearestNeighbor classification
+     * Prints out the results
+     */
+    private void classification() {
+        float averageSuccessRate = classificationSuccessRate();
         System.out.println("Results for " + k + "-NearestNeighbor classification with " + crossValidationFolds + "-fold cross-validation for the data set " + filename + ":");
         System.out.println("Target attribute: " + targetAttributeName + " (Possible values: " + Arrays.toString(classificationTargetAttributeValues) + ")");
         System.out.println("Real value distance function: " + realValDist);
@@ -264,53 +335,44 @@ public class NearestNeighbors {
     }
 
     /**
-     * Predicts the value of a single data point
-     * @param dp1 the data point to predict the value for
-     * @param validationSetIndex the index of the validation set (which will be skipped when generating neighbors)
-     * @return the predicted value of the data point
+     * Performs a k-NearestNeighbor regression
+     * @return the mean absolute error of the predictions, averaged over the folds
      */
-    private double regress(DataPoint dp1, int validationSetIndex) {
-        ArrayList<DataPoint> nearestNeighbors = getNearestNeighbors(dp1, validationSetIndex);
-        float avgValue = 0;
-        double sumDistance = 0;
-        for (DataPoint dataPoint : nearestNeighbors) {
-            double distance = 1/Math.pow(realValDist.distance(dataPoint, dp1) + catValDist.distance(dataPoint, dp1), 2);
-            if (Double.isNaN(distance) || Double.isInfinite(distance)) {
-                distance = 1;
-            }
-            sumDistance += distance;
-            if (useDistanceWeighting) {
-                avgValue += Float.parseFloat(dataPoint.targetAttributeValue)*distance;
-            } else {
-                avgValue += Float.parseFloat(dataPoint.targetAttributeValue);
-            }
-        }
-        if (useDistanceWeighting) {
-            return avgValue / sumDistance;
-        } else {
-            return avgValue / nearestNeighbors.size();
-        }
+    float regressionMeanAbsoluteError() {
+        // predict every data point against its fold's training set, possibly in parallel,
+        // then add up the errors in order so the sums don't depend on the scheduling
+        double[] absoluteErrors = new double[dataSet.size()];
+        forEachRowsNeighbors(k, (nearestNeighbors, row) ->
+            absoluteErrors[row] = Math.abs(trainingSetModels[foldOf(row)].regress(nearestNeighbors) - dataSet.getTargetValue(row)));
+        return meanAbsoluteError(absoluteErrors);
     }
 
     /**
-     * Performs a k-NearestNeighbor regression
-     * Prints out the results
+     * @param absoluteErrors for each row, the absolute error of its prediction
+     * @return the mean absolute error of the predictions, averaged over the folds
      */
-    private void regression() {
+    private float meanAbsoluteError(double[] absoluteErrors) {
         ArrayList<Float> meanAbsoluteErrors = new ArrayList<>();
         for (int i = 0; i < crossValidationFolds; i++) {
             float absoluteError = 0;
-            for (DataPoint dataPoint : folds.get(i)) {
-                absoluteError += Math.abs(regress(dataPoint, i) - Float.parseFloat(dataPoint.targetAttributeValue));
+            for (int row = foldStarts[i]; row < foldStarts[i + 1]; row++) {
+                absoluteError += absoluteErrors[row];
             }
-            meanAbsoluteErrors.add(absoluteError / folds.get(i).size());
+            meanAbsoluteErrors.add(absoluteError / (foldStarts[i + 1] - foldStarts[i]));
         }
         float averageAbsError = 0;
         for (Float f : meanAbsoluteErrors) {
             averageAbsError += f;
         }
-        averageAbsError = averageAbsError / crossValidationFolds;
+        return averageAbsError / crossValidationFolds;
+    }
 
+    /**
+     * Performs a k-NearestNeighbor regression
+     * Prints out the results
+     */
+    private void regression() {
+        float averageAbsError = regressionMeanAbsoluteError();
         System.out.println("Results for " + k + "-NearestNeighbor regression with " + crossValidationFolds + "-fold cross-validation for the data set " + filename + ":");
         System.out.println("Target attribute: " + targetAttributeName);
         System.out.println("Real value distance function: " + realValDist);
@@ -319,18 +381,328 @@ public class NearestNeighbors {
         System.out.println("Attributes omitted: " + ignoredAttributes);
     }
 
+    /**
+     * Performs the cross-validation with the data split into shards held by workers, each of which
+     * searches its shard for every data point and leaves out the data point's fold. The workers search
+     * with the same kind of index as the folds' models, or by brute force if it's an approximate index
+     * @param workers the addresses of the workers, one per shard
+     * @return the fraction of data points that were classified correctly, or the mean absolute error
+     *         of the predictions when doing regression, averaged over the folds
+     */
+    float shardedScore(List<InetSocketAddress> workers) throws IOException {
+        NeighborIndexType workerIndexType = indexType instanceof NeighborIndexType ? (NeighborIndexType) indexType : NeighborIndexType.BRUTE_FORCE;
+        int[] folds = new int[dataSet.size()];
+        for (int row = 0; row < folds.length; row++) {
+            folds[row] = foldOf(row);
+        }
+        boolean[] correctlyClassified = new boolean[dataSet.size()];
+        double[] absoluteErrors = new double[dataSet.size()];
+        try (ShardedNearestNeighbors sharded = new ShardedNearestNeighbors(workers, dataSet, normalization, k, useDistanceWeighting, realValDist, catValDist, workerIndexType)) {
+            sharded.addRows(dataSet, folds);
+            sharded.build();
+            for (int i = 0; i < crossValidationFolds; i++) {
+                double[] predictions = sharded.predictBatch(dataSet, foldStarts[i], foldStarts[i + 1], i);
+                for (int row = foldStarts[i]; row < foldStarts[i + 1]; row++) {
+                    if (sharded.isClassification()) {
+                        correctlyClassified[row] = predictions[row - foldStarts[i]] == dataSet.getTargetClass(row);
+                    } else {
+                        absoluteErrors[row] = Math.abs(predictions[row - foldStarts[i]] - dataSet.getTargetValue(row));
+                    }
+                }
+            }
+        }
+        return classificationTargetAttributeValues != null ? successRate(correctlyClassified) : meanAbsoluteError(absoluteErrors);
+    }
+
+    /**
+     * Performs the cross-validation with the data split into shards held by workers
+     * Prints out the results
+     * @param workers the addresses of the workers, one per shard
+     */
+    private void shardedReport(List<InetSocketAddress> workers) throws IOException {
+        float score = shardedScore(workers);
+        boolean classification = classificationTargetAttributeValues != null;
+        System.out.println("Results for " + k + "-NearestNeighbor " + (classification ? "classification" : "regression") + " with " + crossValidationFolds + "-fold cross-validation over " + workers.size() + " shards for the data set " + filename + ":");
+        System.out.println("Target attribute: " + targetAttributeName);
+        System.out.println("Real value distance function: " + realValDist);
+        System.out.println("Categorical value distance function: " + catValDist);
+        if (classification) {
+            System.out.println("The target attribute was correctly classified " + 100*score + "% of the time");
+        } else {
+            System.out.println("The target attribute was predicted with a mean absolute error of " + score);
+        }
+        System.out.println("Attributes omitted: " + ignoredAttributes);
+    }
+
+    /**
+     * The cross-validated score of one combination of hyperparameters in a sweep
+     */
+    static class SweepResult {
+
+        /**
+         * k: How many neighbors were considered
+         * useDistanceWeighting: If the neighbors were distance weighted
+         * score: The success rate when classifying, the mean absolute error when doing regression
+         */
+        final int k;
+        final boolean useDistanceWeighting;
+        final float score;
+
+        SweepResult(int k, boolean useDistanceWeighting, float score) {
+            this.k = k;
+            this.useDistanceWeighting = useDistanceWeighting;
+            this.score = score;
+        }
+
+        @Override
+        public String toString() {
+            return "k = " + k + (useDistanceWeighting ? ", distance weighted" : "") + ": " + score;
+        }
+    }
+
+    /**
+     * Cross-validates every k from 1 to maxK, with and without distance weighting, on the data
+     * this instance has already loaded and divided into folds. The maxK nearest neighbors of every
+     * row are only searched for once, since the k nearest neighbors are the first k of them, and
+     * the combinations are then scored from those neighbors in the pool if there is one.
+     * Every score is the same as the one classificationSuccessRate or regressionMeanAbsoluteError
+     * would give with that k and weighting.
+     * @param maxK the largest k to try
+     * @return the score of every combination, by increasing k, each k without distance weighting first
+     */
+    List<SweepResult> sweep(int maxK) {
+        NeighborHeap[] allNearestNeighbors = new NeighborHeap[dataSet.size()];
+        forEachRowsNeighbors(maxK, (nearestNeighbors, row) -> allNearestNeighbors[row] = nearestNeighbors);
+        boolean classification = classificationTargetAttributeValues != null;
+        SweepResult[] results = new SweepResult[2 * maxK];
+        forEach(results.length, i -> {
+            int k = i / 2 + 1;
+            boolean useDistanceWeighting = i % 2 == 1;
+            NeighborHeap nearestNeighbors = new NeighborHeap(k);
+            if (classification) {
+                boolean[] correctlyClassified = new boolean[dataSet.size()];
+                for (int row = 0; row < correctlyClassified.length; row++) {
+                    nearestNeighbors.copyNearest(allNearestNeighbors[row], k);
+                    correctlyClassified[row] = NearestNeighborsModel.classify(nearestNeighbors, dataSet, classificationTargetAttributeValues.length, useDistanceWeighting) == dataSet.getTargetClass(row);
+                }
+                results[i] = new SweepResult(k, useDistanceWeighting, successRate(correctlyClassified));
+            } else {
+                double[] absoluteErrors = new double[dataSet.size()];
+                for (int row = 0; row < absoluteErrors.length; row++) {
+                    nearestNeighbors.copyNearest(allNearestNeighbors[row], k);
+                    absoluteErrors[row] = Math.abs(NearestNeighborsModel.regress(nearestNeighbors, dataSet, useDistanceWeighting) - dataSet.getTargetValue(row));
+                }
+                results[i] = new SweepResult(k, useDistanceWeighting, meanAbsoluteError(absoluteErrors));
+            }
+        });
+        return Arrays.asList(results);
+    }
+
+    /**
+     * Cross-validates every k from 1 to maxK, with and without distance weighting
+     * Prints out the results
+     */
+    private void sweepReport(int maxK) {
+        boolean classification = classificationTargetAttributeValues != null;
+        System.out.println("Results for 1 to " + maxK + "-NearestNeighbor " + (classification ? "classification" : "regression") + " with " + crossValidationFolds + "-fold cross-validation for the data set " + filename + ":");
+        System.out.println("Target attribute: " + targetAttributeName);
+        System.out.println("Real value distance function: " + realValDist);
+        System.out.println("Categorical value distance function: " + catValDist);
+        System.out.println((classification ? "Success rate" : "Mean absolute error") + " for each k:");
+        for (SweepResult result : sweep(maxK)) {
+            System.out.println(result);
+        }
+        System.out.println("Attributes omitted: " + ignoredAttributes);
+    }
+
+    /**
+     * The attributes chosen by a feature selection, and the cross-validated score with them
+     */
+    static class AttributeSelection {
+
+        /**
+         * ignoredAttributes: The names of the attributes that weren't chosen, including the ones that were ignored when loading the data
+         * score: The success rate when classifying, the mean absolute error when doing regression
+         */
+        final ArrayList<String> ignoredAttributes;
+        final float score;
+
+        AttributeSelection(ArrayList<String> ignoredAttributes, float score) {
+            this.ignoredAttributes = ignoredAttributes;
+            this.score = score;
+        }
+    }
+
+    /**
+     * Greedily chooses the attributes that give the best cross-validated results, with this instance's
+     * k, distance weighting and folds. Forward selection starts without any attributes and keeps adding
+     * the one that improves the results the most, as long as the results improve. Backward elimination
+     * starts with all of them and keeps taking out the one whose removal gives the best results, as long
+     * as the results don't get worse. The candidates of each step are scored in the pool if there is one.
+     *
+     * The distances between all pairs of rows are kept, so trying one attribute more or less doesn't
+     * recompute the distances over all the other attributes. Every score is the same as the one
+     * classificationSuccessRate or regressionMeanAbsoluteError would give after loading the data
+     * without the ignored attributes
+     * @param forward true for forward selection, false for backward elimination
+     * @return the attributes that were chosen, and the score with them
+     */
+    AttributeSelection selectAttributes(boolean forward) {
+        PairwiseDistances distances = new PairwiseDistances(dataSet, realValDist, catValDist);
+        if (!forward) {
+            for (int i = 0; i < distances.attributeCount(); i++) {
+                distances.toggle(i);
+            }
+        }
+        boolean classification = classificationTargetAttributeValues != null;
+        float score = score(distances, -1);
+        while (true) {
+            float[] candidateScores = new float[distances.attributeCount()];
+            forEach(candidateScores.length, i -> {
+                if (distances.isSelected(i) != forward) {
+                    candidateScores[i] = score(distances, i);
+                }
+            });
+            int best = -1;
+            for (int i = 0; i < candidateScores.length; i++) {
+                if (distances.isSelected(i) != forward && (best == -1 || (classification ? candidateScores[i] > candidateScores[best] : candidateScores[i] < candidateScores[best]))) {
+                    best = i;
+                }
+            }
+            if (best == -1) {
+                break;
+            }
+            distances.toggle(best);
+            // score the new attributes again from the exact distances, which may break a tie differently
+            float newScore = score(distances, -1);
+            boolean better = classification ? newScore > score : newScore < score;
+            if (!better && (forward || newScore != score)) {
+                distances.toggle(best);
+                break;
+            }
+            score = newScore;
+        }
+        ArrayList<String> ignoredAttributes = new ArrayList<>(this.ignoredAttributes);
+        for (int i = 0; i < dataSet.realAttributeCount; i++) {
+            if (!distances.isSelected(i)) {
+                ignoredAttributes.add(dataSet.getRealAttribute(i).name);
+            }
+        }
+        for (int i = dataSet.realAttributeCount; i < distances.attributeCount(); i++) {
+            if (!distances.isSelected(i)) {
+                ignoredAttributes.add(dataSet.getCategoricalAttribute(i - dataSet.realAttributeCount).name);
+            }
+        }
+        return new AttributeSelection(ignoredAttributes, score);
+    }
+
+    /**
+     * Cross-validates with the distances over the chosen attributes, with one attribute toggled
+     * @param distances the distances between all pairs of rows
+     * @param toggledAttribute the attribute to add or take out, or -1 to use the chosen attributes as they are
+     * @return the success rate when classifying, the mean absolute error when doing regression
+     */
+    private float score(PairwiseDistances distances, int toggledAttribute) {
+        boolean classification = classificationTargetAttributeValues != null;
+        boolean[] correctlyClassified = new boolean[dataSet.size()];
+        double[] absoluteErrors = new double[dataSet.size()];
+        NeighborHeap nearestNeighbors = new NeighborHeap(k);
+        for (int fold = 0; fold < crossValidationFolds; fold++) {
+            for (int row = foldStarts[fold]; row < foldStarts[fold + 1]; row++) {
+                nearestNeighbors.clear();
+                for (int trainingRow = 0; trainingRow < dataSet.size(); trainingRow++) {
+                    if (trainingRow < foldStarts[fold] || trainingRow >= foldStarts[fold + 1]) {
+                        nearestNeighbors.offer(distances.distance(trainingRow, row, toggledAttribute), trainingRow);
+                    }
+                }
+                nearestNeighbors.sort();
+                if (classification) {
+                    correctlyClassified[row] = NearestNeighborsModel.classify(nearestNeighbors, dataSet, classificationTargetAttributeValues.length, useDistanceWeighting) == dataSet.getTargetClass(row);
+                } else {
+                    absoluteErrors[row] = Math.abs(NearestNeighborsModel.regress(nearestNeighbors, dataSet, useDistanceWeighting) - dataSet.getTargetValue(row));
+                }
+            }
+        }
+        return classification ? successRate(correctlyClassified) : meanAbsoluteError(absoluteErrors);
+    }
+
+    /**
+     * Greedily chooses the attributes that give the best cross-validated results
+     * Prints out the results, with the attributes it omits, which can be used as the list of ignored attributes.
+     * Keeps the distances between all pairs of rows, so it's meant for data sets the size of the ones in main
+     */
+    private void selectionReport(boolean forward) {
+        AttributeSelection selection = selectAttributes(forward);
+        boolean classification = classificationTargetAttributeValues != null;
+        System.out.println("Results for " + (forward ? "forward selection" : "backward elimination") + " of the attributes with " + k + "-NearestNeighbor " + (classification ? "classification" : "regression") + " with " + crossValidationFolds + "-fold cross-validation for the data set " + filename + ":");
+        System.out.println("Target attribute: " + targetAttributeName);
+        System.out.println("Real value distance function: " + realValDist);
+        System.out.println("Categorical value distance function: " + catValDist);
+        if (classification) {
+            System.out.println("The target attribute was correctly classified " + 100*selection.score + "% of the time");
+        } else {
+            System.out.println("The target attribute was predicted with a mean absolute error of " + selection.score);
+        }
+        System.out.println("Attributes omitted: " + selection.ignoredAttributes);
+    }
+
+    /**
+     * Compares the neighbors found by the index of each fold's model with the exact nearest neighbors
+     * found by scanning the fold's whole training set. Only of interest for approximate indexes,
+     * since the other indexes always find the exact nearest neighbors
+     * @return the fraction of the exact k nearest neighbors that were found, averaged over all data points
+     */
+    float recall() {
+        NeighborIndex[] exactIndexes = new NeighborIndex[crossValidationFolds];
+        forEach(crossValidationFolds, i -> exactIndexes[i] = new BruteForceIndex(dataSet, trainingRows(i), realValDist, catValDist));
+        float[] recalls = new float[dataSet.size()];
+        forEach(dataSet.size(), row -> {
+            int fold = foldOf(row);
+            DataPoint dataPoint = dataSet.get(row);
+            NeighborHeap found = new NeighborHeap(k), exact = new NeighborHeap(k);
+            trainingSetModels[fold].getNearestNeighbors(dataPoint, found);
+            exactIndexes[fold].search(dataPoint, exact);
+            int foundCount = 0;
+            for (int i = 0; i < exact.size(); i++) {
+                for (int j = 0; j < found.size(); j++) {
+                    if (found.getIndex(j) == exact.getIndex(i)) {
+                        foundCount++;
+                        break;
+                    }
+                }
+            }
+            recalls[row] = exact.size() == 0 ? 1 : (float) foundCount / exact.size();
+        });
+        float recall = 0;
+        for (float f : recalls) {
+            recall += f;
+        }
+        return recall / dataSet.size();
+    }
+
+    /**
+     * Compares the neighbors found by the index with the exact nearest neighbors
+     * Prints out the results
+     */
+    private void recallReport() {
+        System.out.println("Results for the " + k + " nearest neighbors found with " + indexType + " in " + crossValidationFolds + "-fold cross-validation for the data set " + filename + ":");
+        System.out.println("The index found " + 100*recall() + "% of the exact nearest neighbors");
+    }
+
     public static void main(String[] args) {
-        NearestNeighbors nn1 = new NearestNeighbors(2, 10, false, "class", new ArrayList<>(Arrays.asList("a01", "a03", "a06", "a10", "a12", "a16", "a17", "a18", "a20", "a22", "a23", "a24", "a26", "a27", "a29", "a30", "a31", "a32", "a33")), "ionosphere.arff", new MinkowskiDistance(2), new IgnoreCategoricalValues());
+        ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+        NearestNeighbors nn1 = fromFile(2, 10, false, "class", new ArrayList<>(Arrays.asList("a01", "a03", "a06", "a10", "a12", "a16", "a17", "a18", "a20", "a22", "a23", "a24", "a26", "a27", "a29", "a30", "a31", "a32", "a33")), "ionosphere.arff", new MinkowskiDistance(2), new IgnoreCategoricalValues(), NeighborIndexType.KD_TREE, pool, Metrics.NONE);
         nn1.classification();
         System.out.println();
-        NearestNeighbors nn1a = new NearestNeighbors(3, 10, true, "class", new ArrayList<>(Arrays.asList("a03", "a10", "a12", "a16", "a17", "a18", "a20", "a22", "a23", "a24", "a26", "a27", "a29", "a30", "a31", "a32", "a33")), "ionosphere.arff", new MinkowskiDistance(2), new IgnoreCategoricalValues());
+        NearestNeighbors nn1a = fromFile(3, 10, true, "class", new ArrayList<>(Arrays.asList("a03", "a10", "a12", "a16", "a17", "a18", "a20", "a22", "a23", "a24", "a26", "a27", "a29", "a30", "a31", "a32", "a33")), "ionosphere.arff", new MinkowskiDistance(2), new IgnoreCategoricalValues(), NeighborIndexType.KD_TREE, pool, Metrics.NONE);
         nn1a.classification();
         System.out.println();
-        NearestNeighbors nn2 = new NearestNeighbors(2, 10, false, "price", new ArrayList<>(Arrays.asList("normalized-losses","fuel-type","aspiration","num-of-doors","body-style","length","height","engine-type","num-of-cylinders","fuel-system","bore","stroke","compression-ratio","peak-rpm","symboling")), "autos.arff", new MinkowskiDistance(2), new HammingDistance());
+        NearestNeighbors nn2 = fromFile(2, 10, false, "price", new ArrayList<>(Arrays.asList("normalized-losses","fuel-type","aspiration","num-of-doors","body-style","length","height","engine-type","num-of-cylinders","fuel-system","bore","stroke","compression-ratio","peak-rpm","symboling")), "autos.arff", new MinkowskiDistance(2), new HammingDistance(), NeighborIndexType.KD_TREE, pool, Metrics.NONE);
         nn2.regression();
         System.out.println();
-        NearestNeighbors nn3 = new NearestNeighbors(5, 10, true, "price", new ArrayList<>(Arrays.asList("normalized-losses","fuel-type","aspiration","num-of-doors","body-style","length","width","height","engine-type","num-of-cylinders","fuel-system","stroke","compression-ratio","symboling")), "autos.arff", new MinkowskiDistance(2), new HammingDistance());
+        NearestNeighbors nn3 = fromFile(5, 10, true, "price", new ArrayList<>(Arrays.asList("normalized-losses","fuel-type","aspiration","num-of-doors","body-style","length","width","height","engine-type","num-of-cylinders","fuel-system","stroke","compression-ratio","symboling")), "autos.arff", new MinkowskiDistance(2), new HammingDistance(), NeighborIndexType.KD_TREE, pool, Metrics.NONE);
         nn3.regression();
+        pool.shutdown();
     }
 
 }
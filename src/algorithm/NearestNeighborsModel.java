@@ -0,0 +1,533 @@
+package algorithm;
+
+import distanceFunctions.CategoricalValueDistanceFunction;
+import distanceFunctions.RealValueDistanceFunction;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A fitted k-NearestNeighbor model: the normalized training set, the normalization that was applied
+ * to it, an index over it, and the possible values of the target attribute when classifying.
+ * A model never changes after it has been fitted, so it can be shared between threads and used
+ * for any number of predictions.
+ *
+ * Queries are given as data points of a data set with the same real value and categorical attributes,
+ * in the same order, as the one the model was fitted on, without normalization. The easiest way to get
+ * one is to load it the same way as the training data, for example with ArffReader.readDataSet.
+ */
+public class NearestNeighborsModel {
+
+    /**
+     * How many queries are searched for together when predicting a batch
+     */
+    static final int QUERY_BLOCK_SIZE = 64;
+
+    /**
+     * Every thread's array of votes, which grows to the largest number of classes it has voted on
+     */
+    private static final ThreadLocal<double[]> VOTES = ThreadLocal.withInitial(() -> new double[0]);
+
+    /**
+     * The normalized training set, and the rows of it the model uses
+     */
+    private final DataSet trainingSet;
+
+    /**
+     * The normalization that was applied to the training set, and is applied to every query
+     */
+    private final Normalization normalization;
+
+    /**
+     * The index used to search the training set
+     */
+    private final NeighborIndex index;
+
+    /**
+     * The possible values of the target attribute if it's categorical, otherwise null
+     */
+    private final String[] classificationTargetAttributeValues;
+
+    /**
+     * k: How many neighbors to consider
+     * useDistanceWeighting: If the neighbors should be distance weighted
+     */
+    private final int k;
+    private final boolean useDistanceWeighting;
+
+    /**
+     * Receives the time every query takes, how many distances it computes and how long the vote takes
+     */
+    private final Metrics metrics;
+
+    /**
+     * The cache searches are looked up in first, or null, and the id this model's searches are cached under.
+     * Models made by withCache share the id, since they search the same index
+     */
+    private final NeighborCache cache;
+    private final long cacheOwner;
+
+    /**
+     * Creates a model over some rows of an already normalized data set
+     * @param trainingSet the normalized data set
+     * @param rows the rows of the data set to use as training set
+     * @param normalization the normalization that was applied to the data set
+     * @param k how many neighbors to consider
+     * @param useDistanceWeighting if the neighbors should be distance weighted
+     * @param realValDist distance function to use for real value attributes
+     * @param catValDist distance function to use for categorical value attributes
+     * @param indexType which kind of index to search the training set with, a NeighborIndexType or the parameters of an approximate index
+     * @param metrics receives the time it takes to build the index, and measurements of every prediction
+     */
+    NearestNeighborsModel(DataSet trainingSet, int[] rows, Normalization normalization, int k, boolean useDistanceWeighting, RealValueDistanceFunction realValDist, CategoricalValueDistanceFunction catValDist, NeighborIndexBuilder indexType, Metrics metrics) {
+        this.trainingSet = trainingSet;
+        this.normalization = normalization;
+        this.k = k;
+        this.useDistanceWeighting = useDistanceWeighting;
+        this.metrics = metrics;
+        this.cache = null;
+        this.cacheOwner = NeighborCache.newOwner();
+        long start = System.nanoTime();
+        long allocated = metrics.allocatedBytes();
+        this.index = indexType.build(trainingSet, rows, realValDist, catValDist);
+        metrics.record(Metrics.INDEX_BUILD_TIME, System.nanoTime() - start);
+        metrics.record(Metrics.INDEX_ALLOCATED_BYTES, metrics.allocatedBytes() - allocated);
+        Attribute targetAttribute = trainingSet.targetAttribute;
+        this.classificationTargetAttributeValues = targetAttribute != null && !targetAttribute.isReal ? targetAttribute.getDeclaredValues() : null;
+    }
+
+    private NearestNeighborsModel(NearestNeighborsModel model, NeighborCache cache) {
+        this.trainingSet = model.trainingSet;
+        this.normalization = model.normalization;
+        this.index = model.index;
+        this.classificationTargetAttributeValues = model.classificationTargetAttributeValues;
+        this.k = model.k;
+        this.useDistanceWeighting = model.useDistanceWeighting;
+        this.metrics = model.metrics;
+        this.cache = cache;
+        this.cacheOwner = model.cacheOwner;
+    }
+
+    /**
+     * Returns a model that makes the same predictions as this one, but looks up the neighbors of every query
+     * in a cache first, and caches the ones it has to search for. The model never changes, so its searches stay
+     * valid for as long as the cache keeps them. Every lookup is counted as a cache hit or miss in the metrics
+     * @param cache the cache, which may be shared with other models
+     * @return the model
+     */
+    public NearestNeighborsModel withCache(NeighborCache cache) {
+        return new NearestNeighborsModel(this, cache);
+    }
+
+    /**
+     * Fits a model to a data set. The data set isn't modified: the model normalizes a copy of it.
+     * @param dataSet the training set, without normalization
+     * @param k how many neighbors to consider
+     * @param useDistanceWeighting if the neighbors should be distance weighted
+     * @param realValDist distance function to use for real value attributes
+     * @param catValDist distance function to use for categorical value attributes
+     * @param indexType which kind of index to search the training set with, a NeighborIndexType or the parameters of an approximate index
+     * @return the model
+     */
+    public static NearestNeighborsModel fit(DataSet dataSet, int k, boolean useDistanceWeighting, RealValueDistanceFunction realValDist, CategoricalValueDistanceFunction catValDist, NeighborIndexBuilder indexType) {
+        return fit(dataSet, k, useDistanceWeighting, realValDist, catValDist, indexType, Metrics.NONE);
+    }
+
+    /**
+     * Fits a model to a data set, and measures the fitting and every prediction.
+     * The data set isn't modified: the model normalizes a copy of it.
+     * @param dataSet the training set, without normalization
+     * @param k how many neighbors to consider
+     * @param useDistanceWeighting if the neighbors should be distance weighted
+     * @param realValDist distance function to use for real value attributes
+     * @param catValDist distance function to use for categorical value attributes
+     * @param indexType which kind of index to search the training set with, a NeighborIndexType or the parameters of an approximate index
+     * @param metrics receives the time it takes to normalize and to build the index, and measurements of every prediction
+     * @return the model
+     */
+    public static NearestNeighborsModel fit(DataSet dataSet, int k, boolean useDistanceWeighting, RealValueDistanceFunction realValDist, CategoricalValueDistanceFunction catValDist, NeighborIndexBuilder indexType, Metrics metrics) {
+        if (dataSet.targetAttribute == null) {
+            throw new IllegalArgumentException("The data set has no target attribute");
+        }
+        int[] rows = new int[dataSet.size()];
+        for (int row = 0; row < rows.length; row++) {
+            rows[row] = row;
+        }
+        long start = System.nanoTime();
+        DataSet trainingSet = new DataSet(dataSet, rows);
+        Normalization normalization = Normalization.fit(trainingSet);
+        normalization.apply(trainingSet);
+        metrics.record(Metrics.NORMALIZATION_TIME, System.nanoTime() - start);
+        return new NearestNeighborsModel(trainingSet, rows, normalization, k, useDistanceWeighting, realValDist, catValDist, indexType, metrics);
+    }
+
+    /**
+     * @return true if the target attribute is categorical, false if it's a real value
+     */
+    public boolean isClassification() {
+        return classificationTargetAttributeValues != null;
+    }
+
+    /**
+     * @return the possible values of the target attribute, or null if the model does regression
+     */
+    public String[] getClassLabels() {
+        return classificationTargetAttributeValues == null ? null : classificationTargetAttributeValues.clone();
+    }
+
+    /**
+     * Predicts the target attribute of a data point
+     * @param dataPoint the data point, without normalization
+     * @return the predicted value when doing regression, or the index in getClassLabels() of the predicted class
+     */
+    public double predict(DataPoint dataPoint) {
+        return predictNormalized(normalize(Collections.singletonList(dataPoint)).get(0));
+    }
+
+    /**
+     * Predicts the class of a data point
+     * @param dataPoint the data point, without normalization
+     * @return the predicted value of the target attribute
+     */
+    public String predictLabel(DataPoint dataPoint) {
+        if (!isClassification()) {
+            throw new IllegalStateException("The model does regression");
+        }
+        NeighborHeap nearestNeighbors = search(normalize(Collections.singletonList(dataPoint)).get(0));
+        long voteStart = System.nanoTime();
+        String label = classificationTargetAttributeValues[classify(nearestNeighbors)];
+        metrics.record(Metrics.VOTE_TIME, System.nanoTime() - voteStart);
+        return label;
+    }
+
+    /**
+     * Predicts the target attribute of several data points
+     * @param dataPoints the data points, without normalization
+     * @return for each data point, the value predict would return for it
+     */
+    public double[] predictBatch(List<DataPoint> dataPoints) {
+        DataSet queries = normalize(dataPoints);
+        double[] predictions = new double[queries.size()];
+        NeighborHeap[] nearestNeighbors = newHeaps(QUERY_BLOCK_SIZE);
+        for (int from = 0; from < predictions.length; from += QUERY_BLOCK_SIZE) {
+            int to = Math.min(from + QUERY_BLOCK_SIZE, predictions.length);
+            searchBlock(queries, from, to, nearestNeighbors);
+            for (int row = from; row < to; row++) {
+                long voteStart = System.nanoTime();
+                predictions[row] = predict(nearestNeighbors[row - from]);
+                metrics.record(Metrics.VOTE_TIME, System.nanoTime() - voteStart);
+            }
+        }
+        return predictions;
+    }
+
+    private double predictNormalized(DataPoint query) {
+        NeighborHeap nearestNeighbors = search(query);
+        long voteStart = System.nanoTime();
+        double prediction = predict(nearestNeighbors);
+        metrics.record(Metrics.VOTE_TIME, System.nanoTime() - voteStart);
+        return prediction;
+    }
+
+    /**
+     * Finds the k nearest neighbors of a normalized query, and records the search
+     */
+    private NeighborHeap search(DataPoint query) {
+        long start = System.nanoTime();
+        long allocated = metrics.allocatedBytes();
+        NeighborHeap nearestNeighbors = new NeighborHeap(k);
+        getNearestNeighbors(query, nearestNeighbors);
+        recordQuery(nearestNeighbors, start, allocated);
+        return nearestNeighbors;
+    }
+
+    private double predict(NeighborHeap nearestNeighbors) {
+        if (!isClassification()) {
+            return regress(nearestNeighbors);
+        }
+        return classify(nearestNeighbors);
+    }
+
+    /**
+     * Copies the data points into a data set with the training set's attributes, and normalizes them.
+     * Categorical values that never occurred in the training set get the code -1, so they
+     * differ from every training value.
+     */
+    private DataSet normalize(List<DataPoint> dataPoints) {
+        return normalize(dataPoints, trainingSet, normalization);
+    }
+
+    /**
+     * Copies the data points into a data set with the attributes of a training set, and normalizes them
+     * @param dataPoints the data points, without normalization
+     * @param trainingSet the data set whose attributes the data points are given, which may be empty
+     * @param normalization the normalization that was applied to the training set
+     * @return the normalized data points, with no target attribute
+     */
+    static DataSet normalize(List<DataPoint> dataPoints, DataSet trainingSet, Normalization normalization) {
+        Attribute[] realAttributes = new Attribute[trainingSet.realAttributeCount];
+        for (int i = 0; i < realAttributes.length; i++) {
+            realAttributes[i] = trainingSet.getRealAttribute(i);
+        }
+        Attribute[] categoricalAttributes = new Attribute[trainingSet.categoricalAttributeCount];
+        for (int i = 0; i < categoricalAttributes.length; i++) {
+            categoricalAttributes[i] = trainingSet.getCategoricalAttribute(i);
+        }
+        DataSet queries = new DataSet(realAttributes, categoricalAttributes, null);
+        int firstRow = queries.addRows(dataPoints.size());
+        float[] realValues = queries.realValues();
+        int[] categoricalValues = queries.categoricalValues();
+        for (int i = 0; i < dataPoints.size(); i++) {
+            DataPoint dataPoint = dataPoints.get(i);
+            DataSet source = dataPoint.dataSet;
+            if (source.realAttributeCount != realAttributes.length || source.categoricalAttributeCount != categoricalAttributes.length) {
+                throw new IllegalArgumentException("The data point doesn't have the attributes the model was fitted on");
+            }
+            int row = firstRow + i;
+            System.arraycopy(source.realValues(), dataPoint.realValuesOffset(), realValues, row * realAttributes.length, realAttributes.length);
+            normalization.apply(realValues, row * realAttributes.length);
+            for (int j = 0; j < categoricalAttributes.length; j++) {
+                int code = source.categoricalValues()[dataPoint.categoricalValuesOffset() + j];
+                if (source.getCategoricalAttribute(j) != categoricalAttributes[j]) {
+                    code = categoricalAttributes[j].lookup(source.getCategoricalAttribute(j).getValue(code));
+                }
+                categoricalValues[row * categoricalAttributes.length + j] = code;
+            }
+        }
+        return queries;
+    }
+
+    /**
+     * Finds the k nearest neighbors to the given data point.
+     * When two training points are equally far away, the one that comes first in the
+     * training set is considered nearer.
+     * @param query the given data point, which must already be normalized
+     * @param nearestNeighbors heap which is filled with the rows of the k nearest neighbors, nearest first
+     */
+    void getNearestNeighbors(DataPoint query, NeighborHeap nearestNeighbors) {
+        nearestNeighbors.clear();
+        if (cache != null && cache.get(cacheOwner, 0, query, nearestNeighbors)) {
+            metrics.count(Metrics.CACHE_HITS, 1);
+            return;
+        }
+        index.search(query, nearestNeighbors);
+        nearestNeighbors.sort();
+        if (cache != null) {
+            metrics.count(Metrics.CACHE_MISSES, 1);
+            cache.put(cacheOwner, 0, query, nearestNeighbors);
+        }
+    }
+
+    /**
+     * Finds the k nearest neighbors to each of a block of data points
+     * @param queries the data set holding the data points, which must already be normalized
+     * @param from the first data point
+     * @param to the data point after the last one
+     * @param nearestNeighbors heaps which are filled with the rows of the k nearest neighbors
+     *                         of each data point, nearest first. There must be at least to - from of them
+     */
+    void getNearestNeighbors(DataSet queries, int from, int to, NeighborHeap[] nearestNeighbors) {
+        for (int i = 0; i < to - from; i++) {
+            nearestNeighbors[i].clear();
+        }
+        if (cache == null) {
+            index.search(queries, from, to, nearestNeighbors);
+            for (int i = 0; i < to - from; i++) {
+                nearestNeighbors[i].sort();
+            }
+            return;
+        }
+        // search for the queries that aren't cached as a block of their own
+        int[] missed = new int[to - from];
+        int missCount = 0;
+        for (int q = from; q < to; q++) {
+            if (!cache.get(cacheOwner, 0, queries.get(q), nearestNeighbors[q - from])) {
+                missed[missCount++] = q;
+            }
+        }
+        metrics.count(Metrics.CACHE_HITS, to - from - missCount);
+        metrics.count(Metrics.CACHE_MISSES, missCount);
+        if (missCount == 0) {
+            return;
+        }
+        DataSet missedQueries = missCount == to - from ? queries : new DataSet(queries, Arrays.copyOf(missed, missCount));
+        int missedFrom = missCount == to - from ? from : 0;
+        NeighborHeap[] missedNeighbors = new NeighborHeap[missCount];
+        for (int i = 0; i < missCount; i++) {
+            missedNeighbors[i] = nearestNeighbors[missed[i] - from];
+        }
+        index.search(missedQueries, missedFrom, missedFrom + missCount, missedNeighbors);
+        for (int i = 0; i < missCount; i++) {
+            missedNeighbors[i].sort();
+            cache.put(cacheOwner, 0, queries.get(missed[i]), missedNeighbors[i]);
+        }
+    }
+
+    /**
+     * Finds the k nearest neighbors to each of a block of data points like getNearestNeighbors, and records
+     * the search. If the index searches the block as a whole, the block is timed as one. Otherwise the
+     * data points are searched for one at a time, so each one's time is recorded on its own
+     * @param queries the data set holding the data points, which must already be normalized
+     * @param from the first data point
+     * @param to the data point after the last one
+     * @param nearestNeighbors heaps which are filled with the rows of the k nearest neighbors
+     *                         of each data point, nearest first. There must be at least to - from of them
+     */
+    void searchBlock(DataSet queries, int from, int to, NeighborHeap[] nearestNeighbors) {
+        if (!index.searchesInBlocks()) {
+            for (int q = from; q < to; q++) {
+                long start = System.nanoTime();
+                long allocated = metrics.allocatedBytes();
+                getNearestNeighbors(queries.get(q), nearestNeighbors[q - from]);
+                recordQuery(nearestNeighbors[q - from], start, allocated);
+            }
+            return;
+        }
+        long start = System.nanoTime();
+        long allocated = metrics.allocatedBytes();
+        getNearestNeighbors(queries, from, to, nearestNeighbors);
+        metrics.record(Metrics.BLOCK_TIME, System.nanoTime() - start);
+        metrics.record(Metrics.BLOCK_ALLOCATED_BYTES, metrics.allocatedBytes() - allocated);
+        metrics.count(Metrics.QUERIES, to - from);
+        for (int i = 0; i < to - from; i++) {
+            metrics.record(Metrics.QUERY_DISTANCES, nearestNeighbors[i].getDistanceCount());
+        }
+    }
+
+    /**
+     * Records the time, the distances and the allocations of a search for the nearest neighbors of one query
+     * @param nearestNeighbors the heap filled by the search
+     * @param startTime the value of System.nanoTime() before the search
+     * @param startAllocatedBytes the value of metrics.allocatedBytes() before the search
+     */
+    private void recordQuery(NeighborHeap nearestNeighbors, long startTime, long startAllocatedBytes) {
+        metrics.record(Metrics.QUERY_TIME, System.nanoTime() - startTime);
+        metrics.record(Metrics.QUERY_ALLOCATED_BYTES, metrics.allocatedBytes() - startAllocatedBytes);
+        metrics.count(Metrics.QUERIES, 1);
+        metrics.record(Metrics.QUERY_DISTANCES, nearestNeighbors.getDistanceCount());
+    }
+
+    /**
+     * @return the given number of empty heaps that can hold k neighbors each
+     */
+    NeighborHeap[] newHeaps(int count) {
+        NeighborHeap[] heaps = new NeighborHeap[count];
+        for (int i = 0; i < count; i++) {
+            heaps[i] = new NeighborHeap(k);
+        }
+        return heaps;
+    }
+
+    /**
+     * Classifies a single data point
+     * @param dp1 the data point to be classified, which must already be normalized
+     * @return the classification value of the data point
+     */
+    String classify(DataPoint dp1) {
+        NeighborHeap nearestNeighbors = new NeighborHeap(k);
+        getNearestNeighbors(dp1, nearestNeighbors);
+        return classificationTargetAttributeValues[classify(nearestNeighbors)];
+    }
+
+    /**
+     * Classifies a data point by a vote of its nearest neighbors
+     * @param nearestNeighbors the nearest neighbors of the data point, nearest first
+     * @return the class of the data point, the index of its value in getClassLabels()
+     */
+    int classify(NeighborHeap nearestNeighbors) {
+        return classify(nearestNeighbors, trainingSet, classificationTargetAttributeValues.length, useDistanceWeighting);
+    }
+
+    /**
+     * Classifies a data point by a vote of its nearest neighbors. The votes are added up in an array
+     * that every thread keeps, so nothing is allocated. Neighbors whose class wasn't declared don't
+     * vote, and a tie goes to the class that was declared first
+     * @param nearestNeighbors the nearest neighbors of the data point, nearest first
+     * @param trainingSet the data set the neighbors' rows belong to
+     * @param classCount how many classes were declared
+     * @param useDistanceWeighting if the neighbors should be distance weighted
+     * @return the class of the data point, the index of its value in the declared values of the target attribute
+     */
+    static int classify(NeighborHeap nearestNeighbors, DataSet trainingSet, int classCount, boolean useDistanceWeighting) {
+        double[] votes = VOTES.get();
+        if (votes.length < classCount) {
+            votes = new double[classCount];
+            VOTES.set(votes);
+        }
+        Arrays.fill(votes, 0, classCount, 0);
+
+        for (int j = 0; j < nearestNeighbors.size(); j++) {
+            int targetClass = trainingSet.getTargetClass(nearestNeighbors.getIndex(j));
+            if (targetClass < 0 || targetClass >= classCount) {
+                continue;
+            }
+            if (useDistanceWeighting) {
+                double distance = Math.pow(nearestNeighbors.getDistance(j), 2);
+                if (distance == 0) {
+                    distance = 1;
+                }
+                votes[targetClass] += 1.0/distance;
+            } else {
+                votes[targetClass] += 1;
+            }
+        }
+        int winner = 0;
+        for (int i = 1; i < classCount; i++) {
+            if (votes[i] > votes[winner]) {
+                winner = i;
+            }
+        }
+        return winner;
+    }
+
+    /**
+     * Predicts the value of a single data point
+     * @param dp1 the data point to predict the value for, which must already be normalized
+     * @return the predicted value of the data point
+     */
+    double regress(DataPoint dp1) {
+        NeighborHeap nearestNeighbors = new NeighborHeap(k);
+        getNearestNeighbors(dp1, nearestNeighbors);
+        return regress(nearestNeighbors);
+    }
+
+    /**
+     * Predicts the value of a data point by averaging the values of its nearest neighbors
+     * @param nearestNeighbors the nearest neighbors of the data point, nearest first
+     * @return the predicted value of the data point
+     */
+    double regress(NeighborHeap nearestNeighbors) {
+        return regress(nearestNeighbors, trainingSet, useDistanceWeighting);
+    }
+
+    /**
+     * Predicts the value of a data point by averaging the values of its nearest neighbors
+     * @param nearestNeighbors the nearest neighbors of the data point, nearest first
+     * @param trainingSet the data set the neighbors' rows belong to
+     * @param useDistanceWeighting if the neighbors should be distance weighted
+     * @return the predicted value of the data point
+     */
+    static double regress(NeighborHeap nearestNeighbors, DataSet trainingSet, boolean useDistanceWeighting) {
+        float avgValue = 0;
+        double sumDistance = 0;
+        for (int j = 0; j < nearestNeighbors.size(); j++) {
+            double targetValue = trainingSet.getTargetValue(nearestNeighbors.getIndex(j));
+            double distance = 1/Math.pow(nearestNeighbors.getDistance(j), 2);
+            if (Double.isNaN(distance) || Double.isInfinite(distance)) {
+                distance = 1;
+            }
+            sumDistance += distance;
+            if (useDistanceWeighting) {
+                avgValue += targetValue*distance;
+            } else {
+                avgValue += (float) targetValue;
+            }
+        }
+        if (useDistanceWeighting) {
+            return avgValue / sumDistance;
+        } else {
+            return avgValue / nearestNeighbors.size();
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package algorithm;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded cache of nearest neighbor searches, evicting the least recently used search once it's full.
+ * A search is identified by the model that did it, the model's version, how many neighbors were searched
+ * for, and the query's real values and categorical codes as the model searched with them. Models that
+ * change bump their version, so searches made before the change are never returned again and age out of
+ * the cache. The values are compared exactly, so a hit always returns the neighbors the search would find.
+ *
+ * One cache can be shared by any number of models and threads. A NearestNeighborsModel uses one with
+ * withCache, an IncrementalNearestNeighborsModel with setCache, and every fold of NearestNeighbors with useCache.
+ * toString shows the hits, misses and evictions, and the models count cache.hits and cache.misses in their metrics.
+ */
+public class NeighborCache {
+
+    /**
+     * Hands out the ids that tell the searches of different models apart
+     */
+    private static final AtomicLong NEXT_OWNER = new AtomicLong();
+
+    /**
+     * The most searches the cache holds
+     */
+    private final int maxEntries;
+
+    /**
+     * The cached searches, least recently used first
+     */
+    private final LinkedHashMap<Key, NeighborHeap> entries;
+
+    private long hits, misses, evictions;
+
+    /**
+     * @param maxEntries the most searches to keep
+     */
+    public NeighborCache(int maxEntries) {
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("The cache must hold at least one search, got " + maxEntries);
+        }
+        this.maxEntries = maxEntries;
+        this.entries = new LinkedHashMap<Key, NeighborHeap>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, NeighborHeap> eldest) {
+                if (size() > NeighborCache.this.maxEntries) {
+                    evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * @return an id for a model that uses caches, different from every other model's
+     */
+    static long newOwner() {
+        return NEXT_OWNER.getAndIncrement();
+    }
+
+    /**
+     * Looks up a search, and fills the heap with its neighbors if it's cached
+     * @param owner the id of the model doing the search
+     * @param version the version of the model
+     * @param query the query, as the model searches with it
+     * @param nearestNeighbors empty heap to fill with the neighbors, nearest first. Its capacity is how many neighbors are searched for
+     * @return true if the search was cached, false if the caller has to do it
+     */
+    public synchronized boolean get(long owner, long version, DataPoint query, NeighborHeap nearestNeighbors) {
+        NeighborHeap cached = entries.get(new Key(owner, version, nearestNeighbors.capacity(), query));
+        if (cached == null) {
+            misses++;
+            return false;
+        }
+        hits++;
+        nearestNeighbors.copyNearest(cached, cached.size());
+        return true;
+    }
+
+    /**
+     * Caches a search
+     * @param owner the id of the model that did the search
+     * @param version the version of the model
+     * @param query the query, as the model searched with it
+     * @param nearestNeighbors the neighbors the search found, sorted nearest first. The heap is copied
+     */
+    public void put(long owner, long version, DataPoint query, NeighborHeap nearestNeighbors) {
+        Key key = new Key(owner, version, nearestNeighbors.capacity(), query);
+        NeighborHeap copy = new NeighborHeap(nearestNeighbors.capacity());
+        copy.copyNearest(nearestNeighbors, nearestNeighbors.size());
+        synchronized (this) {
+            entries.put(key, copy);
+        }
+    }
+
+    /**
+     * Removes every search
+     */
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    /**
+     * @return how many searches the cache holds
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return how many lookups found their search
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return how many lookups didn't find their search
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * @return how many searches were removed to make room for others
+     */
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * @return the fraction of lookups that found their search, or 0 if there were none
+     */
+    public synchronized double hitRate() {
+        return hits + misses == 0 ? 0 : (double) hits / (hits + misses);
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "Neighbor cache: " + entries.size() + "/" + maxEntries + " searches, " + hits + " hits, " + misses + " misses ("
+                + 100 * hitRate() + "% hit rate), " + evictions + " evictions";
+    }
+
+    /**
+     * A copy of a query's values, with the model and the number of neighbors that were searched for
+     */
+    private static class Key {
+
+        private final long owner, version;
+        private final int k;
+        private final float[] realValues;
+        private final int[] categoricalValues;
+        private final int hash;
+
+        Key(long owner, long version, int k, DataPoint query) {
+            this.owner = owner;
+            this.version = version;
+            this.k = k;
+            int realOffset = query.realValuesOffset(), categoricalOffset = query.categoricalValuesOffset();
+            this.realValues = Arrays.copyOfRange(query.dataSet.realValues(), realOffset, realOffset + query.dataSet.realAttributeCount);
+            this.categoricalValues = Arrays.copyOfRange(query.dataSet.categoricalValues(), categoricalOffset, categoricalOffset + query.dataSet.categoricalAttributeCount);
+            int hash = Long.hashCode(owner);
+            hash = 31 * hash + Long.hashCode(version);
+            hash = 31 * hash + k;
+            hash = 31 * hash + Arrays.hashCode(realValues);
+            this.hash = 31 * hash + Arrays.hashCode(categoricalValues);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return hash == key.hash && owner == key.owner && version == key.version && k == key.k
+                    && Arrays.equals(realValues, key.realValues) && Arrays.equals(categoricalValues, key.categoricalValues);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
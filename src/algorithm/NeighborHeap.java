@@ -0,0 +1,185 @@
+package algorithm;
+
+/**
+ * Keeps the k nearest neighbors seen so far in a bounded max-heap of (distance, index) pairs.
+ * Pairs are ordered by distance, and by index when the distances are equal, so when
+ * candidates are offered in index order a neighbor that was seen first wins a tie.
+ * The root of the heap is the worst of the current neighbors, which makes it cheap to
+ * reject candidates once the heap is full.
+ */
+public class NeighborHeap {
+
+    /**
+     * The distances and indexes of the neighbors, stored as a binary heap
+     */
+    private final double[] distances;
+    private final int[] indexes;
+
+    /**
+     * How many neighbors the heap currently holds
+     */
+    private int size;
+
+    /**
+     * How many distances from the query to a row were computed to fill the heap
+     */
+    private int distanceCount;
+
+    /**
+     * @param capacity how many neighbors to keep (k)
+     */
+    public NeighborHeap(int capacity) {
+        distances = new double[capacity];
+        indexes = new int[capacity];
+    }
+
+    /**
+     * Removes all neighbors so the heap can be reused for another query
+     */
+    public void clear() {
+        size = 0;
+        distanceCount = 0;
+    }
+
+    /**
+     * @return how many neighbors the heap currently holds
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return how many neighbors the heap can hold
+     */
+    public int capacity() {
+        return distances.length;
+    }
+
+    /**
+     * @return true if the heap holds as many neighbors as it can
+     */
+    public boolean isFull() {
+        return size == distances.length;
+    }
+
+    /**
+     * Called by indexes to report how many distances from the query to a row they computed,
+     * including the ones for rows that weren't offered because they were ruled out early
+     */
+    public void countDistances(int count) {
+        distanceCount += count;
+    }
+
+    /**
+     * @return how many distances from the query to a row were computed since the heap was cleared
+     */
+    public int getDistanceCount() {
+        return distanceCount;
+    }
+
+    /**
+     * Returns the distance a candidate has to beat to become a neighbor
+     * @return the distance of the worst neighbor if the heap is full, otherwise positive infinity
+     */
+    public double worstDistance() {
+        return size == distances.length ? distances[0] : Double.POSITIVE_INFINITY;
+    }
+
+    /**
+     * Offers a candidate neighbor
+     * @param distance the distance from the query to the candidate
+     * @param index the index of the candidate
+     * @return true if the candidate became one of the nearest neighbors
+     */
+    public boolean offer(double distance, int index) {
+        if (size < distances.length) {
+            siftUp(size++, distance, index);
+            return true;
+        }
+        if (size == 0 || !isLess(distance, index, distances[0], indexes[0])) {
+            return false;
+        }
+        siftDown(0, size, distance, index);
+        return true;
+    }
+
+    /**
+     * Sorts the neighbors from nearest to farthest. After sorting, the neighbors can be read
+     * with getDistance and getIndex. Offering more candidates requires calling clear first.
+     */
+    public void sort() {
+        for (int end = size - 1; end > 0; end--) {
+            double distance = distances[end];
+            int index = indexes[end];
+            distances[end] = distances[0];
+            indexes[end] = indexes[0];
+            siftDown(0, end, distance, index);
+        }
+    }
+
+    /**
+     * Replaces the neighbors with the nearest neighbors of another, sorted heap, nearest first.
+     * Since neighbors are ordered by distance and then by index, the nearest count neighbors
+     * of a heap that holds more are exactly the ones a heap of that capacity would have kept.
+     * Offering more candidates requires calling clear first.
+     * @param nearestNeighbors the sorted heap to copy from
+     * @param count how many of its neighbors to copy, at most the capacity of this heap
+     */
+    public void copyNearest(NeighborHeap nearestNeighbors, int count) {
+        size = Math.min(count, nearestNeighbors.size);
+        System.arraycopy(nearestNeighbors.distances, 0, distances, 0, size);
+        System.arraycopy(nearestNeighbors.indexes, 0, indexes, 0, size);
+    }
+
+    /**
+     * @return the distance of the i-th neighbor
+     */
+    public double getDistance(int i) {
+        return distances[i];
+    }
+
+    /**
+     * @return the index of the i-th neighbor
+     */
+    public int getIndex(int i) {
+        return indexes[i];
+    }
+
+    private static boolean isLess(double distance1, int index1, double distance2, int index2) {
+        return distance1 < distance2 || (distance1 == distance2 && index1 < index2);
+    }
+
+    private void siftUp(int position, double distance, int index) {
+        while (position > 0) {
+            int parent = (position - 1) >>> 1;
+            if (!isLess(distances[parent], indexes[parent], distance, index)) {
+                break;
+            }
+            distances[position] = distances[parent];
+            indexes[position] = indexes[parent];
+            position = parent;
+        }
+        distances[position] = distance;
+        indexes[position] = index;
+    }
+
+    private void siftDown(int position, int end, double distance, int index) {
+        while (true) {
+            int child = 2 * position + 1;
+            if (child >= end) {
+                break;
+            }
+            if (child + 1 < end && isLess(distances[child], indexes[child], distances[child + 1], indexes[child + 1])) {
+                child++;
+            }
+            if (!isLess(distance, index, distances[child], indexes[child])) {
+                break;
+            }
+            distances[position] = distances[child];
+            indexes[position] = indexes[child];
+            position = child;
+        }
+        distances[position] = distance;
+        indexes[position] = index;
+    }
+}
@@ -0,0 +1,39 @@
+package algorithm;
+
+/**
+ * An index over the rows of a training set that finds the nearest neighbors of a query.
+ */
+public interface NeighborIndex {
+
+    /**
+     * Offers the indexed rows that may be among the nearest neighbors of the query to the heap.
+     * Rows which are certain to be farther away than the heap's current worst neighbor may be
+     * skipped, so the heap ends up with exactly the same neighbors as a full scan would give.
+     * @param query the data point to find the neighbors of
+     * @param nearestNeighbors heap which is offered (distance, row) pairs
+     */
+    void search(DataPoint query, NeighborHeap nearestNeighbors);
+
+    /**
+     * Searches for the neighbors of a block of queries at once, which lets an index reuse
+     * each training row it loads for every query in the block. By default the queries
+     * are searched one at a time
+     * @param queries the data set holding the queries
+     * @param from the first query row
+     * @param to the query row after the last one
+     * @param nearestNeighbors one heap per query, which is offered (distance, row) pairs
+     */
+    default void search(DataSet queries, int from, int to, NeighborHeap[] nearestNeighbors) {
+        for (int row = from; row < to; row++) {
+            search(queries.get(row), nearestNeighbors[row - from]);
+        }
+    }
+
+    /**
+     * @return true if searching a block of queries at once does more than searching them one at a time,
+     *         so the block shouldn't be split up. False for the default block search
+     */
+    default boolean searchesInBlocks() {
+        return false;
+    }
+}
@@ -0,0 +1,20 @@
+package algorithm;
+
+import distanceFunctions.CategoricalValueDistanceFunction;
+import distanceFunctions.RealValueDistanceFunction;
+
+/**
+ * Builds neighbor indexes over the training sets of a model, one per training set
+ */
+public interface NeighborIndexBuilder {
+
+    /**
+     * Builds an index over the given rows
+     * @param dataSet the data set the rows belong to
+     * @param rows the rows to index
+     * @param realValDist distance function to use for real value attributes
+     * @param catValDist distance function to use for categorical value attributes
+     * @return the index
+     */
+    NeighborIndex build(DataSet dataSet, int[] rows, RealValueDistanceFunction realValDist, CategoricalValueDistanceFunction catValDist);
+}
@@ -0,0 +1,42 @@
+package algorithm;
+
+import distanceFunctions.CategoricalValueDistanceFunction;
+import distanceFunctions.MinkowskiDistance;
+import distanceFunctions.RealValueDistanceFunction;
+
+/**
+ * The kinds of neighbor index that can be used to search a training set
+ */
+public enum NeighborIndexType implements NeighborIndexBuilder {
+
+    BRUTE_FORCE, KD_TREE, BALL_TREE, PIVOTS;
+
+    /**
+     * Builds an index of this type over the given rows. The trees only support Minkowski
+     * distances, and only help with few real value attributes and many rows. The pivots only
+     * support distances that satisfy the triangle inequality, and only help with many attributes
+     * and many rows. In every other case a brute force index is built instead.
+     * @param dataSet the data set the rows belong to
+     * @param rows the rows to index
+     * @param realValDist distance function to use for real value attributes
+     * @param catValDist distance function to use for categorical value attributes
+     * @return the index
+     */
+    @Override
+    public NeighborIndex build(DataSet dataSet, int[] rows, RealValueDistanceFunction realValDist, CategoricalValueDistanceFunction catValDist) {
+        if (this == PIVOTS) {
+            if (PivotIndex.isMetric(realValDist, catValDist)
+                    && PivotIndex.isUseful(dataSet.realAttributeCount + dataSet.categoricalAttributeCount, rows.length)) {
+                return new PivotIndex(dataSet, rows, realValDist, catValDist);
+            }
+            return new BruteForceIndex(dataSet, rows, realValDist, catValDist);
+        }
+        if (this == BRUTE_FORCE || !(realValDist instanceof MinkowskiDistance) || !SpatialTree.isUseful(dataSet.realAttributeCount, rows.length)) {
+            return new BruteForceIndex(dataSet, rows, realValDist, catValDist);
+        }
+        if (this == KD_TREE) {
+            return new KDTree(dataSet, rows, (MinkowskiDistance) realValDist, catValDist);
+        }
+        return new BallTree(dataSet, rows, (MinkowskiDistance) realValDist, catValDist);
+    }
+}
@@ -0,0 +1,89 @@
+package algorithm;
+
+/**
+ * Min-max normalization of the real values of a data set.
+ * Each real value attribute is mapped with (value - min) / (max - min).
+ */
+public class Normalization {
+
+    /**
+     * The smallest and largest value of each real value attribute
+     */
+    private final float[] min, max;
+
+    /**
+     * @param min the smallest value of each real value attribute
+     * @param max the largest value of each real value attribute
+     */
+    public Normalization(float[] min, float[] max) {
+        this.min = min.clone();
+        this.max = max.clone();
+    }
+
+    /**
+     * Finds the min and max of each real value attribute of the data set.
+     * The max starts out at Float.MIN_VALUE and a value is only compared to the max
+     * if it isn't a new min, which is how the experiments in the README were normalized.
+     * @param dataSet the data set
+     * @return the normalization
+     */
+    public static Normalization fit(DataSet dataSet) {
+        float[] realValues = dataSet.realValues();
+        float[] min = new float[dataSet.realAttributeCount], max = new float[dataSet.realAttributeCount];
+        for (int i = 0; i < dataSet.realAttributeCount; i++) {
+            min[i] = Float.MAX_VALUE;
+            max[i] = Float.MIN_VALUE;
+            for (int row = 0; row < dataSet.size(); row++) {
+                float value = realValues[row * dataSet.realAttributeCount + i];
+                if (value < min[i]) {
+                    min[i] = value;
+                } else if (value > max[i]) {
+                    max[i] = value;
+                }
+            }
+        }
+        return new Normalization(min, max);
+    }
+
+    /**
+     * Normalizes every row of the data set in place
+     */
+    public void apply(DataSet dataSet) {
+        float[] realValues = dataSet.realValues();
+        for (int row = 0; row < dataSet.size(); row++) {
+            apply(realValues, row * dataSet.realAttributeCount);
+        }
+    }
+
+    /**
+     * Normalizes the real values of one row in place
+     * @param realValues the array holding the row
+     * @param offset the index of the row's first real value
+     */
+    public void apply(float[] realValues, int offset) {
+        for (int i = 0; i < min.length; i++) {
+            realValues[offset + i] = (realValues[offset + i] - min[i]) / (max[i] - min[i]);
+        }
+    }
+
+    /**
+     * @return the smallest value of the given real value attribute
+     */
+    public float getMin(int attribute) {
+        return min[attribute];
+    }
+
+    /**
+     * @return the largest value of the given real value attribute
+     */
+    public float getMax(int attribute) {
+        return max[attribute];
+    }
+
+    /**
+     * @return how many real value attributes the normalization covers
+     */
+    public int attributeCount() {
+        return min.length;
+    }
+}
@@ -0,0 +1,441 @@
+package algorithm;
+
+import distanceFunctions.CategoricalValueDistanceFunction;
+import distanceFunctions.RealValueDistanceFunction;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+
+/**
+ * k-NearestNeighbor predictions over a training set that is too large to load. The training set is
+ * never held in memory as a whole: every batch of predictions scans it from disk in chunks of a fixed
+ * number of rows, and every chunk is searched by brute force for all the queries of the batch. Each
+ * query keeps its k nearest neighbors so far, with their target values, from one chunk to the next.
+ * A reader thread loads the next chunk while the current one is searched, so at most three chunks
+ * are in memory at once: the one being searched, one waiting, and one being read.
+ *
+ * The training set can be a binary data set file, which is already normalized, or an ARFF file. An
+ * ARFF file is read twice when the searcher is created to work out the means that replace missing
+ * values and then the normalization, and every chunk is normalized as it's read. A binary data set file is
+ * much faster to scan, but BinaryDataSetFile.convert loads the whole data set, so it's only an option
+ * for data sets that fit in memory on the machine doing the conversion.
+ *
+ * The neighbors are the same as a brute force search of the whole training set would find, ties
+ * included, since earlier chunks hold earlier rows and a neighbor that was seen first wins a tie.
+ */
+public class OutOfCoreNearestNeighbors {
+
+    /**
+     * How many rows to read at a time, unless another chunk size is given
+     */
+    public static final int DEFAULT_CHUNK_ROWS = 1 << 16;
+
+    private final String filename;
+    private final String targetAttributeName;
+    private final Collection<String> ignoredAttributes;
+    private final int chunkRows;
+
+    /**
+     * An empty data set with the attributes of the training set, which queries are normalized against
+     */
+    private final DataSet schema;
+
+    /**
+     * The normalization of the training set, and the values that replace missing real values in
+     * an ARFF file, or null for a binary data set file
+     */
+    private final Normalization normalization;
+    private final float[] means;
+
+    /**
+     * The possible values of the target attribute if it's categorical, otherwise null
+     */
+    private final String[] classificationTargetAttributeValues;
+
+    /**
+     * k: How many neighbors to consider
+     * useDistanceWeighting: If the neighbors should be distance weighted
+     */
+    private final int k;
+    private final boolean useDistanceWeighting;
+    private final RealValueDistanceFunction realValDist;
+    private final CategoricalValueDistanceFunction catValDist;
+
+    /**
+     * The pool to search blocks of queries in parallel, or null to search them sequentially
+     */
+    private final ForkJoinPool pool;
+
+    /**
+     * Opens a training set for out of core searches. An ARFF file is read twice to normalize it
+     * @param filename the name of the training set file, an ARFF file or a binary data set file
+     * @param targetAttributeName the name of the target attribute. A binary data set file already has its
+     *                            target attribute, so this is only used for ARFF files
+     * @param ignoredAttributes the names of attributes to leave out
+     * @param chunkRows how many rows to read at a time
+     * @param k how many neighbors to consider
+     * @param useDistanceWeighting if the neighbors should be distance weighted
+     * @param realValDist distance function to use for real value attributes
+     * @param catValDist distance function to use for categorical value attributes
+     * @param pool pool to search blocks of queries in parallel, or null to search them sequentially
+     */
+    public OutOfCoreNearestNeighbors(String filename, String targetAttributeName, Collection<String> ignoredAttributes, int chunkRows, int k, boolean useDistanceWeighting, RealValueDistanceFunction realValDist, CategoricalValueDistanceFunction catValDist, ForkJoinPool pool) throws IOException {
+        if (chunkRows <= 0) {
+            throw new IllegalArgumentException("Chunks must hold at least one row, got " + chunkRows);
+        }
+        this.filename = filename;
+        this.targetAttributeName = targetAttributeName;
+        this.ignoredAttributes = ignoredAttributes;
+        this.chunkRows = chunkRows;
+        this.k = k;
+        this.useDistanceWeighting = useDistanceWeighting;
+        this.realValDist = realValDist;
+        this.catValDist = catValDist;
+        this.pool = pool;
+        if (isBinary()) {
+            try (BinaryDataSetFile in = new BinaryDataSetFile(filename)) {
+                schema = in.read(0, 0, ignoredAttributes);
+                normalization = in.getNormalization(ignoredAttributes);
+                means = null;
+            }
+        } else {
+            try (ArffReader in = new ArffReader(filename)) {
+                schema = in.readRows(targetAttributeName, ignoredAttributes, 0);
+                means = new float[schema.realAttributeCount];
+                normalization = fitArff(in);
+            }
+        }
+        Attribute targetAttribute = schema.targetAttribute;
+        if (targetAttribute == null) {
+            throw new IllegalArgumentException("The data set has no target attribute");
+        }
+        this.classificationTargetAttributeValues = targetAttribute.isReal ? null : targetAttribute.getDeclaredValues();
+    }
+
+    private boolean isBinary() {
+        return filename.endsWith(BinaryDataSetFile.EXTENSION);
+    }
+
+    /**
+     * Reads the rest of an ARFF file a chunk at a time to fill in the means, then reads the whole file again
+     * to work out the normalization exactly like Normalization.fit does after ArffReader.readDataSet: every
+     * missing value is replaced by its mean where it occurs, and the values are compared in file order,
+     * which matters since Normalization.fit only compares a value to the max if it isn't a new min
+     */
+    private Normalization fitArff(ArffReader in) throws IOException {
+        int dimensions = schema.realAttributeCount;
+        double[] sums = new double[dimensions];
+        long[] counts = new long[dimensions];
+        for (DataSet chunk; (chunk = in.readRows(targetAttributeName, ignoredAttributes, chunkRows)).size() > 0; ) {
+            float[] values = chunk.realValues();
+            for (int row = 0; row < chunk.size(); row++) {
+                for (int i = 0; i < dimensions; i++) {
+                    float value = values[row * dimensions + i];
+                    if (!Float.isNaN(value)) {
+                        sums[i] += value;
+                        counts[i]++;
+                    }
+                }
+            }
+        }
+        for (int i = 0; i < dimensions; i++) {
+            means[i] = counts[i] == 0 ? 0 : (float) (sums[i] / counts[i]);
+        }
+        float[] min = new float[dimensions], max = new float[dimensions];
+        for (int i = 0; i < dimensions; i++) {
+            min[i] = Float.MAX_VALUE;
+            max[i] = Float.MIN_VALUE;
+        }
+        try (ArffReader again = new ArffReader(filename)) {
+            for (DataSet chunk; (chunk = again.readRows(targetAttributeName, ignoredAttributes, chunkRows)).size() > 0; ) {
+                float[] values = chunk.realValues();
+                for (int row = 0; row < chunk.size(); row++) {
+                    for (int i = 0; i < dimensions; i++) {
+                        float value = values[row * dimensions + i];
+                        if (Float.isNaN(value)) {
+                            value = means[i];
+                        }
+                        if (value < min[i]) {
+                            min[i] = value;
+                        } else if (value > max[i]) {
+                            max[i] = value;
+                        }
+                    }
+                }
+            }
+        }
+        return new Normalization(min, max);
+    }
+
+    /**
+     * @return true if the target attribute is categorical, false if it's a real value
+     */
+    public boolean isClassification() {
+        return classificationTargetAttributeValues != null;
+    }
+
+    /**
+     * @return the possible values of the target attribute, in the order predictBatch numbers them,
+     *         or null if the target attribute is a real value
+     */
+    public String[] getClassLabels() {
+        return classificationTargetAttributeValues == null ? null : classificationTargetAttributeValues.clone();
+    }
+
+    /**
+     * Predicts the target attribute of several data points with a single scan of the training set.
+     * Every call scans the whole file, so give it as many data points at a time as possible
+     * @param dataPoints the data points, without normalization, with the same real value and categorical
+     *                   attributes as the training set
+     * @return for each data point, the predicted value if the target attribute is a real value,
+     *         otherwise the index of the predicted value in getClassLabels()
+     */
+    public double[] predictBatch(List<DataPoint> dataPoints) throws IOException {
+        DataSet queries = NearestNeighborsModel.normalize(dataPoints, schema, normalization);
+        int queryCount = queries.size();
+        int blockSize = NearestNeighborsModel.QUERY_BLOCK_SIZE;
+        int blockCount = (queryCount + blockSize - 1) / blockSize;
+        NeighborHeap[] nearestNeighbors = new NeighborHeap[queryCount];
+        for (int q = 0; q < queryCount; q++) {
+            nearestNeighbors[q] = new NeighborHeap(k);
+        }
+        // the target values of every query's neighbors, in the order of its sorted heap
+        double[] targets = new double[queryCount * k];
+        try (Prefetcher chunks = new Prefetcher(openChunks())) {
+            int[] rows = new int[0];
+            for (DataSet chunk; (chunk = chunks.next()) != null; ) {
+                if (rows.length != chunk.size()) {
+                    rows = IntStream.range(0, chunk.size()).toArray();
+                }
+                BruteForceIndex index = new BruteForceIndex(chunk, rows, realValDist, catValDist);
+                DataSet currentChunk = chunk;
+                forEach(blockCount, block -> {
+                    int from = block * blockSize, to = Math.min(from + blockSize, queryCount);
+                    search(index, currentChunk, queries, from, to, nearestNeighbors, targets);
+                });
+            }
+        }
+
+        double[] predictions = new double[queryCount];
+        forEach(blockCount, block -> {
+            NeighborHeap heap = new NeighborHeap(k);
+            DataSet neighbors = new DataSet(new Attribute[0], new Attribute[0], schema.targetAttribute);
+            neighbors.addRows(k);
+            for (int q = block * blockSize; q < Math.min((block + 1) * blockSize, queryCount); q++) {
+                heap.clear();
+                for (int i = 0; i < nearestNeighbors[q].size(); i++) {
+                    heap.offer(nearestNeighbors[q].getDistance(i), i);
+                    if (isClassification()) {
+                        neighbors.setTargetClass(i, (int) targets[q * k + i]);
+                    } else {
+                        neighbors.setTargetValue(i, targets[q * k + i]);
+                    }
+                }
+                heap.sort();
+                predictions[q] = isClassification()
+                        ? NearestNeighborsModel.classify(heap, neighbors, classificationTargetAttributeValues.length, useDistanceWeighting)
+                        : NearestNeighborsModel.regress(heap, neighbors, useDistanceWeighting);
+            }
+        });
+        return predictions;
+    }
+
+    /**
+     * Searches a chunk for the neighbors of a block of queries. Each query's current neighbors are offered
+     * again first, with negative indexes so they win ties against the chunk's rows, which come later in the
+     * training set. That also lets the index rule out rows of the chunk from the start
+     */
+    private void search(BruteForceIndex index, DataSet chunk, DataSet queries, int from, int to, NeighborHeap[] nearestNeighbors, double[] targets) {
+        NeighborHeap previous = new NeighborHeap(k);
+        double[] previousTargets = new double[k];
+        for (int q = from; q < to; q++) {
+            NeighborHeap heap = nearestNeighbors[q];
+            previous.copyNearest(heap, k);
+            heap.clear();
+            for (int i = 0; i < previous.size(); i++) {
+                heap.offer(previous.getDistance(i), i - k);
+            }
+        }
+        NeighborHeap[] blockNeighbors = new NeighborHeap[to - from];
+        System.arraycopy(nearestNeighbors, from, blockNeighbors, 0, to - from);
+        index.search(queries, from, to, blockNeighbors);
+        for (int q = from; q < to; q++) {
+            NeighborHeap heap = nearestNeighbors[q];
+            heap.sort();
+            System.arraycopy(targets, q * k, previousTargets, 0, k);
+            for (int i = 0; i < heap.size(); i++) {
+                int row = heap.getIndex(i);
+                if (row < 0) {
+                    targets[q * k + i] = previousTargets[row + k];
+                } else {
+                    targets[q * k + i] = isClassification() ? chunk.getTargetClass(row) : chunk.getTargetValue(row);
+                }
+            }
+        }
+    }
+
+    /**
+     * Runs the action for every index in [0, count), in the pool if there is one
+     */
+    private void forEach(int count, IntConsumer action) {
+        if (pool == null) {
+            for (int i = 0; i < count; i++) {
+                action.accept(i);
+            }
+        } else {
+            pool.submit(() -> IntStream.range(0, count).parallel().forEach(action)).join();
+        }
+    }
+
+    /**
+     * Opens the training set to be read from the start, a normalized chunk at a time
+     */
+    private ChunkReader openChunks() throws IOException {
+        if (isBinary()) {
+            BinaryDataSetFile in = new BinaryDataSetFile(filename);
+            return new ChunkReader() {
+                private int start;
+
+                @Override
+                public DataSet next() throws IOException {
+                    if (start >= in.size()) {
+                        return null;
+                    }
+                    int end = (int) Math.min((long) start + chunkRows, in.size());
+                    DataSet chunk = in.read(start, end, ignoredAttributes);
+                    start = end;
+                    return chunk;
+                }
+
+                @Override
+                public void close() throws IOException {
+                    in.close();
+                }
+            };
+        }
+        ArffReader in = new ArffReader(filename);
+        return new ChunkReader() {
+            @Override
+            public DataSet next() throws IOException {
+                DataSet chunk = in.readRows(targetAttributeName, ignoredAttributes, chunkRows);
+                if (chunk.size() == 0) {
+                    return null;
+                }
+                float[] values = chunk.realValues();
+                for (int i = 0; i < values.length; i++) {
+                    if (Float.isNaN(values[i])) {
+                        values[i] = means[i % means.length];
+                    }
+                }
+                normalization.apply(chunk);
+                return chunk;
+            }
+
+            @Override
+            public void close() throws IOException {
+                in.close();
+            }
+        };
+    }
+
+    /**
+     * Reads a training set a chunk at a time
+     */
+    private interface ChunkReader extends Closeable {
+
+        /**
+         * @return the next chunk, normalized, or null at the end of the training set
+         */
+        DataSet next() throws IOException;
+    }
+
+    /**
+     * Reads the chunks of a chunk reader on a thread of its own, one chunk ahead of the caller
+     */
+    private static class Prefetcher implements Closeable {
+
+        /**
+         * Put in the queue after the last chunk
+         */
+        private static final DataSet END = new DataSet(new Attribute[0], new Attribute[0], null);
+
+        private final ChunkReader reader;
+        private final BlockingQueue<DataSet> chunks = new ArrayBlockingQueue<>(1);
+        private final Thread thread;
+        private volatile IOException failure;
+        private boolean ended;
+
+        Prefetcher(ChunkReader reader) {
+            this.reader = reader;
+            this.thread = new Thread(this::run, "chunk prefetcher");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        private void run() {
+            try {
+                for (DataSet chunk; (chunk = reader.next()) != null; ) {
+                    chunks.put(chunk);
+                }
+            } catch (IOException e) {
+                failure = e;
+            } catch (RuntimeException e) {
+                failure = new IOException(e);
+            } catch (InterruptedException e) {
+                return;
+            }
+            try {
+                chunks.put(END);
+            } catch (InterruptedException ignored) {
+                // closed before the end was taken
+            }
+        }
+
+        /**
+         * @return the next chunk, or null at the end of the training set
+         * @throws IOException if reading the chunk failed
+         */
+        DataSet next() throws IOException {
+            if (ended) {
+                return null;
+            }
+            DataSet chunk;
+            try {
+                chunk = chunks.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for the next chunk");
+            }
+            if (chunk == END) {
+                ended = true;
+                if (failure != null) {
+                    throw failure;
+                }
+                return null;
+            }
+            return chunk;
+        }
+
+        /**
+         * Stops the reader thread, even if it hasn't reached the end, and closes the chunk reader
+         */
+        @Override
+        public void close() throws IOException {
+            thread.interrupt();
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            reader.close();
+        }
+    }
+}
@@ -0,0 +1,221 @@
+package algorithm;
+
+import distanceFunctions.CategoricalValueDistanceFunction;
+import distanceFunctions.DistanceKernel;
+import distanceFunctions.HammingDistance;
+import distanceFunctions.IgnoreCategoricalValues;
+import distanceFunctions.MinkowskiDistance;
+import distanceFunctions.RealValueDistanceFunction;
+
+/**
+ * The distances between every pair of rows of a data set, over a subset of its attributes that
+ * can be changed one attribute at a time. Used to search for the best subset of attributes.
+ *
+ * A Minkowski distance adds up one term per real value attribute (or takes the largest for the
+ * Chebyshev distance), and the Hamming distance counts the categorical attributes whose values
+ * differ, so the terms of every attribute are computed once for every pair and kept. The distance
+ * with one attribute more or less is then the kept sum with that attribute's term added or taken
+ * away, without going over the other attributes. Taking terms away may leave the sums a few ulps
+ * off, so after every change to the subset the sums are computed again from the terms, in
+ * attribute order like the distance functions do, and the distances are exactly theirs again.
+ *
+ * It holds one term per pair of rows for every attribute, so it's only meant for data sets
+ * of up to a few thousand rows.
+ */
+class PairwiseDistances {
+
+    /**
+     * The most rows a data set can have, so that row * (row - 1), and with it the index of every pair, fits in an int
+     */
+    static final int MAX_ROWS = 46341;
+
+    /**
+     * How many rows the data set has
+     */
+    private final int size;
+
+    /**
+     * The kernel of the real value distance, and if it takes the largest term instead of the sum
+     */
+    private final DistanceKernel kernel;
+    private final boolean largestTerm;
+
+    /**
+     * realTerms[attribute][pair]: The ranking distance between the pair's values of a real value attribute
+     * categoricalDifferences[attribute][pair]: If the pair's values of a categorical attribute differ
+     * Pair (row1, row2) with row1 > row2 is at index row1 * (row1 - 1) / 2 + row2
+     */
+    private final double[][] realTerms;
+    private final boolean[][] categoricalDifferences;
+
+    /**
+     * Which attributes are in the subset: the real value attributes first, then the categorical ones
+     */
+    private final boolean[] selected;
+    private int selectedCategoricalCount;
+
+    /**
+     * For every pair, over the attributes in the subset: the ranking distance of the real values,
+     * and how many categorical values differ. When the kernel takes the largest term, also the
+     * attribute the largest term comes from and the second largest term, which is what's left
+     * when that attribute is taken away
+     */
+    private final double[] realSums;
+    private final int[] differenceCounts;
+    private final int[] largestAttributes;
+    private final double[] secondLargestTerms;
+
+    /**
+     * Computes the terms of every attribute for every pair of rows. The subset starts out empty
+     * @param dataSet the data set, already normalized, with at most MAX_ROWS rows
+     * @param realValDist distance function used for real value attributes, which must be a Minkowski distance
+     * @param catValDist distance function used for categorical value attributes, the Hamming distance or none
+     */
+    PairwiseDistances(DataSet dataSet, RealValueDistanceFunction realValDist, CategoricalValueDistanceFunction catValDist) {
+        if (!(realValDist instanceof MinkowskiDistance)) {
+            throw new IllegalArgumentException("Attributes can only be selected for a Minkowski distance, not " + realValDist);
+        }
+        if (!(catValDist instanceof HammingDistance) && !(catValDist instanceof IgnoreCategoricalValues)) {
+            throw new IllegalArgumentException("Attributes can only be selected for the Hamming distance, not " + catValDist);
+        }
+        if (dataSet.size() > MAX_ROWS) {
+            throw new IllegalArgumentException("The distances between all pairs of rows can be kept for at most " + MAX_ROWS + " rows, the data set has " + dataSet.size());
+        }
+        size = dataSet.size();
+        kernel = ((MinkowskiDistance) realValDist).getKernel();
+        largestTerm = kernel == DistanceKernel.CHEBYSHEV;
+        int pairCount = size * (size - 1) / 2;
+        int realAttributeCount = dataSet.realAttributeCount;
+        int categoricalAttributeCount = catValDist instanceof HammingDistance ? dataSet.categoricalAttributeCount : 0;
+        float[] realValues = dataSet.realValues();
+        int[] categoricalValues = dataSet.categoricalValues();
+        realTerms = new double[realAttributeCount][pairCount];
+        categoricalDifferences = new boolean[categoricalAttributeCount][pairCount];
+        for (int row1 = 1; row1 < size; row1++) {
+            for (int row2 = 0; row2 < row1; row2++) {
+                int pair = pair(row1, row2);
+                for (int i = 0; i < realAttributeCount; i++) {
+                    // the ranking distance over a single attribute is that attribute's term
+                    realTerms[i][pair] = kernel.rankingDistance(realValues, row1 * realAttributeCount + i, realValues, row2 * realAttributeCount + i, 1);
+                }
+                for (int i = 0; i < categoricalAttributeCount; i++) {
+                    categoricalDifferences[i][pair] = categoricalValues[row1 * dataSet.categoricalAttributeCount + i] != categoricalValues[row2 * dataSet.categoricalAttributeCount + i];
+                }
+            }
+        }
+        selected = new boolean[realAttributeCount + categoricalAttributeCount];
+        realSums = new double[pairCount];
+        differenceCounts = new int[pairCount];
+        largestAttributes = largestTerm ? new int[pairCount] : null;
+        secondLargestTerms = largestTerm ? new double[pairCount] : null;
+        update();
+    }
+
+    private static int pair(int row1, int row2) {
+        return row1 > row2 ? row1 * (row1 - 1) / 2 + row2 : row2 * (row2 - 1) / 2 + row1;
+    }
+
+    /**
+     * @return how many attributes can be selected: the real value attributes, then the categorical
+     * attributes if they're compared with the Hamming distance
+     */
+    int attributeCount() {
+        return selected.length;
+    }
+
+    /**
+     * @return if the attribute is in the subset
+     */
+    boolean isSelected(int attribute) {
+        return selected[attribute];
+    }
+
+    /**
+     * Adds an attribute to the subset if it isn't in it, otherwise takes it out.
+     * Not thread safe: no distances may be computed at the same time
+     */
+    void toggle(int attribute) {
+        selected[attribute] = !selected[attribute];
+        update();
+    }
+
+    /**
+     * Computes the sums over the subset again from the terms
+     */
+    private void update() {
+        int realAttributeCount = realTerms.length;
+        selectedCategoricalCount = 0;
+        for (int i = 0; i < categoricalDifferences.length; i++) {
+            if (selected[realAttributeCount + i]) {
+                selectedCategoricalCount++;
+            }
+        }
+        for (int pair = 0; pair < realSums.length; pair++) {
+            double sum = 0, secondLargest = 0;
+            int largestAttribute = -1;
+            for (int i = 0; i < realAttributeCount; i++) {
+                if (!selected[i]) {
+                    continue;
+                }
+                double term = realTerms[i][pair];
+                if (!largestTerm) {
+                    sum += term;
+                } else if (largestAttribute == -1 || term > sum) {
+                    secondLargest = sum;
+                    sum = term;
+                    largestAttribute = i;
+                } else {
+                    secondLargest = Math.max(secondLargest, term);
+                }
+            }
+            realSums[pair] = sum;
+            if (largestTerm) {
+                largestAttributes[pair] = largestAttribute;
+                secondLargestTerms[pair] = secondLargest;
+            }
+            int differenceCount = 0;
+            for (int i = 0; i < categoricalDifferences.length; i++) {
+                if (selected[realAttributeCount + i] && categoricalDifferences[i][pair]) {
+                    differenceCount++;
+                }
+            }
+            differenceCounts[pair] = differenceCount;
+        }
+    }
+
+    /**
+     * Returns the distance between two rows over the subset, or over the subset with one attribute toggled
+     * @param row1 the first row
+     * @param row2 the second row, which must differ from the first
+     * @param toggledAttribute the attribute to add to the subset if it isn't in it and to take out if it is,
+     *                         or -1 for the subset as it is
+     * @return the real value distance plus the categorical value distance
+     */
+    double distance(int row1, int row2, int toggledAttribute) {
+        int pair = pair(row1, row2);
+        double realSum = realSums[pair];
+        int differenceCount = differenceCounts[pair];
+        int categoricalCount = selectedCategoricalCount;
+        if (toggledAttribute >= realTerms.length) {
+            int attribute = toggledAttribute - realTerms.length;
+            int difference = categoricalDifferences[attribute][pair] ? 1 : 0;
+            if (selected[toggledAttribute]) {
+                differenceCount -= difference;
+                categoricalCount--;
+            } else {
+                differenceCount += difference;
+                categoricalCount++;
+            }
+        } else if (toggledAttribute >= 0) {
+            double term = realTerms[toggledAttribute][pair];
+            if (!selected[toggledAttribute]) {
+                realSum = largestTerm ? Math.max(realSum, term) : realSum + term;
+            } else if (largestTerm) {
+                realSum = largestAttributes[pair] == toggledAttribute ? secondLargestTerms[pair] : realSum;
+            } else {
+                realSum = Math.max(0, realSum - term);
+            }
+        }
+        return kernel.toDistance(realSum) + (categoricalCount == 0 ? 0 : (double) differenceCount / categoricalCount);
+    }
+}
@@ -0,0 +1,185 @@
+package algorithm;
+
+import distanceFunctions.CategoricalValueDistanceFunction;
+import distanceFunctions.HammingDistance;
+import distanceFunctions.IgnoreCategoricalValues;
+import distanceFunctions.MinkowskiDistance;
+import distanceFunctions.RealValueDistanceFunction;
+
+import java.util.Arrays;
+
+/**
+ * Neighbor index that rules rows out with distances to a few pivot rows, computed when the index is built.
+ * By the triangle inequality a row r is at least |d(q, p) - d(r, p)| away from the query q for every pivot p,
+ * so once the query's distances to the pivots are known, a row whose bound is larger than the current k-th
+ * nearest distance is skipped without touching its values. The other rows are scanned in order like a brute
+ * force index, so the results are the same as a full scan. The pivots are picked farthest first, each one
+ * as far as possible from the ones before it, which spreads them over the data.
+ *
+ * Only works for distances that satisfy the triangle inequality: a Minkowski distance with p of at least 1,
+ * plus the Hamming distance or no categorical distance at all.
+ */
+public class PivotIndex implements NeighborIndex {
+
+    /**
+     * How many pivots are picked
+     */
+    static final int PIVOT_COUNT = 8;
+
+    /**
+     * The values are subtracted as floats, so the computed distances only satisfy the triangle inequality up to
+     * rounding. A bound is lowered by this fraction of the two distances it's computed from to make up for that
+     */
+    private static final double PIVOT_MARGIN = 1e-6;
+
+    private final DataSet dataSet;
+    private final int[] rows;
+    private final RealValueDistanceFunction realValDist;
+    private final CategoricalValueDistanceFunction catValDist;
+
+    /**
+     * The rows picked as pivots
+     */
+    private final int[] pivots;
+
+    /**
+     * The distance from every row to every pivot. The distances of the row at position i in rows
+     * occupy the indices [i*pivots.length, (i+1)*pivots.length)
+     */
+    private final double[] pivotDistances;
+
+    /**
+     * @param dataSet the data set the rows belong to
+     * @param rows the rows to index
+     * @param realValDist distance function to use for real value attributes
+     * @param catValDist distance function to use for categorical value attributes
+     */
+    public PivotIndex(DataSet dataSet, int[] rows, RealValueDistanceFunction realValDist, CategoricalValueDistanceFunction catValDist) {
+        if (!isMetric(realValDist, catValDist)) {
+            throw new IllegalArgumentException("A pivot index needs a distance that satisfies the triangle inequality, got "
+                    + realValDist + " and " + catValDist);
+        }
+        this.dataSet = dataSet;
+        this.rows = rows;
+        this.realValDist = realValDist;
+        this.catValDist = catValDist;
+        int pivotCount = Math.min(PIVOT_COUNT, rows.length);
+        double[] distances = new double[rows.length * pivotCount];
+        // the distance from every row to the nearest pivot picked so far
+        double[] nearestPivot = new double[rows.length];
+        int[] picked = new int[pivotCount];
+        int count = 0;
+        if (rows.length > 0) {
+            int next = farthest(distanceTo(rows[0], nearestPivot));
+            while (count < pivotCount) {
+                picked[count] = rows[next];
+                for (int i = 0; i < rows.length; i++) {
+                    double distance = distance(rows[i], dataSet, rows[next]);
+                    distances[i * pivotCount + count] = distance;
+                    nearestPivot[i] = count == 0 ? distance : Math.min(nearestPivot[i], distance);
+                }
+                count++;
+                next = farthest(nearestPivot);
+                if (nearestPivot[next] == 0) {
+                    // every row is a copy of a pivot, more pivots wouldn't rule anything else out
+                    break;
+                }
+            }
+        }
+        this.pivots = Arrays.copyOf(picked, count);
+        if (count < pivotCount) {
+            // drop the columns of the pivots that weren't picked
+            double[] packed = new double[rows.length * count];
+            for (int i = 0; i < rows.length; i++) {
+                System.arraycopy(distances, i * pivotCount, packed, i * count, count);
+            }
+            distances = packed;
+        }
+        this.pivotDistances = distances;
+    }
+
+    /**
+     * Returns true if the sum of the two distance functions satisfies the triangle inequality, which the
+     * bounds of the index rely on
+     */
+    static boolean isMetric(RealValueDistanceFunction realValDist, CategoricalValueDistanceFunction catValDist) {
+        return realValDist instanceof MinkowskiDistance && ((MinkowskiDistance) realValDist).getP() >= 1
+                && (catValDist instanceof HammingDistance || catValDist instanceof IgnoreCategoricalValues);
+    }
+
+    /**
+     * Returns true if the pivots are likely to beat a brute force scan: computing a row's bounds has to be
+     * cheaper than computing its distance, and there have to be enough rows to pay for the distances to the pivots
+     * @param attributeCount how many real and categorical value attributes the rows have
+     * @param rowCount how many rows would be indexed
+     */
+    static boolean isUseful(int attributeCount, int rowCount) {
+        return attributeCount > PIVOT_COUNT && rowCount >= 16 * PIVOT_COUNT;
+    }
+
+    /**
+     * @return the distance from an indexed row to a row of the given data set
+     */
+    private double distance(int row, DataSet queries, int query) {
+        return realValDist.distance(dataSet, row, queries, query) + catValDist.distance(dataSet, row, queries, query);
+    }
+
+    /**
+     * Fills the array with the distance from every indexed row to the given row
+     */
+    private double[] distanceTo(int row, double[] distances) {
+        for (int i = 0; i < rows.length; i++) {
+            distances[i] = distance(rows[i], dataSet, row);
+        }
+        return distances;
+    }
+
+    /**
+     * @return the position of the largest distance, the first one if there are several
+     */
+    private static int farthest(double[] distances) {
+        int farthest = 0;
+        for (int i = 1; i < distances.length; i++) {
+            if (distances[i] > distances[farthest]) {
+                farthest = i;
+            }
+        }
+        return farthest;
+    }
+
+    @Override
+    public void search(DataPoint query, NeighborHeap nearestNeighbors) {
+        int pivotCount = pivots.length;
+        double[] queryDistances = new double[pivotCount];
+        for (int j = 0; j < pivotCount; j++) {
+            queryDistances[j] = distance(pivots[j], query.dataSet, query.index);
+        }
+        int computed = pivotCount;
+        for (int i = 0; i < rows.length; i++) {
+            double worstDistance = nearestNeighbors.worstDistance();
+            if (isRuledOut(i, queryDistances, worstDistance)) {
+                continue;
+            }
+            computed++;
+            double distance = realValDist.distance(dataSet, rows[i], query.dataSet, query.index, worstDistance);
+            if (distance <= worstDistance) {
+                nearestNeighbors.offer(distance + catValDist.distance(dataSet, rows[i], query.dataSet, query.index), rows[i]);
+            }
+        }
+        nearestNeighbors.countDistances(computed);
+    }
+
+    /**
+     * Returns true if one of the pivots shows that the row at the given position is farther away than the worst distance
+     */
+    private boolean isRuledOut(int position, double[] queryDistances, double worstDistance) {
+        int pivotCount = queryDistances.length;
+        for (int j = 0; j < pivotCount; j++) {
+            double queryDistance = queryDistances[j], rowDistance = pivotDistances[position * pivotCount + j];
+            if (Math.abs(queryDistance - rowDistance) - PIVOT_MARGIN * (queryDistance + rowDistance) > worstDistance) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
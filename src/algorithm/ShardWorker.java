@@ -0,0 +1,423 @@
+package algorithm;
+
+import distanceFunctions.CategoricalValueDistanceFunction;
+import distanceFunctions.ChebyshevDistance;
+import distanceFunctions.HammingDistance;
+import distanceFunctions.IgnoreCategoricalValues;
+import distanceFunctions.MinkowskiDistance;
+import distanceFunctions.RealValueDistanceFunction;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+
+/**
+ * A worker that holds one shard of a training set and searches it for the coordinator,
+ * ShardedNearestNeighbors, over a socket. The coordinator sends the worker its rows, already normalized,
+ * each with its global row number and its cross-validation fold. The worker then builds an index over
+ * its rows for every fold, leaving the fold out, and one over all of its rows, and answers searches
+ * with the k nearest neighbors in its shard of every query, by global row number, with their target values.
+ *
+ * Every connection gets a shard of its own, so one worker can serve several coordinators.
+ * Workers can run in the coordinator's JVM with start, or in JVMs of their own: started by hand with
+ * java algorithm.ShardWorker [port], or by the coordinator's JVM with launch. They only listen on the
+ * loopback interface, since the protocol has no authentication.
+ *
+ * The protocol: every request starts with a byte saying what it is, followed by its values, written
+ * with a DataOutputStream. The worker answers every request, except CLOSE, with OK followed by the
+ * answer, or ERROR followed by a message, after which it closes the connection.
+ */
+public class ShardWorker {
+
+    /**
+     * The requests.
+     * SETUP: real value attribute count, categorical attribute count, whether the target is real, the
+     *        real value distance function, the categorical value distance function and the index type
+     * ROWS: row count, then for every row its global row number, fold, real values, categorical codes and target
+     * BUILD: nothing, builds the indexes and answers with the number of rows in the shard
+     * SEARCH: k, the fold to leave out or -1, query count, then for every query its real values and categorical codes.
+     *         Answers with, for every query, the neighbor count and every neighbor's distance, global row number and target
+     */
+    static final byte CLOSE = 0, SETUP = 1, ROWS = 2, BUILD = 3, SEARCH = 4;
+    static final byte OK = 0, ERROR = 1;
+
+    /**
+     * The fold that leaves no rows out of the training set
+     */
+    static final int NO_FOLD = -1;
+
+    /**
+     * Printed by a worker on a JVM of its own once it listens, followed by its port
+     */
+    private static final String LISTENING = "Listening on port ";
+
+    private final ServerSocket serverSocket;
+
+    /**
+     * The pool that blocks of queries are searched in, or null to search them on the connection's thread
+     */
+    private final ForkJoinPool pool;
+
+    private ShardWorker(ServerSocket serverSocket, ForkJoinPool pool) {
+        this.serverSocket = serverSocket;
+        this.pool = pool;
+    }
+
+    /**
+     * Starts a worker in this JVM that listens on the loopback interface, on threads of its own.
+     * It stops when the JVM exits
+     * @param pool pool to search blocks of queries in, or null to search them sequentially
+     * @return the address the worker listens on
+     */
+    public static InetSocketAddress start(ForkJoinPool pool) throws IOException {
+        ServerSocket serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        ShardWorker worker = new ShardWorker(serverSocket, pool);
+        Thread thread = new Thread(worker::serve, "shard worker " + serverSocket.getLocalPort());
+        thread.setDaemon(true);
+        thread.start();
+        return (InetSocketAddress) serverSocket.getLocalSocketAddress();
+    }
+
+    /**
+     * Launches a worker in a JVM of its own, with the same class path as this one, listening on the loopback interface
+     * @return the worker, which the caller should close when it's done with it
+     */
+    public static WorkerProcess launch() throws IOException {
+        String java = System.getProperty("java.home") + "/bin/java";
+        return new WorkerProcess(new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"), ShardWorker.class.getName(), "0")
+                .redirectError(ProcessBuilder.Redirect.INHERIT)
+                .start());
+    }
+
+    /**
+     * A worker running in a JVM of its own
+     */
+    public static class WorkerProcess implements Closeable {
+
+        private final Process process;
+
+        /**
+         * The loopback address the worker listens on
+         */
+        public final InetSocketAddress address;
+
+        /**
+         * Waits for the worker to print the port it listens on
+         */
+        private WorkerProcess(Process process) throws IOException {
+            this.process = process;
+            BufferedReader out = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8));
+            String line = out.readLine();
+            if (line == null || !line.startsWith(LISTENING)) {
+                process.destroy();
+                throw new IOException("The shard worker didn't start: " + line);
+            }
+            this.address = new InetSocketAddress(InetAddress.getLoopbackAddress(), Integer.parseInt(line.substring(LISTENING.length())));
+        }
+
+        /**
+         * Stops the worker's JVM
+         */
+        @Override
+        public void close() {
+            process.destroy();
+        }
+    }
+
+    /**
+     * Accepts connections until the server socket is closed, serving each on a thread of its own
+     */
+    private void serve() {
+        while (true) {
+            Socket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (IOException e) {
+                return;
+            }
+            Thread thread = new Thread(() -> serve(socket), "shard worker connection " + socket.getRemoteSocketAddress());
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /**
+     * Answers the requests of one coordinator until it closes the connection
+     */
+    private void serve(Socket socket) {
+        try (Socket s = socket) {
+            s.setTcpNoDelay(true);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream(), 1 << 16));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream(), 1 << 16));
+            Shard shard = null;
+            while (true) {
+                byte request = in.readByte();
+                if (request == CLOSE) {
+                    return;
+                }
+                try {
+                    if (request == SETUP) {
+                        shard = new Shard(in);
+                        out.writeByte(OK);
+                    } else if (shard == null) {
+                        throw new IllegalStateException("The shard hasn't been set up");
+                    } else if (request == ROWS) {
+                        shard.addRows(in);
+                        out.writeByte(OK);
+                    } else if (request == BUILD) {
+                        shard.build();
+                        out.writeByte(OK);
+                        out.writeInt(shard.dataSet.size());
+                    } else if (request == SEARCH) {
+                        shard.search(in, out);
+                    } else {
+                        throw new IllegalStateException("Unknown request " + request);
+                    }
+                } catch (RuntimeException | IOException e) {
+                    // the rest of the request can't be read, so the connection ends after the error
+                    out.writeByte(ERROR);
+                    out.writeUTF(e.getMessage() != null ? e.getMessage() : e.toString());
+                    out.flush();
+                    return;
+                }
+                out.flush();
+            }
+        } catch (IOException e) {
+            // the coordinator went away, or the connection broke while an error was sent, so there's no one to tell
+        }
+    }
+
+    /**
+     * The rows a coordinator sent, and the indexes over them
+     */
+    private class Shard {
+
+        private final DataSet dataSet;
+        private final RealValueDistanceFunction realValDist;
+        private final CategoricalValueDistanceFunction catValDist;
+        private final NeighborIndexType indexType;
+
+        /**
+         * The global row number and fold of every row of the shard
+         */
+        private int[] globalRows = new int[16], folds = new int[16];
+
+        /**
+         * The index over every row outside each fold, and the index over all rows
+         */
+        private NeighborIndex[] foldIndexes;
+        private NeighborIndex index;
+
+        /**
+         * Reads a SETUP request
+         */
+        Shard(DataInputStream in) throws IOException {
+            Attribute[] realAttributes = new Attribute[in.readInt()];
+            for (int i = 0; i < realAttributes.length; i++) {
+                realAttributes[i] = new Attribute("real" + i);
+            }
+            Attribute[] categoricalAttributes = new Attribute[in.readInt()];
+            for (int i = 0; i < categoricalAttributes.length; i++) {
+                categoricalAttributes[i] = new Attribute("categorical" + i, Collections.emptyList());
+            }
+            // the codes are sent as they are, so the attributes don't need the values they stand for
+            Attribute targetAttribute = in.readBoolean() ? new Attribute("target") : new Attribute("target", Collections.emptyList());
+            dataSet = new DataSet(realAttributes, categoricalAttributes, targetAttribute);
+            realValDist = realValueDistanceFunction(in.readUTF());
+            catValDist = categoricalValueDistanceFunction(in.readUTF());
+            indexType = NeighborIndexType.valueOf(in.readUTF());
+        }
+
+        /**
+         * Reads a ROWS request
+         */
+        void addRows(DataInputStream in) throws IOException {
+            int count = in.readInt();
+            int firstRow = dataSet.addRows(count);
+            if (globalRows.length < dataSet.size()) {
+                globalRows = Arrays.copyOf(globalRows, Math.max(2 * globalRows.length, dataSet.size()));
+                folds = Arrays.copyOf(folds, globalRows.length);
+            }
+            float[] realValues = dataSet.realValues();
+            int[] categoricalValues = dataSet.categoricalValues();
+            for (int row = firstRow; row < firstRow + count; row++) {
+                globalRows[row] = in.readInt();
+                folds[row] = in.readInt();
+                readRow(in, realValues, row * dataSet.realAttributeCount, dataSet.realAttributeCount, categoricalValues, row * dataSet.categoricalAttributeCount, dataSet.categoricalAttributeCount);
+                if (dataSet.targetAttribute.isReal) {
+                    dataSet.setTargetValue(row, in.readDouble());
+                } else {
+                    dataSet.setTargetClass(row, (int) in.readDouble());
+                }
+            }
+            foldIndexes = null;
+            index = null;
+        }
+
+        /**
+         * Builds the index over all rows and over the rows outside every fold that occurs in the shard
+         */
+        void build() {
+            int foldCount = 0;
+            for (int row = 0; row < dataSet.size(); row++) {
+                foldCount = Math.max(foldCount, folds[row] + 1);
+            }
+            index = indexType.build(dataSet, IntStream.range(0, dataSet.size()).toArray(), realValDist, catValDist);
+            foldIndexes = new NeighborIndex[foldCount];
+            forEach(foldCount, fold -> {
+                int[] rows = IntStream.range(0, dataSet.size()).filter(row -> folds[row] != fold).toArray();
+                foldIndexes[fold] = indexType.build(dataSet, rows, realValDist, catValDist);
+            });
+        }
+
+        /**
+         * Reads a SEARCH request and answers it
+         */
+        void search(DataInputStream in, DataOutputStream out) throws IOException {
+            int k = in.readInt();
+            int fold = in.readInt();
+            int count = in.readInt();
+            DataSet queries = new DataSet(dataSet, new int[0]);
+            queries.addRows(count);
+            for (int q = 0; q < count; q++) {
+                readRow(in, queries.realValues(), q * queries.realAttributeCount, queries.realAttributeCount, queries.categoricalValues(), q * queries.categoricalAttributeCount, queries.categoricalAttributeCount);
+            }
+            if (index == null) {
+                throw new IllegalStateException("The shard's indexes haven't been built");
+            }
+            // a fold that has no rows in this shard leaves every row in
+            NeighborIndex foldIndex = fold == NO_FOLD || fold >= foldIndexes.length ? index : foldIndexes[fold];
+            NeighborHeap[] nearestNeighbors = new NeighborHeap[count];
+            int blockSize = NearestNeighborsModel.QUERY_BLOCK_SIZE;
+            forEach((count + blockSize - 1) / blockSize, block -> {
+                int from = block * blockSize, to = Math.min(from + blockSize, count);
+                for (int q = from; q < to; q++) {
+                    nearestNeighbors[q] = new NeighborHeap(k);
+                }
+                NeighborHeap[] blockNeighbors = new NeighborHeap[to - from];
+                System.arraycopy(nearestNeighbors, from, blockNeighbors, 0, to - from);
+                foldIndex.search(queries, from, to, blockNeighbors);
+                for (NeighborHeap heap : blockNeighbors) {
+                    heap.sort();
+                }
+            });
+            out.writeByte(OK);
+            for (NeighborHeap heap : nearestNeighbors) {
+                out.writeInt(heap.size());
+                for (int i = 0; i < heap.size(); i++) {
+                    int row = heap.getIndex(i);
+                    out.writeDouble(heap.getDistance(i));
+                    out.writeInt(globalRows[row]);
+                    out.writeDouble(dataSet.targetAttribute.isReal ? dataSet.getTargetValue(row) : dataSet.getTargetClass(row));
+                }
+            }
+        }
+    }
+
+    /**
+     * Runs the action for every index in [0, count), in the pool if there is one
+     */
+    private void forEach(int count, IntConsumer action) {
+        if (pool == null) {
+            for (int i = 0; i < count; i++) {
+                action.accept(i);
+            }
+        } else {
+            pool.submit(() -> IntStream.range(0, count).parallel().forEach(action)).join();
+        }
+    }
+
+    /**
+     * Writes the real values and categorical codes of a row
+     */
+    static void writeRow(DataOutputStream out, float[] realValues, int realOffset, int realCount, int[] categoricalValues, int categoricalOffset, int categoricalCount) throws IOException {
+        for (int i = 0; i < realCount; i++) {
+            out.writeFloat(realValues[realOffset + i]);
+        }
+        for (int i = 0; i < categoricalCount; i++) {
+            out.writeInt(categoricalValues[categoricalOffset + i]);
+        }
+    }
+
+    private static void readRow(DataInputStream in, float[] realValues, int realOffset, int realCount, int[] categoricalValues, int categoricalOffset, int categoricalCount) throws IOException {
+        for (int i = 0; i < realCount; i++) {
+            realValues[realOffset + i] = in.readFloat();
+        }
+        for (int i = 0; i < categoricalCount; i++) {
+            categoricalValues[categoricalOffset + i] = in.readInt();
+        }
+    }
+
+    /**
+     * @return the name a real value distance function is sent to the workers as
+     */
+    static String realValueDistanceName(RealValueDistanceFunction realValDist) {
+        if (realValDist instanceof ChebyshevDistance) {
+            return "chebyshev";
+        }
+        if (realValDist.getClass() == MinkowskiDistance.class) {
+            return "minkowski " + ((MinkowskiDistance) realValDist).getP();
+        }
+        throw new IllegalArgumentException(realValDist + " can't be used by shard workers");
+    }
+
+    /**
+     * @return the name a categorical value distance function is sent to the workers as
+     */
+    static String categoricalValueDistanceName(CategoricalValueDistanceFunction catValDist) {
+        if (catValDist instanceof HammingDistance) {
+            return "hamming";
+        }
+        if (catValDist instanceof IgnoreCategoricalValues) {
+            return "ignore";
+        }
+        throw new IllegalArgumentException(catValDist + " can't be used by shard workers");
+    }
+
+    private static RealValueDistanceFunction realValueDistanceFunction(String name) {
+        if (name.equals("chebyshev")) {
+            return new ChebyshevDistance();
+        }
+        if (name.startsWith("minkowski ")) {
+            return new MinkowskiDistance(Integer.parseInt(name.substring("minkowski ".length())));
+        }
+        throw new IllegalArgumentException("Unknown real value distance function " + name);
+    }
+
+    private static CategoricalValueDistanceFunction categoricalValueDistanceFunction(String name) {
+        if (name.equals("hamming")) {
+            return new HammingDistance();
+        }
+        if (name.equals("ignore")) {
+            return new IgnoreCategoricalValues();
+        }
+        throw new IllegalArgumentException("Unknown categorical value distance function " + name);
+    }
+
+    /**
+     * Runs a worker on the loopback interface until the JVM is stopped
+     * @param args the port to listen on, or nothing or 0 for any free port
+     */
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 0;
+        ServerSocket serverSocket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+        System.out.println(LISTENING + serverSocket.getLocalPort());
+        System.out.flush();
+        new ShardWorker(serverSocket, new ForkJoinPool(Runtime.getRuntime().availableProcessors())).serve();
+    }
+}
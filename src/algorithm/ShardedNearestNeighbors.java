@@ -0,0 +1,407 @@
+package algorithm;
+
+import distanceFunctions.CategoricalValueDistanceFunction;
+import distanceFunctions.RealValueDistanceFunction;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * k-NearestNeighbor predictions over a training set that is split into shards, each held by a ShardWorker
+ * in a process of its own. Row r of the training set goes to shard r % the number of shards. To predict a
+ * batch of queries, every worker is sent the whole batch and searches its shard at the same time as the
+ * others, and the coordinator merges the k nearest neighbors of every shard into the k nearest overall
+ * before voting. Neighbors are ordered by distance and then by row, the same as in a single process, so the
+ * predictions are the same as those of a NearestNeighborsModel over the whole training set.
+ *
+ * Every row is sent with its cross-validation fold, and a batch can leave a fold out of the training set,
+ * which is how NearestNeighbors cross-validates over shards. The coordinator only holds one batch of rows
+ * at a time while sending them, so the training set as a whole doesn't have to fit in its memory.
+ */
+public class ShardedNearestNeighbors implements Closeable {
+
+    /**
+     * How many queries are sent to the workers in one request
+     */
+    static final int SEARCH_BATCH_SIZE = 1024;
+
+    /**
+     * The connection to each shard's worker
+     */
+    private final Shard[] shards;
+
+    /**
+     * An empty data set with the attributes of the training set, which queries are normalized against
+     */
+    private final DataSet schema;
+
+    /**
+     * The normalization that was applied to the training set, and is applied to every query
+     */
+    private final Normalization normalization;
+
+    /**
+     * The possible values of the target attribute if it's categorical, otherwise null
+     */
+    private final String[] classificationTargetAttributeValues;
+
+    /**
+     * k: How many neighbors to consider
+     * useDistanceWeighting: If the neighbors should be distance weighted
+     */
+    private final int k;
+    private final boolean useDistanceWeighting;
+
+    /**
+     * How many rows have been sent to the shards
+     */
+    private int size;
+
+    /**
+     * Set once the connections are closed, which they are as soon as a request fails: the shards that
+     * didn't fail may have left answers unread, so the connections can't be trusted with another request
+     */
+    private boolean closed;
+
+    /**
+     * Connects to the workers and sets up an empty shard on each of them
+     * @param workers the addresses of the workers, one per shard
+     * @param schema a data set with the attributes of the training set, which may be empty
+     * @param normalization the normalization that was applied to the training set
+     * @param k how many neighbors to consider
+     * @param useDistanceWeighting if the neighbors should be distance weighted
+     * @param realValDist distance function to use for real value attributes, a MinkowskiDistance or ChebyshevDistance
+     * @param catValDist distance function to use for categorical value attributes, a HammingDistance or IgnoreCategoricalValues
+     * @param indexType which kind of index the workers search their shards with
+     */
+    public ShardedNearestNeighbors(List<InetSocketAddress> workers, DataSet schema, Normalization normalization, int k, boolean useDistanceWeighting, RealValueDistanceFunction realValDist, CategoricalValueDistanceFunction catValDist, NeighborIndexType indexType) throws IOException {
+        if (workers.isEmpty()) {
+            throw new IllegalArgumentException("There must be at least one worker");
+        }
+        Attribute targetAttribute = schema.targetAttribute;
+        if (targetAttribute == null) {
+            throw new IllegalArgumentException("The data set has no target attribute");
+        }
+        this.schema = new DataSet(schema, new int[0]);
+        this.normalization = normalization;
+        this.k = k;
+        this.useDistanceWeighting = useDistanceWeighting;
+        this.classificationTargetAttributeValues = targetAttribute.isReal ? null : targetAttribute.getDeclaredValues();
+        String realValDistName = ShardWorker.realValueDistanceName(realValDist);
+        String catValDistName = ShardWorker.categoricalValueDistanceName(catValDist);
+        shards = new Shard[workers.size()];
+        try {
+            for (int i = 0; i < shards.length; i++) {
+                shards[i] = new Shard(i, workers.get(i));
+                DataOutputStream out = shards[i].out;
+                out.writeByte(ShardWorker.SETUP);
+                out.writeInt(schema.realAttributeCount);
+                out.writeInt(schema.categoricalAttributeCount);
+                out.writeBoolean(targetAttribute.isReal);
+                out.writeUTF(realValDistName);
+                out.writeUTF(catValDistName);
+                out.writeUTF(indexType.name());
+                out.flush();
+            }
+            for (Shard shard : shards) {
+                shard.readStatus();
+            }
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * Connects to the workers and sends them the rows of a binary data set file a chunk at a time
+     * @param workers the addresses of the workers, one per shard
+     * @param filename the name of the binary data set file
+     * @param ignoredAttributes the names of attributes to leave out
+     * @param k how many neighbors to consider
+     * @param useDistanceWeighting if the neighbors should be distance weighted
+     * @param realValDist distance function to use for real value attributes, a MinkowskiDistance or ChebyshevDistance
+     * @param catValDist distance function to use for categorical value attributes, a HammingDistance or IgnoreCategoricalValues
+     * @param indexType which kind of index the workers search their shards with
+     * @return the coordinator, with the workers' indexes built
+     */
+    public static ShardedNearestNeighbors fromBinaryFile(List<InetSocketAddress> workers, String filename, Collection<String> ignoredAttributes, int k, boolean useDistanceWeighting, RealValueDistanceFunction realValDist, CategoricalValueDistanceFunction catValDist, NeighborIndexType indexType) throws IOException {
+        try (BinaryDataSetFile in = new BinaryDataSetFile(filename)) {
+            ShardedNearestNeighbors sharded = new ShardedNearestNeighbors(workers, in.read(0, 0, ignoredAttributes), in.getNormalization(ignoredAttributes), k, useDistanceWeighting, realValDist, catValDist, indexType);
+            try {
+                for (int start = 0; start < in.size(); start += OutOfCoreNearestNeighbors.DEFAULT_CHUNK_ROWS) {
+                    sharded.addRows(in.read(start, Math.min(start + OutOfCoreNearestNeighbors.DEFAULT_CHUNK_ROWS, in.size()), ignoredAttributes), null);
+                }
+                sharded.build();
+            } catch (IOException e) {
+                sharded.close();
+                throw e;
+            }
+            return sharded;
+        }
+    }
+
+    /**
+     * Sends rows to the shards. They come after the rows that were sent before
+     * @param rows the rows, already normalized, with the attributes of the training set
+     * @param folds the cross-validation fold of every row, or null if the rows aren't used for cross-validation
+     */
+    public synchronized void addRows(DataSet rows, int[] folds) throws IOException {
+        ensureOpen();
+        try {
+            sendRows(rows, folds);
+        } catch (IOException e) {
+            throw closeAfter(e);
+        }
+        size += rows.size();
+    }
+
+    private void sendRows(DataSet rows, int[] folds) throws IOException {
+        for (Shard shard : shards) {
+            int count = 0;
+            for (int row = 0; row < rows.size(); row++) {
+                if ((size + row) % shards.length == shard.index) {
+                    count++;
+                }
+            }
+            DataOutputStream out = shard.out;
+            out.writeByte(ShardWorker.ROWS);
+            out.writeInt(count);
+            for (int row = 0; row < rows.size(); row++) {
+                if ((size + row) % shards.length != shard.index) {
+                    continue;
+                }
+                out.writeInt(size + row);
+                out.writeInt(folds == null ? ShardWorker.NO_FOLD : folds[row]);
+                ShardWorker.writeRow(out, rows.realValues(), row * rows.realAttributeCount, rows.realAttributeCount, rows.categoricalValues(), row * rows.categoricalAttributeCount, rows.categoricalAttributeCount);
+                out.writeDouble(rows.targetAttribute.isReal ? rows.getTargetValue(row) : rows.getTargetClass(row));
+            }
+            out.flush();
+        }
+        for (Shard shard : shards) {
+            shard.readStatus();
+        }
+    }
+
+    /**
+     * Has every worker build the indexes over its shard, which has to be done before predicting
+     */
+    public synchronized void build() throws IOException {
+        ensureOpen();
+        try {
+            for (Shard shard : shards) {
+                shard.out.writeByte(ShardWorker.BUILD);
+                shard.out.flush();
+            }
+            for (Shard shard : shards) {
+                shard.readStatus();
+                shard.in.readInt();
+            }
+        } catch (IOException e) {
+            throw closeAfter(e);
+        }
+    }
+
+    /**
+     * @return true if the target attribute is categorical, false if it's a real value
+     */
+    public boolean isClassification() {
+        return classificationTargetAttributeValues != null;
+    }
+
+    /**
+     * @return the possible values of the target attribute, in the order predictBatch numbers them,
+     *         or null if the target attribute is a real value
+     */
+    public String[] getClassLabels() {
+        return classificationTargetAttributeValues == null ? null : classificationTargetAttributeValues.clone();
+    }
+
+    /**
+     * Predicts the target attribute of several data points over every row of every shard
+     * @param dataPoints the data points, without normalization, with the same real value and categorical
+     *                   attributes as the training set
+     * @return for each data point, the predicted value if the target attribute is a real value,
+     *         otherwise the index of the predicted value in getClassLabels()
+     */
+    public double[] predictBatch(List<DataPoint> dataPoints) throws IOException {
+        DataSet queries = NearestNeighborsModel.normalize(dataPoints, schema, normalization);
+        return predictBatch(queries, 0, queries.size(), ShardWorker.NO_FOLD);
+    }
+
+    /**
+     * Predicts the target attribute of a range of already normalized data points
+     * @param queries the data set holding the data points
+     * @param from the first data point
+     * @param to the data point after the last one
+     * @param fold the fold to leave out of the training set, or ShardWorker.NO_FOLD
+     * @return for each data point, the predicted value or the index of the predicted class
+     */
+    synchronized double[] predictBatch(DataSet queries, int from, int to, int fold) throws IOException {
+        ensureOpen();
+        try {
+            return search(queries, from, to, fold);
+        } catch (IOException e) {
+            throw closeAfter(e);
+        }
+    }
+
+    private double[] search(DataSet queries, int from, int to, int fold) throws IOException {
+        double[] predictions = new double[to - from];
+        NeighborHeap nearestNeighbors = new NeighborHeap(k);
+        DataSet neighbors = new DataSet(new Attribute[0], new Attribute[0], schema.targetAttribute);
+        neighbors.addRows(k);
+        // the neighbors every shard sent for one query, shard after shard, each shard's nearest first
+        double[] candidateDistances = new double[shards.length * k];
+        int[] candidateRows = new int[shards.length * k];
+        double[] candidateTargets = new double[shards.length * k];
+        int[] next = new int[shards.length], end = new int[shards.length];
+        for (int batchStart = from; batchStart < to; batchStart += SEARCH_BATCH_SIZE) {
+            int batchEnd = Math.min(batchStart + SEARCH_BATCH_SIZE, to);
+            for (Shard shard : shards) {
+                DataOutputStream out = shard.out;
+                out.writeByte(ShardWorker.SEARCH);
+                out.writeInt(k);
+                out.writeInt(fold);
+                out.writeInt(batchEnd - batchStart);
+                for (int q = batchStart; q < batchEnd; q++) {
+                    ShardWorker.writeRow(out, queries.realValues(), q * queries.realAttributeCount, queries.realAttributeCount, queries.categoricalValues(), q * queries.categoricalAttributeCount, queries.categoricalAttributeCount);
+                }
+                out.flush();
+            }
+            for (Shard shard : shards) {
+                shard.readStatus();
+            }
+            for (int q = batchStart; q < batchEnd; q++) {
+                int candidateCount = 0;
+                for (Shard shard : shards) {
+                    int count = shard.in.readInt();
+                    next[shard.index] = candidateCount;
+                    for (int i = 0; i < count; i++) {
+                        candidateDistances[candidateCount] = shard.in.readDouble();
+                        candidateRows[candidateCount] = shard.in.readInt();
+                        candidateTargets[candidateCount] = shard.in.readDouble();
+                        candidateCount++;
+                    }
+                    end[shard.index] = candidateCount;
+                }
+                // a shard numbers its rows in the order of their global rows, so each shard's neighbors are
+                // sorted by distance and then global row, and merging them keeps that order across shards
+                nearestNeighbors.clear();
+                for (int i = 0; i < k; i++) {
+                    int nearest = -1, nearestShard = -1;
+                    for (int shard = 0; shard < shards.length; shard++) {
+                        int candidate = next[shard];
+                        if (candidate < end[shard] && (nearest == -1 || candidateDistances[candidate] < candidateDistances[nearest]
+                                || candidateDistances[candidate] == candidateDistances[nearest] && candidateRows[candidate] < candidateRows[nearest])) {
+                            nearest = candidate;
+                            nearestShard = shard;
+                        }
+                    }
+                    if (nearest == -1) {
+                        break;
+                    }
+                    next[nearestShard]++;
+                    nearestNeighbors.offer(candidateDistances[nearest], i);
+                    if (isClassification()) {
+                        neighbors.setTargetClass(i, (int) candidateTargets[nearest]);
+                    } else {
+                        neighbors.setTargetValue(i, candidateTargets[nearest]);
+                    }
+                }
+                nearestNeighbors.sort();
+                predictions[q - from] = isClassification()
+                        ? NearestNeighborsModel.classify(nearestNeighbors, neighbors, classificationTargetAttributeValues.length, useDistanceWeighting)
+                        : NearestNeighborsModel.regress(nearestNeighbors, neighbors, useDistanceWeighting);
+            }
+        }
+        return predictions;
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("The connections to the shards are closed");
+        }
+    }
+
+    /**
+     * Closes the connections after a request failed, since the other shards' answers to it are still unread
+     * @param failure what made the request fail
+     * @return the failure, to be thrown
+     */
+    private IOException closeAfter(IOException failure) {
+        try {
+            close();
+        } catch (IOException e) {
+            failure.addSuppressed(e);
+        }
+        return failure;
+    }
+
+    /**
+     * Closes the connections to the workers, which drop their shards
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        IOException failure = null;
+        for (Shard shard : shards) {
+            if (shard == null) {
+                continue;
+            }
+            try {
+                shard.out.writeByte(ShardWorker.CLOSE);
+                shard.out.flush();
+            } catch (IOException e) {
+                // the connection is closed below either way
+            }
+            try {
+                shard.socket.close();
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * The connection to the worker of one shard
+     */
+    private static class Shard {
+
+        private final int index;
+        private final Socket socket;
+        private final DataInputStream in;
+        private final DataOutputStream out;
+
+        Shard(int index, InetSocketAddress address) throws IOException {
+            this.index = index;
+            this.socket = new Socket(address.getAddress(), address.getPort());
+            socket.setTcpNoDelay(true);
+            this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 1 << 16));
+            this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 1 << 16));
+        }
+
+        /**
+         * Reads the status that starts every answer
+         * @throws IOException with the worker's message if the request failed
+         */
+        void readStatus() throws IOException {
+            if (in.readByte() != ShardWorker.OK) {
+                throw new IOException("Shard " + index + " failed: " + in.readUTF());
+            }
+        }
+    }
+}
@@ -0,0 +1,222 @@
+package algorithm;
+
+import distanceFunctions.CategoricalValueDistanceFunction;
+import distanceFunctions.MinkowskiDistance;
+
+import java.util.Arrays;
+
+/**
+ * Base class for tree indexes over the real values of the rows.
+ * The rows are split recursively at the median of the attribute with the widest spread
+ * until at most LEAF_SIZE rows remain in a node. Each subclass keeps some summary of the
+ * rows under every node, from which it derives a lower bound on the real value distance
+ * from a query to any of those rows. Since the categorical value distance is never negative,
+ * a node whose lower bound is larger than the current k-th nearest distance can be skipped.
+ */
+abstract class SpatialTree implements NeighborIndex {
+
+    /**
+     * How many rows a node may contain before it is split
+     */
+    static final int LEAF_SIZE = 16;
+
+    /**
+     * Trees are only used for at most this many real value attributes. With more
+     * dimensions almost every node overlaps the query's neighborhood and the search
+     * ends up visiting every row anyway
+     */
+    static final int MAX_DIMENSIONS = 20;
+
+    final DataSet dataSet;
+    final MinkowskiDistance realValDist;
+    final CategoricalValueDistanceFunction catValDist;
+
+    /**
+     * How many real value attributes the rows have
+     */
+    final int dimensions;
+
+    /**
+     * The indexed rows, reordered so that the rows of every node are contiguous
+     */
+    private final int[] rows;
+
+    /**
+     * For each node: its range [nodeStart, nodeEnd) in rows, and its children (-1 for leaves)
+     */
+    private int[] nodeStart, nodeEnd, leftChild, rightChild;
+
+    /**
+     * How many nodes the tree has
+     */
+    int nodeCount;
+
+    SpatialTree(DataSet dataSet, int[] rows, MinkowskiDistance realValDist, CategoricalValueDistanceFunction catValDist) {
+        this.dataSet = dataSet;
+        this.rows = rows.clone();
+        this.realValDist = realValDist;
+        this.catValDist = catValDist;
+        this.dimensions = dataSet.realAttributeCount;
+        int capacity = 2 * (rows.length / LEAF_SIZE + 1);
+        nodeStart = new int[capacity];
+        nodeEnd = new int[capacity];
+        leftChild = new int[capacity];
+        rightChild = new int[capacity];
+    }
+
+    /**
+     * Returns true if a tree is likely to beat a brute force scan: the number of dimensions is
+     * small, and there are enough rows that most of the leaves can be ruled out by a single query
+     * @param dimensions how many real value attributes the rows have
+     * @param rowCount how many rows would be indexed
+     */
+    static boolean isUseful(int dimensions, int rowCount) {
+        return dimensions > 0 && dimensions <= MAX_DIMENSIONS && rowCount >= 1 << dimensions;
+    }
+
+    /**
+     * Builds the tree. Must be called by the subclass constructor once its own fields are set
+     */
+    void build() {
+        if (rows.length > 0) {
+            build(0, rows.length);
+        }
+    }
+
+    private int build(int start, int end) {
+        int node = nodeCount++;
+        if (node == nodeStart.length) {
+            int capacity = 2 * nodeStart.length;
+            nodeStart = Arrays.copyOf(nodeStart, capacity);
+            nodeEnd = Arrays.copyOf(nodeEnd, capacity);
+            leftChild = Arrays.copyOf(leftChild, capacity);
+            rightChild = Arrays.copyOf(rightChild, capacity);
+        }
+        nodeStart[node] = start;
+        nodeEnd[node] = end;
+        leftChild[node] = -1;
+        rightChild[node] = -1;
+        summarize(node, rows, start, end);
+        if (end - start <= LEAF_SIZE) {
+            return node;
+        }
+        // split at the median of the attribute with the widest spread
+        float[] realValues = dataSet.realValues();
+        int splitAttribute = -1;
+        float widestSpread = 0;
+        for (int attribute = 0; attribute < dimensions; attribute++) {
+            float min = Float.POSITIVE_INFINITY, max = Float.NEGATIVE_INFINITY;
+            for (int i = start; i < end; i++) {
+                float value = realValues[rows[i] * dimensions + attribute];
+                min = Math.min(min, value);
+                max = Math.max(max, value);
+            }
+            if (max - min > widestSpread) {
+                widestSpread = max - min;
+                splitAttribute = attribute;
+            }
+        }
+        if (splitAttribute == -1) {
+            // every row has the same real values, so there is nothing to split on
+            return node;
+        }
+        int middle = (start + end) >>> 1;
+        select(start, end, middle, splitAttribute);
+        int left = build(start, middle);
+        int right = build(middle, end);
+        leftChild[node] = left;
+        rightChild[node] = right;
+        return node;
+    }
+
+    /**
+     * Reorders rows[start, end) so that rows[nth] holds the row that would be there if the range
+     * was sorted by the given attribute, with smaller values before it and larger values after it
+     */
+    private void select(int start, int end, int nth, int attribute) {
+        float[] realValues = dataSet.realValues();
+        int low = start, high = end - 1;
+        while (low < high) {
+            float pivot = realValues[rows[(low + high) >>> 1] * dimensions + attribute];
+            int i = low, j = high;
+            while (i <= j) {
+                while (realValues[rows[i] * dimensions + attribute] < pivot) {
+                    i++;
+                }
+                while (realValues[rows[j] * dimensions + attribute] > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    int row = rows[i];
+                    rows[i] = rows[j];
+                    rows[j] = row;
+                    i++;
+                    j--;
+                }
+            }
+            if (nth <= j) {
+                high = j;
+            } else if (nth >= i) {
+                low = i;
+            } else {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Records whatever the subclass needs to bound the distance from a query to the rows of a node
+     * @param node the node
+     * @param rows the reordered rows
+     * @param start the index of the node's first row
+     * @param end one past the index of the node's last row
+     */
+    abstract void summarize(int node, int[] rows, int start, int end);
+
+    /**
+     * Returns a value that is no larger than the real value distance, as computed by realValDist,
+     * from the query to any row of the node
+     * @param node the node
+     * @param query the query
+     * @param scratch an array of length dimensions the subclass may use
+     */
+    abstract double lowerBound(int node, DataPoint query, float[] scratch);
+
+    @Override
+    public void search(DataPoint query, NeighborHeap nearestNeighbors) {
+        if (nodeCount > 0) {
+            search(0, query, nearestNeighbors, new float[dimensions]);
+        }
+    }
+
+    private void search(int node, DataPoint query, NeighborHeap nearestNeighbors, float[] scratch) {
+        int left = leftChild[node], right = rightChild[node];
+        if (left == -1) {
+            nearestNeighbors.countDistances(nodeEnd[node] - nodeStart[node]);
+            for (int i = nodeStart[node]; i < nodeEnd[node]; i++) {
+                double distance = realValDist.distance(dataSet, rows[i], query.dataSet, query.index, nearestNeighbors.worstDistance());
+                if (distance <= nearestNeighbors.worstDistance()) {
+                    nearestNeighbors.offer(distance + catValDist.distance(dataSet, rows[i], query.dataSet, query.index), rows[i]);
+                }
+            }
+            return;
+        }
+        double leftBound = lowerBound(left, query, scratch);
+        double rightBound = lowerBound(right, query, scratch);
+        // visit the closer child first, so that the farther one is more likely to be pruned
+        if (rightBound < leftBound) {
+            int child = left;
+            left = right;
+            right = child;
+            double bound = leftBound;
+            leftBound = rightBound;
+            rightBound = bound;
+        }
+        if (leftBound <= nearestNeighbors.worstDistance()) {
+            search(left, query, nearestNeighbors, scratch);
+        }
+        if (rightBound <= nearestNeighbors.worstDistance()) {
+            search(right, query, nearestNeighbors, scratch);
+        }
+    }
+}
@@ -1,8 +1,23 @@
 package distanceFunctions;
 
 import algorithm.DataPoint;
+import algorithm.DataSet;
 
+/**
+ * A distance between the categorical values of two data points. Only distance(DataPoint, DataPoint) has to
+ * be implemented, but the searches call the row index version, which is faster when it reads the data
+ * sets' arrays directly
+ */
 public interface CategoricalValueDistanceFunction {
 
     double distance(DataPoint dp1, DataPoint dp2);
+
+    /**
+     * Returns the distance between two rows, given by their index in their data sets. Searches call this
+     * for every row they scan, so functions that read the data sets' arrays directly should override it
+     * to avoid creating data points. By default the rows are viewed as data points
+     */
+    default double distance(DataSet dataSet1, int row1, DataSet dataSet2, int row2) {
+        return distance(dataSet1.get(row1), dataSet2.get(row2));
+    }
 }
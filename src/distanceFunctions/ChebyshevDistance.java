@@ -0,0 +1,20 @@
+package distanceFunctions;
+
+/**
+ * Real value distance function defined as follows:
+ *      The distance between two data points is the largest absolute
+ *      difference between any of their values.
+ * This is the limit of the Minkowski distance as p goes to infinity, so it works
+ * with every index that works with Minkowski distances.
+ */
+public class ChebyshevDistance extends MinkowskiDistance {
+
+    public ChebyshevDistance() {
+        super(Integer.MAX_VALUE, DistanceKernel.CHEBYSHEV);
+    }
+
+    @Override
+    public String toString() {
+        return "Chebyshev distance";
+    }
+}
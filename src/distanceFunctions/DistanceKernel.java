@@ -0,0 +1,309 @@
+package distanceFunctions;
+
+/**
+ * The inner loop of a Minkowski distance over two vectors stored in float arrays.
+ * A kernel first computes a ranking distance, which orders vectors the same way as the
+ * distance but skips the final root (for the Euclidean distance it's the squared distance),
+ * and only takes the root when the actual distance is needed. Rows that are too far away
+ * to be neighbors can then be ruled out without ever taking the root.
+ *
+ * The kernels for p = 1 and p = 2 avoid Math.pow but give exactly the same results as the
+ * general kernel, since Math.pow(x, 1) == x, Math.pow(x, 2) == x * x and Math.pow(x, 0.5) == Math.sqrt(x).
+ */
+public abstract class DistanceKernel {
+
+    /**
+     * How many attributes the bounded kernels add up between comparing the sum to the bound, so the
+     * inner loop stays free of branches the JIT can't unroll around
+     */
+    private static final int ABANDON_INTERVAL = 8;
+
+    /**
+     * Sum of the absolute differences
+     */
+    public static final DistanceKernel MANHATTAN = new DistanceKernel() {
+        @Override
+        public double rankingDistance(float[] values1, int offset1, float[] values2, int offset2, int length) {
+            double distance = 0;
+            for (int i = 0; i < length; i++) {
+                distance += Math.abs(values1[offset1 + i] - values2[offset2 + i]);
+            }
+            return distance;
+        }
+
+        @Override
+        public double rankingDistance(float[] values1, int offset1, float[] values2, int offset2, int length, double bound) {
+            double distance = 0;
+            for (int i = 0; i < length; ) {
+                for (int end = Math.min(i + ABANDON_INTERVAL, length); i < end; i++) {
+                    distance += Math.abs(values1[offset1 + i] - values2[offset2 + i]);
+                }
+                if (distance > bound) {
+                    return distance;
+                }
+            }
+            return distance;
+        }
+
+        @Override
+        public double toDistance(double rankingDistance) {
+            return rankingDistance;
+        }
+
+        @Override
+        public double toRankingDistance(double distance) {
+            return distance;
+        }
+    };
+
+    /**
+     * Square root of the sum of the squared differences
+     */
+    public static final DistanceKernel EUCLIDEAN = new DistanceKernel() {
+        @Override
+        public double rankingDistance(float[] values1, int offset1, float[] values2, int offset2, int length) {
+            double distance = 0;
+            for (int i = 0; i < length; i++) {
+                double difference = Math.abs(values1[offset1 + i] - values2[offset2 + i]);
+                distance += difference * difference;
+            }
+            return distance;
+        }
+
+        @Override
+        public double rankingDistance(float[] values1, int offset1, float[] values2, int offset2, int length, double bound) {
+            double distance = 0;
+            for (int i = 0; i < length; ) {
+                for (int end = Math.min(i + ABANDON_INTERVAL, length); i < end; i++) {
+                    double difference = Math.abs(values1[offset1 + i] - values2[offset2 + i]);
+                    distance += difference * difference;
+                }
+                if (distance > bound) {
+                    return distance;
+                }
+            }
+            return distance;
+        }
+
+        @Override
+        public double toDistance(double rankingDistance) {
+            return Math.sqrt(rankingDistance);
+        }
+
+        @Override
+        public double toRankingDistance(double distance) {
+            return distance * distance;
+        }
+    };
+
+    /**
+     * Largest absolute difference, the limit of the Minkowski distance as p goes to infinity
+     */
+    public static final DistanceKernel CHEBYSHEV = new DistanceKernel() {
+        @Override
+        public double rankingDistance(float[] values1, int offset1, float[] values2, int offset2, int length) {
+            float distance = 0;
+            for (int i = 0; i < length; i++) {
+                distance = Math.max(distance, Math.abs(values1[offset1 + i] - values2[offset2 + i]));
+            }
+            return distance;
+        }
+
+        @Override
+        public double rankingDistance(float[] values1, int offset1, float[] values2, int offset2, int length, double bound) {
+            float distance = 0;
+            for (int i = 0; i < length; ) {
+                for (int end = Math.min(i + ABANDON_INTERVAL, length); i < end; i++) {
+                    distance = Math.max(distance, Math.abs(values1[offset1 + i] - values2[offset2 + i]));
+                }
+                if (distance > bound) {
+                    return distance;
+                }
+            }
+            return distance;
+        }
+
+        @Override
+        public double toDistance(double rankingDistance) {
+            return rankingDistance;
+        }
+
+        @Override
+        public double toRankingDistance(double distance) {
+            return distance;
+        }
+    };
+
+    /**
+     * Name of the class with the Vector API implementation of the Euclidean kernel, which is only
+     * there if it was compiled with the jdk.incubator.vector module
+     */
+    private static final String VECTORIZED_EUCLIDEAN_CLASS = "distanceFunctions.VectorizedEuclideanKernel";
+
+    private static final DistanceKernel VECTORIZED_EUCLIDEAN = loadVectorizedEuclidean();
+
+    /**
+     * Returns the kernel of the Minkowski distance with the given p
+     */
+    public static DistanceKernel forP(int p) {
+        switch (p) {
+            case 1:
+                return MANHATTAN;
+            case 2:
+                return EUCLIDEAN;
+            default:
+                return new General(p);
+        }
+    }
+
+    /**
+     * Returns a kernel that computes the same ranking distance as the given kernel using the Vector API,
+     * or null if there is none. The vectorized kernel adds up the differences in a different order, so its
+     * results can differ from the given kernel's in the last bits. It's only good for ruling rows out:
+     * a row whose vectorized ranking distance is within rankingMargin of the threshold must be
+     * checked with the given kernel
+     */
+    public static DistanceKernel vectorized(DistanceKernel kernel) {
+        return kernel == EUCLIDEAN ? VECTORIZED_EUCLIDEAN : null;
+    }
+
+    private static DistanceKernel loadVectorizedEuclidean() {
+        if (Boolean.getBoolean("knn.disableVectorApi")) {
+            return null;
+        }
+        try {
+            return (DistanceKernel) Class.forName(VECTORIZED_EUCLIDEAN_CLASS).getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            // not compiled, or the jdk.incubator.vector module wasn't added at runtime
+            return null;
+        }
+    }
+
+    /**
+     * Returns a value that orders pairs of vectors the same way as their distance
+     * @param values1 the array holding the first vector
+     * @param offset1 the index of the first vector's first value
+     * @param values2 the array holding the second vector
+     * @param offset2 the index of the second vector's first value
+     * @param length how many values the vectors have
+     * @return the ranking distance between the vectors
+     */
+    public abstract double rankingDistance(float[] values1, int offset1, float[] values2, int offset2, int length);
+
+    /**
+     * Returns the ranking distance between two vectors, but stops adding up the differences once the
+     * sum so far is larger than the bound. The differences are added up in the same order as by
+     * rankingDistance, and the sum never decreases, so when it stops early the whole sum is larger
+     * than the bound too, and when it doesn't the result is exactly what rankingDistance returns.
+     * By default the whole sum is computed
+     * @param values1 the array holding the first vector
+     * @param offset1 the index of the first vector's first value
+     * @param values2 the array holding the second vector
+     * @param offset2 the index of the second vector's first value
+     * @param length how many values the vectors have
+     * @param bound the ranking distance beyond which the exact value doesn't matter
+     * @return the ranking distance if it's at most bound, otherwise some value larger than bound
+     */
+    public double rankingDistance(float[] values1, int offset1, float[] values2, int offset2, int length, double bound) {
+        return rankingDistance(values1, offset1, values2, offset2, length);
+    }
+
+    /**
+     * Turns a ranking distance into the actual distance
+     */
+    public abstract double toDistance(double rankingDistance);
+
+    /**
+     * Turns a distance into a ranking distance. Because of rounding, the result may be
+     * off by a few ulps from the ranking distance the distance was computed from
+     */
+    public abstract double toRankingDistance(double distance);
+
+    /**
+     * How far apart, relative to their size, a ranking distance computed by this kernel may be from
+     * the one computed by the scalar kernel it stands in for, for vectors of the given length.
+     * Scalar kernels are exact, so for them it only covers the rounding of toRankingDistance
+     */
+    public double rankingMargin(int length) {
+        return 1e-9;
+    }
+
+    /**
+     * Returns the distance between two vectors stored in float arrays
+     * @param values1 the array holding the first vector
+     * @param offset1 the index of the first vector's first value
+     * @param values2 the array holding the second vector
+     * @param offset2 the index of the second vector's first value
+     * @param length how many values the vectors have
+     * @return the distance between the vectors
+     */
+    public double distance(float[] values1, int offset1, float[] values2, int offset2, int length) {
+        return toDistance(rankingDistance(values1, offset1, values2, offset2, length));
+    }
+
+    /**
+     * Returns the distance between two vectors, giving up as soon as it's certain to be larger than the upper bound
+     * @param values1 the array holding the first vector
+     * @param offset1 the index of the first vector's first value
+     * @param values2 the array holding the second vector
+     * @param offset2 the index of the second vector's first value
+     * @param length how many values the vectors have
+     * @param upperBound the distance beyond which the exact value doesn't matter
+     * @return the distance between the vectors, or positive infinity if it's larger than upperBound
+     */
+    public double distance(float[] values1, int offset1, float[] values2, int offset2, int length, double upperBound) {
+        double bound = toRankingDistance(upperBound) * (1 + rankingMargin(length));
+        double rankingDistance = rankingDistance(values1, offset1, values2, offset2, length, bound);
+        return rankingDistance > bound ? Double.POSITIVE_INFINITY : toDistance(rankingDistance);
+    }
+
+    /**
+     * Kernel for any other p, which raises every difference to the p power and the sum to the 1/p power
+     */
+    private static class General extends DistanceKernel {
+
+        private final int p;
+
+        General(int p) {
+            this.p = p;
+        }
+
+        @Override
+        public double rankingDistance(float[] values1, int offset1, float[] values2, int offset2, int length) {
+            double distance = 0;
+            for (int i = 0; i < length; i++) {
+                distance += Math.pow(Math.abs(values1[offset1 + i] - values2[offset2 + i]), p);
+            }
+            return distance;
+        }
+
+        @Override
+        public double rankingDistance(float[] values1, int offset1, float[] values2, int offset2, int length, double bound) {
+            // every pow is expensive enough to check the bound after each one
+            double distance = 0;
+            for (int i = 0; i < length; i++) {
+                distance += Math.pow(Math.abs(values1[offset1 + i] - values2[offset2 + i]), p);
+                if (distance > bound) {
+                    return distance;
+                }
+            }
+            return distance;
+        }
+
+        @Override
+        public double toDistance(double rankingDistance) {
+            return Math.pow(rankingDistance, 1.0/p);
+        }
+
+        @Override
+        public double toRankingDistance(double distance) {
+            return Math.pow(distance, p);
+        }
+
+        @Override
+        public double rankingMargin(int length) {
+            // both pows may be off by an ulp
+            return 1e-9 * p;
+        }
+    }
+}
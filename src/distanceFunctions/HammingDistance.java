@@ -1,27 +1,37 @@
 package distanceFunctions;
 
 import algorithm.DataPoint;
+import algorithm.DataSet;
 
 /**
  * Categorical value distance function defined as follows:
  *      1 if two categorical values are different
  *      0 if two categorical values are the same
  * The final distance is divided by the number of categorical values being classified to normalize
+ * Both rows must belong to the same data set, since the values are compared by their dictionary codes
  */
 public class HammingDistance implements CategoricalValueDistanceFunction {
 
     @Override
     public double distance(DataPoint dp1, DataPoint dp2) {
-        if (dp1.categoricalValues.length == 0) {
+        return distance(dp1.dataSet, dp1.index, dp2.dataSet, dp2.index);
+    }
+
+    @Override
+    public double distance(DataSet dataSet1, int row1, DataSet dataSet2, int row2) {
+        int attributeCount = dataSet1.categoricalAttributeCount;
+        if (attributeCount == 0) {
             return 0;
         }
+        int[] values1 = dataSet1.categoricalValues(), values2 = dataSet2.categoricalValues();
+        int offset1 = row1 * attributeCount, offset2 = row2 * attributeCount;
         double distance = 0;
-        for (int i = 0; i < dp1.categoricalValues.length; i++) {
-            if (!dp1.categoricalValues[i].equals(dp2.categoricalValues[i])) {
+        for (int i = 0; i < attributeCount; i++) {
+            if (values1[offset1 + i] != values2[offset2 + i]) {
                 distance += 1; // 0.2;
             }
         }
-        return distance / dp1.categoricalValues.length;
+        return distance / attributeCount;
     }
 
     @Override
@@ -1,6 +1,7 @@
 package distanceFunctions;
 
 import algorithm.DataPoint;
+import algorithm.DataSet;
 
 /**
  * Categorical value distance function defined as follows:
@@ -13,6 +14,11 @@ public class IgnoreCategoricalValues implements CategoricalValueDistanceFunction
         return 0;
     }
 
+    @Override
+    public double distance(DataSet dataSet1, int row1, DataSet dataSet2, int row2) {
+        return 0;
+    }
+
     @Override
     public String toString() {
         return "None";
@@ -1,28 +1,81 @@
 package distanceFunctions;
 
 import algorithm.DataPoint;
+import algorithm.DataSet;
 
 /**
  * Real value distance function defined as follows:
  *      The distance between two values is the absolute difference
  *      between the values raised to the p power.
  * The final sum is then raised to the 1/p power.
+ * The inner loop is done by a DistanceKernel, which avoids Math.pow for p = 1 and p = 2.
  */
 public class MinkowskiDistance implements RealValueDistanceFunction {
 
-    private int p;
+    private final int p;
+
+    private final DistanceKernel kernel;
 
     public MinkowskiDistance(int p) {
+        this(p, DistanceKernel.forP(p));
+    }
+
+    /**
+     * @param p the power p of the distance
+     * @param kernel the kernel that computes the distance
+     */
+    protected MinkowskiDistance(int p, DistanceKernel kernel) {
         this.p = p;
+        this.kernel = kernel;
+    }
+
+    /**
+     * @return the power p of the distance, or Integer.MAX_VALUE for the Chebyshev distance
+     */
+    public int getP() {
+        return p;
+    }
+
+    /**
+     * @return the kernel that computes the distance
+     */
+    public DistanceKernel getKernel() {
+        return kernel;
     }
 
     @Override
     public double distance(DataPoint dp1, DataPoint dp2) {
-        double distance = 0;
-        for (int i = 0; i < dp1.realValues.length; i++) {
-            distance += Math.pow(Math.abs(dp1.realValues[i] - dp2.realValues[i]), p);
-        }
-        return Math.pow(distance, 1.0/p);
+        return distance(dp1.dataSet, dp1.index, dp2.dataSet, dp2.index);
+    }
+
+    @Override
+    public double distance(DataPoint dp1, DataPoint dp2, double upperBound) {
+        return distance(dp1.dataSet, dp1.index, dp2.dataSet, dp2.index, upperBound);
+    }
+
+    @Override
+    public double distance(DataSet dataSet1, int row1, DataSet dataSet2, int row2) {
+        int length = dataSet1.realAttributeCount;
+        return kernel.distance(dataSet1.realValues(), row1 * length, dataSet2.realValues(), row2 * length, length);
+    }
+
+    @Override
+    public double distance(DataSet dataSet1, int row1, DataSet dataSet2, int row2, double upperBound) {
+        int length = dataSet1.realAttributeCount;
+        return kernel.distance(dataSet1.realValues(), row1 * length, dataSet2.realValues(), row2 * length, length, upperBound);
+    }
+
+    /**
+     * Returns the distance between two vectors stored in float arrays
+     * @param values1 the array holding the first vector
+     * @param offset1 the index of the first vector's first value
+     * @param values2 the array holding the second vector
+     * @param offset2 the index of the second vector's first value
+     * @param length how many values the vectors have
+     * @return the distance between the vectors
+     */
+    public double distance(float[] values1, int offset1, float[] values2, int offset2, int length) {
+        return kernel.distance(values1, offset1, values2, offset2, length);
     }
 
     @Override
@@ -1,8 +1,42 @@
 package distanceFunctions;
 
 import algorithm.DataPoint;
+import algorithm.DataSet;
 
+/**
+ * A distance between the real values of two data points. Only distance(DataPoint, DataPoint) has to be
+ * implemented, but the searches call the row index versions, which are faster when they read the data
+ * sets' arrays directly
+ */
 public interface RealValueDistanceFunction {
 
     double distance(DataPoint dp1, DataPoint dp2);
+
+    /**
+     * Returns the distance between two data points, or positive infinity if it's larger than the upper bound.
+     * Searches pass the distance of the farthest neighbor they have so far, so a function that can tell early
+     * that a row is farther away may stop there. By default the whole distance is computed
+     * @param upperBound the distance beyond which the exact value doesn't matter
+     */
+    default double distance(DataPoint dp1, DataPoint dp2, double upperBound) {
+        return distance(dp1, dp2);
+    }
+
+    /**
+     * Returns the distance between two rows, given by their index in their data sets. Searches call this
+     * for every row they scan, so functions that read the data sets' arrays directly should override it
+     * to avoid creating data points. By default the rows are viewed as data points
+     */
+    default double distance(DataSet dataSet1, int row1, DataSet dataSet2, int row2) {
+        return distance(dataSet1.get(row1), dataSet2.get(row2));
+    }
+
+    /**
+     * Returns the distance between two rows, given by their index in their data sets, or positive infinity
+     * if it's larger than the upper bound. By default the rows are viewed as data points
+     * @param upperBound the distance beyond which the exact value doesn't matter
+     */
+    default double distance(DataSet dataSet1, int row1, DataSet dataSet2, int row2, double upperBound) {
+        return distance(dataSet1.get(row1), dataSet2.get(row2), upperBound);
+    }
 }
@@ -0,0 +1,50 @@
+package distanceFunctions;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Euclidean kernel written with the Vector API, so the squared differences are computed
+ * as many lanes at a time as the CPU supports.
+ * It needs the jdk.incubator.vector module, both to compile and to run, and is only ever loaded
+ * through DistanceKernel.vectorized, so the rest of the code compiles and runs without it.
+ * The squares are summed as floats in lane order instead of as doubles in attribute order,
+ * so the result is only accurate to within rankingMargin.
+ */
+class VectorizedEuclideanKernel extends DistanceKernel {
+
+    private static final VectorSpecies<Float> SPECIES = FloatVector.SPECIES_PREFERRED;
+
+    @Override
+    public double rankingDistance(float[] values1, int offset1, float[] values2, int offset2, int length) {
+        FloatVector sums = FloatVector.zero(SPECIES);
+        int i = 0;
+        for (int end = SPECIES.loopBound(length); i < end; i += SPECIES.length()) {
+            FloatVector difference = FloatVector.fromArray(SPECIES, values1, offset1 + i).sub(FloatVector.fromArray(SPECIES, values2, offset2 + i));
+            sums = difference.fma(difference, sums);
+        }
+        double distance = sums.reduceLanes(VectorOperators.ADD);
+        for (; i < length; i++) {
+            double difference = values1[offset1 + i] - values2[offset2 + i];
+            distance += difference * difference;
+        }
+        return distance;
+    }
+
+    @Override
+    public double toDistance(double rankingDistance) {
+        return Math.sqrt(rankingDistance);
+    }
+
+    @Override
+    public double toRankingDistance(double distance) {
+        return distance * distance;
+    }
+
+    @Override
+    public double rankingMargin(int length) {
+        // every float addition may be off by half an ulp of the sum so far
+        return (length + 2) * 0x1p-22;
+    }
+}